@@ -0,0 +1,38 @@
+#!/bin/sh
+# Make the Application Class-Data Sharing archives of jurl and the GUI in data/cds, so they start from
+# classes which are already parsed and verified. Run it from the directory the program runs in (the one with
+# the data directory) after every build, since an archive only works with the jar it was made of.
+# Usage: scripts/cds-archive.sh [compiled classes directory]
+set -e
+
+CLASSES=${1:-out/production/Insomnia_3rdPhase}
+CDS=data/cds
+JAVA=${JAVA_HOME:+$JAVA_HOME/bin/}java
+JAR=${JAVA_HOME:+$JAVA_HOME/bin/}jar
+
+if [ ! -d "$CLASSES/Insomnia" ]; then
+    echo "No compiled classes in $CLASSES" >&2
+    exit 1
+fi
+mkdir -p "$CDS"
+rm -f "$CDS"/*.classlist "$CDS"/*.jsa
+"$JAR" cf "$CDS/insomnia.jar" -C "$CLASSES" Insomnia
+
+# jurl: send a request and list the saved requests
+echo "Training jurl..."
+"$JAVA" -Djava.awt.headless=true -XX:DumpLoadedClassList="$CDS/jurl.classlist" -cp "$CDS/insomnia.jar" \
+    Insomnia.Connection.StartupTraining > /dev/null
+"$JAVA" -Xshare:dump -XX:SharedClassListFile="$CDS/jurl.classlist" -XX:SharedArchiveFile="$CDS/jurl.jsa" \
+    -cp "$CDS/insomnia.jar" > /dev/null
+echo "Made $CDS/jurl.jsa"
+
+# The GUI: open the main window with the saved requests until its first frame, which needs a display
+if "$JAVA" -XX:DumpLoadedClassList="$CDS/insomnia.classlist" -cp "$CDS/insomnia.jar" \
+        Insomnia.Graphics.FirstFrameProbe --exit | grep -q "^first frame"; then
+    "$JAVA" -Xshare:dump -XX:SharedClassListFile="$CDS/insomnia.classlist" \
+        -XX:SharedArchiveFile="$CDS/insomnia.jsa" -cp "$CDS/insomnia.jar" > /dev/null
+    echo "Made $CDS/insomnia.jsa"
+else
+    rm -f "$CDS/insomnia.classlist"
+    echo "No display; the GUI archive was not made"
+fi
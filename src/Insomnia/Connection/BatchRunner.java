@@ -0,0 +1,299 @@
+package Insomnia.Connection;
+
+import java.io.*;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Phaser;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * The class BatchRunner runs a stream of requests, one for each line of its input, and prints the result of each
+ * one as a line of JSON (NDJSON). Each line holds the arguments of a request just like they are given to jurl,
+ * with quotes around arguments which have spaces in them. Empty lines and lines starting with '#' are skipped.
+ * Lines are read only as fast as the requests are sent, with at most a given number of them in flight, so the
+ * memory used does not grow with the input. Results are printed as soon as each request is done, so each one
+ * has the number of its line.
+ *
+ * @author Negar Movaghatian
+ */
+public class BatchRunner {
+
+    private final static int FLUSH_INTERVAL = 64; // The number of results printed between flushes of the output
+
+    private final HttpEngine engine; // The engine to send the requests with
+    private final int parallelism; // The most requests in flight
+    private final PrintStream out; // The stream to print the results on
+
+    private long printed; // The number of results printed
+    private final LongAdder failed; // The number of lines which failed
+
+    /**
+     * Create a new runner.
+     * @param engine The engine to send the requests with.
+     * @param parallelism The most requests in flight.
+     * @param out The stream to print the results on.
+     */
+    public BatchRunner(HttpEngine engine, int parallelism, PrintStream out) {
+        this.engine = engine;
+        this.parallelism = Math.max(1, parallelism);
+        this.out = out;
+        failed = new LongAdder();
+    }
+
+    /**
+     * Run the requests of every line of the input and wait until all of them are done. A summary is printed on
+     * stderr at the end, so the output is only made of results.
+     * @param input The lines to run.
+     * @throws IOException If the input could not be read.
+     */
+    public void run(BufferedReader input) throws IOException {
+        Semaphore inFlight = new Semaphore(parallelism);
+        Phaser pending = new Phaser(1); // Counts the requests in flight, since their number is not known ahead
+        long start = System.nanoTime();
+        long lineNumber = 0, requests = 0;
+        String line;
+        while ((line = input.readLine()) != null) {
+            lineNumber++;
+            String trimmed = line.trim();
+            if (trimmed.isEmpty() || trimmed.startsWith("#"))
+                continue;
+            requests++;
+            inFlight.acquireUninterruptibly();
+            pending.register();
+            long number = lineNumber;
+            try {
+                send(number, trimmed).whenComplete((result, error) -> {
+                    inFlight.release();
+                    pending.arriveAndDeregister();
+                });
+            } catch (RuntimeException e) {
+                print(errorResult(number, e.toString()));
+                inFlight.release();
+                pending.arriveAndDeregister();
+            }
+        }
+        pending.arriveAndAwaitAdvance();
+        synchronized (this) {
+            out.flush();
+        }
+        System.err.printf("Batch: %d request(s), %d failed, %.2f second(s)\n", requests, failed.sum(),
+                (System.nanoTime() - start) / 1_000_000_000.0);
+    }
+
+    /**
+     * Parse a line and send its request.
+     * @param number The number of the line.
+     * @param line The arguments of the request.
+     * @return A future which completes once the result of the line is printed.
+     */
+    private CompletableFuture<Void> send(long number, String line) {
+        InputHandler handler = new InputHandler();
+        List<String> args;
+        try {
+            args = split(line);
+        } catch (IllegalArgumentException e) {
+            print(errorResult(number, e.getMessage()));
+            return CompletableFuture.completedFuture(null);
+        }
+        handler.setArgs(args.toArray(new String[0]));
+
+        // What the parser finds wrong is kept for the result of the line instead of being printed
+        ByteArrayOutputStream messages = new ByteArrayOutputStream();
+        handler.setMessages(new PrintStream(messages, true));
+        boolean valid = handler.parseRequest();
+        if (!valid || handler.getUrl().size() != 1) {
+            String message = messages.toString().trim();
+            print(errorResult(number, !message.isEmpty()? message.replace(System.lineSeparator(), "; ")
+                    : (handler.getUrl().isEmpty()? "No URL found" : "Expected exactly one URL")));
+            return CompletableFuture.completedFuture(null);
+        }
+
+        // A made up output name only has the time in it, so lines parsed at once would share the file
+        String fileName = handler.getFileName();
+        if (handler.isFileNameGenerated())
+            fileName = StreamUtils.numberFileName(fileName, number);
+        Connection connection = new Connection("", handler.getUrl().getFirst(), handler.getMethod(),
+                handler.isFollowRedirect(), false, handler.hasFileName(), fileName,
+                handler.uploadBinary(), handler.getBinaryFilePath(), handler.getFormData(), handler.getHeaders(),
+                new HashMap<>());
+        connection.setHttpVersion(handler.getHttpVersion());
+        connection.setSaveRaw(handler.isSaveRaw());
+        ChecksumSink checksum = handler.isChecksum()? RequestManager.newChecksumSink() : null;
+        long startTime = System.nanoTime();
+        HttpEngine lineEngine = handler.isCache()? RequestManager.engine(true) : engine;
+        if (checksum != null)
+            connection.runConnection(lineEngine, checksum);
+        else
+            connection.runConnection(lineEngine);
+        return connection.getPendingResponse().handle((result, error) -> {
+            long elapsedTime = System.nanoTime() - startTime;
+            if (error != null) {
+                Throwable cause = (error.getCause() != null)? error.getCause() : error;
+                print(errorResult(number, (cause.getMessage() != null)? cause.getMessage() : cause.toString()));
+            }
+            else
+                print(result(number, connection, result, elapsedTime, checksum));
+            return null;
+        });
+    }
+
+    /**
+     * Print a result and flush the output now and then.
+     * @param json The result as a line of JSON.
+     */
+    private synchronized void print(String json) {
+        out.println(json);
+        if (++printed % FLUSH_INTERVAL == 0)
+            out.flush();
+    }
+
+    /**
+     * @param number The number of the line.
+     * @param connection The request of the line.
+     * @param result The response of the request.
+     * @param elapsedTime The nanoseconds the request took.
+     * @param checksum The sink which calculated the checksum of the body, or null.
+     * @return The result of a line which was answered.
+     */
+    private static String result(long number, Connection connection, HttpResult result, long elapsedTime,
+                                 ChecksumSink checksum) {
+        StringBuilder json = new StringBuilder();
+        json.append("{\"line\":").append(number)
+                .append(",\"method\":").append(quote(connection.getMethod()))
+                .append(",\"url\":").append(quote(connection.getUrlString()))
+                .append(",\"status\":").append(result.getStatusCode())
+                .append(",\"protocol\":").append(quote(result.getProtocol()))
+                .append(",\"size\":").append(result.getBodySize())
+                .append(",\"wire_size\":").append(result.getWireSize())
+                .append(",\"time_ms\":").append(millis(elapsedTime))
+                .append(",\"ttfb_ms\":").append(millis(result.getTimeToFirstByte()));
+        if (result.getCacheStatus() != null)
+            json.append(",\"cache\":").append(quote(result.getCacheStatus()));
+        ExchangeTimings timings = result.getTimings();
+        if (timings != null) {
+            json.append(",\"timings_ms\":{");
+            long[] phases = timings.getPhases();
+            for (int i = 0; i < phases.length; i++)
+                json.append((i > 0)? "," : "").append(quote(ExchangeTimings.PHASES[i].toLowerCase())).append(':')
+                        .append(millis(phases[i]));
+            json.append('}');
+            if (timings.isReuseKnown())
+                json.append(",\"reused\":").append(timings.isReused());
+        }
+        if (checksum != null)
+            json.append(',').append(quote(checksum.getAlgorithm().toLowerCase().replace("-", "")))
+                    .append(':').append(quote(checksum.getChecksum()));
+        if (connection.isSaveFile())
+            json.append(",\"file\":").append(quote(connection.getFileName()));
+        return json.append('}').toString();
+    }
+
+    /**
+     * @param number The number of the line.
+     * @param message What went wrong.
+     * @return The result of a line which failed.
+     */
+    private String errorResult(long number, String message) {
+        failed.increment();
+        return "{\"line\":" + number + ",\"error\":" + quote(message) + "}";
+    }
+
+    /**
+     * @param nanos A duration in nanoseconds, or -1.
+     * @return The duration in milliseconds with three decimals, or null if it is -1.
+     */
+    private static String millis(long nanos) {
+        return (nanos < 0)? "null" : String.format("%.3f", nanos / 1_000_000.0);
+    }
+
+    /**
+     * @param value A string, or null.
+     * @return The string as a JSON string, or null.
+     */
+    static String quote(String value) {
+        if (value == null)
+            return "null";
+        StringBuilder json = new StringBuilder(value.length() + 2).append('"');
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            switch (c) {
+                case '"':
+                    json.append("\\\"");
+                    break;
+                case '\\':
+                    json.append("\\\\");
+                    break;
+                case '\n':
+                    json.append("\\n");
+                    break;
+                case '\r':
+                    json.append("\\r");
+                    break;
+                case '\t':
+                    json.append("\\t");
+                    break;
+                default:
+                    if (c < 0x20)
+                        json.append(String.format("\\u%04x", (int) c));
+                    else
+                        json.append(c);
+            }
+        }
+        return json.append('"').toString();
+    }
+
+    /**
+     * Split a line into arguments like a shell does: at spaces, except inside single or double quotes. Inside
+     * double quotes and outside quotes a backslash keeps the next character as it is.
+     * @param line The line to split.
+     * @return The arguments of the line.
+     * @throws IllegalArgumentException If a quote is not closed.
+     */
+    static List<String> split(String line) {
+        List<String> args = new ArrayList<>();
+        StringBuilder arg = new StringBuilder();
+        boolean inArg = false;
+        char quote = 0;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quote == '\'') {
+                if (c == '\'')
+                    quote = 0;
+                else
+                    arg.append(c);
+            }
+            else if (c == '\\' && i + 1 < line.length()) {
+                arg.append(line.charAt(++i));
+                inArg = true;
+            }
+            else if (quote == '"') {
+                if (c == '"')
+                    quote = 0;
+                else
+                    arg.append(c);
+            }
+            else if (c == '"' || c == '\'') {
+                quote = c;
+                inArg = true;
+            }
+            else if (Character.isWhitespace(c)) {
+                if (inArg)
+                    args.add(arg.toString());
+                arg.setLength(0);
+                inArg = false;
+            }
+            else {
+                arg.append(c);
+                inArg = true;
+            }
+        }
+        if (quote != 0)
+            throw new IllegalArgumentException("A quote is not closed");
+        if (inArg)
+            args.add(arg.toString());
+        return args;
+    }
+}
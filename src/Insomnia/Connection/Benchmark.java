@@ -0,0 +1,246 @@
+package Insomnia.Connection;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * The class Benchmark sends the same request over and over to measure how a server behaves under load.
+ * With a rate it works as an open model and sends requests at a fixed arrival rate no matter how fast the
+ * server answers. Without a rate it works as a closed model with a number of workers which each send the
+ * next request as soon as the last one is answered. At the end it prints the throughput, the errors, a
+ * latency histogram which is corrected for coordinated omission and how long each phase of the requests took.
+ *
+ * @author Negar Movaghatian
+ */
+public class Benchmark {
+
+    private final Connection connection; // The request to send
+    private final HttpEngine engine; // The engine to send the request with
+    private final int concurrency; // The number of workers, or the most requests in flight in the open model
+    private final long totalRequests; // The number of requests to measure, zero if limited by duration
+    private final long durationNanos; // How long to measure for, zero if limited by the number of requests
+    private final long warmupNanos; // How long to send requests before measuring
+    private final double rate; // The number of requests to send per second, zero for the closed model
+
+    private final LatencyHistogram histogram; // The latencies of the measured requests
+    private final LatencyHistogram warmupHistogram; // The latencies of the warm-up requests
+    private final LatencyHistogram[] phaseHistograms; // The durations of each phase of the measured requests
+    private final AtomicLong issued; // The number of measured requests which have been sent
+    private final LongAdder completed; // The number of measured requests which have been answered
+    private final Map<String, LongAdder> errors; // The number of each kind of error
+    private final Map<Integer, LongAdder> statusCodes; // The number of each status code received
+    private volatile long measureStart; // The time the measurement started at
+    private volatile long expectedIntervalMicros; // The expected interval of a closed model worker
+
+    /**
+     * Create a new benchmark.
+     * @param connection The request to send.
+     * @param engine The engine to send the request with.
+     * @param concurrency The number of workers, or the most requests in flight in the open model.
+     * @param totalRequests The number of requests to measure, zero if limited by duration.
+     * @param durationSeconds How long to measure for, zero if limited by the number of requests.
+     * @param warmupSeconds How long to send requests before measuring.
+     * @param rate The number of requests to send per second, zero for the closed model.
+     */
+    public Benchmark(Connection connection, HttpEngine engine, int concurrency, long totalRequests,
+                     double durationSeconds, double warmupSeconds, double rate) {
+        this.connection = connection;
+        this.engine = engine;
+        this.concurrency = Math.max(1, concurrency);
+        this.totalRequests = (totalRequests == 0 && durationSeconds == 0)? 100 : totalRequests;
+        this.durationNanos = (long) (durationSeconds * 1_000_000_000L);
+        this.warmupNanos = (long) (warmupSeconds * 1_000_000_000L);
+        this.rate = rate;
+        histogram = new LatencyHistogram();
+        warmupHistogram = new LatencyHistogram();
+        phaseHistograms = new LatencyHistogram[ExchangeTimings.PHASES.length];
+        for (int i = 0; i < phaseHistograms.length; i++)
+            phaseHistograms[i] = new LatencyHistogram();
+        issued = new AtomicLong();
+        completed = new LongAdder();
+        errors = new ConcurrentHashMap<>();
+        statusCodes = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * Run the benchmark and print its results when it's done.
+     */
+    public void run() {
+        System.out.println("Benchmarking " + connection.getMethod() + " " + connection.getUrlString());
+        System.out.println((rate > 0)? String.format("Open model: %.1f requests/s, at most %d in flight",
+                rate, concurrency) : "Closed model: " + concurrency + " worker(s)");
+
+        long start = System.nanoTime();
+        measureStart = start + warmupNanos;
+        if (rate > 0)
+            runOpenModel(start);
+        else
+            runClosedModel();
+        printResults(System.nanoTime() - measureStart);
+    }
+
+    /**
+     * Send requests at a fixed rate. The latency of each request is measured from the time it should have
+     * been sent, so a server which stalls can't hide its stall by delaying the requests behind it.
+     * @param start The time the benchmark started at.
+     */
+    private void runOpenModel(long start) {
+        Semaphore inFlight = new Semaphore(concurrency);
+        double interval = 1_000_000_000L / rate;
+        for (long i = 0; ; i++) {
+            long intendedStart = start + (long) (i * interval);
+            boolean warmup = intendedStart < measureStart;
+            if (!warmup && !reserveRequest(intendedStart))
+                break;
+            long delay = intendedStart - System.nanoTime();
+            if (delay > 0)
+                LockSupport.parkNanos(delay);
+            inFlight.acquireUninterruptibly();
+            engine.send(connection, new DiscardSink()).whenComplete((result, error) -> {
+                try {
+                    record(result, error, intendedStart, warmup);
+                } finally {
+                    inFlight.release(); // Only once it's recorded, so the results are complete at the end
+                }
+            });
+        }
+        inFlight.acquireUninterruptibly(concurrency);
+    }
+
+    /**
+     * Send requests from a number of workers which each send the next request as soon as the last one is
+     * answered. Nothing is parked while waiting for the server; each worker goes on from the response callback.
+     */
+    private void runClosedModel() {
+        CompletableFuture<?>[] workers = new CompletableFuture<?>[concurrency];
+        for (int i = 0; i < concurrency; i++) {
+            CompletableFuture<Void> worker = new CompletableFuture<>();
+            sendNext(worker);
+            workers[i] = worker;
+        }
+        CompletableFuture.allOf(workers).join();
+    }
+
+    /**
+     * Send the next request of a closed model worker.
+     * @param worker The future to complete when the worker has nothing more to send.
+     */
+    private void sendNext(CompletableFuture<Void> worker) {
+        long startTime = System.nanoTime();
+        boolean warmup = startTime < measureStart;
+        if (!warmup && !reserveRequest(startTime)) {
+            worker.complete(null);
+            return;
+        }
+        if (!warmup && expectedIntervalMicros == 0 && warmupHistogram.getTotalCount() != 0)
+            expectedIntervalMicros = (long) warmupHistogram.getMean();
+        engine.send(connection, new DiscardSink()).whenCompleteAsync((result, error) -> {
+            record(result, error, startTime, warmup);
+            sendNext(worker);
+        });
+    }
+
+    /**
+     * Check if another measured request should be sent and count it if so.
+     * @param time The time the request would be sent at.
+     * @return True if the request should be sent and false if the benchmark is over.
+     */
+    private boolean reserveRequest(long time) {
+        if (durationNanos > 0 && time - measureStart >= durationNanos)
+            return false;
+        return totalRequests == 0 || issued.incrementAndGet() <= totalRequests;
+    }
+
+    /**
+     * Record the outcome of a request.
+     * @param result The response of the request or null if it failed.
+     * @param error The reason the request failed or null if it was answered.
+     * @param startTime The time the latency is measured from.
+     * @param warmup True if the request was sent during the warm-up.
+     */
+    private void record(HttpResult result, Throwable error, long startTime, boolean warmup) {
+        long latencyMicros = (System.nanoTime() - startTime) / 1_000;
+        if (warmup) {
+            if (error == null)
+                warmupHistogram.record(latencyMicros);
+            return;
+        }
+        completed.increment();
+        if (error != null) {
+            Throwable cause = (error.getCause() != null)? error.getCause() : error;
+            errors.computeIfAbsent(cause.getClass().getSimpleName(), k -> new LongAdder()).increment();
+            return;
+        }
+        statusCodes.computeIfAbsent(result.getStatusCode(), k -> new LongAdder()).increment();
+        if (result.getStatusCode() >= 400)
+            errors.computeIfAbsent("HTTP " + result.getStatusCode(), k -> new LongAdder()).increment();
+        if (result.getTimings() != null) {
+            long[] phases = result.getTimings().getPhases();
+            for (int i = 0; i < phases.length; i++)
+                if (phases[i] >= 0)
+                    phaseHistograms[i].record(phases[i] / 1_000);
+        }
+        if (rate > 0)
+            histogram.record(latencyMicros);
+        else
+            histogram.recordWithExpectedInterval(latencyMicros, expectedIntervalMicros);
+    }
+
+    /**
+     * Print the results of the benchmark.
+     * @param elapsedNanos How long the measurement took.
+     */
+    private void printResults(long elapsedNanos) {
+        double seconds = elapsedNanos / 1_000_000_000.0;
+        long total = completed.sum();
+        long errorCount = 0;
+        for (LongAdder count : errors.values())
+            errorCount += count.sum();
+
+        System.out.printf("\nRequests: %d in %.2f second(s)\n", total, seconds);
+        System.out.printf("Throughput: %.2f requests/s\n", total / seconds);
+        System.out.println("Status Codes: " + sum(statusCodes));
+        System.out.println("Errors: " + errorCount + ((errorCount != 0)? " " + sum(errors) : ""));
+
+        System.out.println("\nLatency:");
+        if (rate <= 0 && expectedIntervalMicros == 0)
+            System.out.println("  (not corrected for coordinated omission: use --warmup to estimate the expected interval)");
+        System.out.printf("  mean   %s\n", LatencyHistogram.formatMicros(histogram.getMean()));
+        System.out.printf("  p50    %s\n", LatencyHistogram.formatMicros(histogram.getValueAtPercentile(50)));
+        System.out.printf("  p90    %s\n", LatencyHistogram.formatMicros(histogram.getValueAtPercentile(90)));
+        System.out.printf("  p99    %s\n", LatencyHistogram.formatMicros(histogram.getValueAtPercentile(99)));
+        System.out.printf("  p99.9  %s\n", LatencyHistogram.formatMicros(histogram.getValueAtPercentile(99.9)));
+        System.out.printf("  max    %s\n", LatencyHistogram.formatMicros(histogram.getMax()));
+        System.out.println("\nPhases:               mean        p50        p99        max");
+        for (int i = 0; i < phaseHistograms.length; i++) {
+            LatencyHistogram phase = phaseHistograms[i];
+            if (phase.getTotalCount() == 0) // The phase did not happen or could not be measured
+                continue;
+            System.out.printf("  %-10s %10s %10s %10s %10s\n", ExchangeTimings.PHASES[i],
+                    LatencyHistogram.formatMicros(phase.getMean()),
+                    LatencyHistogram.formatMicros(phase.getValueAtPercentile(50)),
+                    LatencyHistogram.formatMicros(phase.getValueAtPercentile(99)),
+                    LatencyHistogram.formatMicros(phase.getMax()));
+        }
+        System.out.println("\nLatency Distribution:");
+        histogram.printDistribution(System.out);
+        System.out.println();
+    }
+
+    /**
+     * @param counts A map of counters.
+     * @return The counters as a sorted String. For example '{200=95, 500=5}'.
+     */
+    private static <K> String sum(Map<K, LongAdder> counts) {
+        TreeMap<String, Long> sums = new TreeMap<>();
+        for (Map.Entry<K, LongAdder> count : counts.entrySet())
+            sums.put(count.getKey().toString(), count.getValue().sum());
+        return sums.toString();
+    }
+}
@@ -0,0 +1,52 @@
+package Insomnia.Connection;
+
+import java.nio.ByteBuffer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+
+/**
+ * The class ChecksumSink calculates a digest of the body of a response while it is being received.
+ *
+ * @author Negar Movaghatian
+ */
+public class ChecksumSink implements ResponseSink {
+
+    private final MessageDigest digest; // The digest which is updated with each chunk
+    private String checksum; // The final checksum in hex, once the body is complete
+
+    /**
+     * Create a new checksum sink.
+     * @param algorithm The name of the digest algorithm. For example 'SHA-256'.
+     * @throws NoSuchAlgorithmException If the algorithm is not supported.
+     */
+    public ChecksumSink(String algorithm) throws NoSuchAlgorithmException {
+        digest = MessageDigest.getInstance(algorithm);
+    }
+
+    @Override
+    public void write(ByteBuffer chunk) {
+        digest.update(chunk);
+    }
+
+    @Override
+    public void end() {
+        StringBuilder hex = new StringBuilder();
+        for (byte b : digest.digest())
+            hex.append(String.format("%02x", b));
+        checksum = hex.toString();
+    }
+
+    /**
+     * @return The name of the digest algorithm.
+     */
+    public String getAlgorithm() {
+        return digest.getAlgorithm();
+    }
+
+    /**
+     * @return The checksum of the body in hex, or null if the body has not been received completely yet.
+     */
+    public String getChecksum() {
+        return checksum;
+    }
+}
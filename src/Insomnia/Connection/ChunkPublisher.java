@@ -0,0 +1,166 @@
+package Insomnia.Connection;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.http.HttpRequest;
+import java.nio.ByteBuffer;
+import java.util.concurrent.Flow;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The class ChunkPublisher is the base of the request bodies which are read chunk by chunk while they are
+ * being sent. The next chunk is read only when the client asks for it, so a body of any size is sent with
+ * a constant amount of memory. Every subscription reads the body from the start, since the client may send
+ * it more than once, for example after a redirect.
+ * It also measures how fast the body was sent.
+ *
+ * @author Negar Movaghatian
+ */
+public abstract class ChunkPublisher implements HttpRequest.BodyPublisher {
+
+    private volatile long bytesSent; // The number of bytes handed to the client in the last subscription
+    private volatile long firstChunkTime; // The time the first chunk was handed to the client
+    private volatile long lastChunkTime; // The time the body was completely handed to the client
+
+    /**
+     * A ChunkSource reads a body chunk by chunk.
+     */
+    protected interface ChunkSource extends Closeable {
+
+        /**
+         * @return The next chunk of the body, or null if the body is over. The chunk is not used by the source
+         * any more after it's returned.
+         * @throws IOException If the body could not be read.
+         */
+        ByteBuffer next() throws IOException;
+    }
+
+    /**
+     * Open the body from its start.
+     * @return A source to read the body from.
+     * @throws IOException If the body could not be opened.
+     */
+    protected abstract ChunkSource open() throws IOException;
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super ByteBuffer> subscriber) {
+        ChunkSource source;
+        try {
+            source = open();
+        } catch (IOException e) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                public void request(long n) {}
+                public void cancel() {}
+            });
+            subscriber.onError(e);
+            return;
+        }
+        bytesSent = 0;
+        firstChunkTime = 0;
+        lastChunkTime = 0;
+        subscriber.onSubscribe(new ChunkSubscription(subscriber, source));
+    }
+
+    /**
+     * @return The number of bytes of the body which have been sent.
+     */
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    /**
+     * @return The nanoseconds it took to send the body, or -1 if it has not been sent completely.
+     */
+    public long getSendTime() {
+        return (lastChunkTime == 0)? -1 : lastChunkTime - firstChunkTime;
+    }
+
+    /**
+     * The subscription which hands chunks to a subscriber as many as it asks for. Chunks are only handed
+     * over from one thread at a time, even if the subscriber asks for more while it's receiving a chunk.
+     */
+    private class ChunkSubscription implements Flow.Subscription {
+
+        private final Flow.Subscriber<? super ByteBuffer> subscriber; // The subscriber to hand chunks to
+        private final ChunkSource source; // The source to read chunks from
+        private final AtomicLong demand; // The number of chunks the subscriber has asked for
+        private final AtomicInteger work; // The number of pending drains, to keep draining on one thread
+        private volatile boolean cancelled; // Shows if the subscriber has cancelled the subscription
+        private boolean done; // Shows if the source is closed
+
+        /**
+         * Create a new subscription.
+         * @param subscriber The subscriber to hand chunks to.
+         * @param source The source to read chunks from.
+         */
+        ChunkSubscription(Flow.Subscriber<? super ByteBuffer> subscriber, ChunkSource source) {
+            this.subscriber = subscriber;
+            this.source = source;
+            demand = new AtomicLong();
+            work = new AtomicInteger();
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                cancelled = true;
+                subscriber.onError(new IllegalArgumentException("Requested a non-positive number of chunks"));
+            }
+            else
+                demand.getAndAccumulate(n, (current, added) -> (current + added < 0)? Long.MAX_VALUE : current + added);
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            cancelled = true;
+            drain();
+        }
+
+        /**
+         * Hand chunks to the subscriber while it wants more and the body is not over.
+         */
+        private void drain() {
+            if (work.getAndIncrement() != 0)
+                return;
+            do {
+                while (!done && !cancelled && demand.get() > 0) {
+                    ByteBuffer chunk;
+                    try {
+                        chunk = source.next();
+                    } catch (IOException e) {
+                        close();
+                        subscriber.onError(e);
+                        break;
+                    }
+                    if (chunk == null) {
+                        lastChunkTime = System.nanoTime();
+                        close();
+                        subscriber.onComplete();
+                        break;
+                    }
+                    if (firstChunkTime == 0)
+                        firstChunkTime = System.nanoTime();
+                    bytesSent += chunk.remaining();
+                    demand.decrementAndGet();
+                    subscriber.onNext(chunk);
+                }
+                if (cancelled)
+                    close();
+            } while (work.decrementAndGet() != 0);
+        }
+
+        /**
+         * Close the source if it's not closed yet.
+         */
+        private void close() {
+            if (done)
+                return;
+            done = true;
+            try {
+                source.close();
+            } catch (IOException ignored) {}
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package Insomnia.Connection;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * The class CodecBenchmark compares ConnectionCodec with the Java serialization requests used to be saved with.
+ * It encodes and decodes the same requests with both and prints the size of the encoded requests and how long
+ * encoding and decoding take. The requests are read from the .bin files of a directory, or made up if there
+ * are none.
+ * Usage: java Insomnia.Connection.CodecBenchmark [directory of .bin files] [rounds]
+ *
+ * @author Negar Movaghatian
+ */
+public class CodecBenchmark {
+
+    private final static int WARMUP_ROUNDS = 5; // The rounds run before measuring, so the code is compiled
+    private final static int GENERATED_REQUESTS = 1000; // The number of requests made up if none are found
+
+    private static long blackHole; // Keeps the results of the measured code alive
+
+    /**
+     * Run the benchmark.
+     * @param args The directory to read the requests from and the number of rounds to measure, both optional.
+     */
+    public static void main(String[] args) throws Exception {
+        File dir = new File((args.length > 0)? args[0] : "." + File.separator + "data" + File.separator + "Requests");
+        int rounds = (args.length > 1)? Integer.parseInt(args[1]) : 20;
+        List<Connection> connections = readLegacy(dir);
+        if (connections.isEmpty())
+            connections = generate();
+        System.out.println("Requests: " + connections.size() + ", rounds: " + rounds + "\n");
+
+        // Check both formats give back what they were given before measuring them
+        for (Connection connection : connections)
+            if (!connection.toString().equals(ConnectionCodec.decode(ConnectionCodec.encode(connection)).toString())
+                    || !connection.toString().equals(deserialize(serialize(connection)).toString()))
+                throw new IllegalStateException("Round trip changed " + connection);
+
+        long serializedSize = 0, codecSize = 0;
+        for (Connection connection : connections) {
+            serializedSize += serialize(connection).length;
+            codecSize += ConnectionCodec.encodedSize(connection);
+        }
+        System.out.printf("%-22s %14s %14s %14s\n", "", "bytes/request", "encode", "decode");
+        run("Java serialization", serializedSize, connections, rounds, false);
+        run("ConnectionCodec", codecSize, connections, rounds, true);
+        if (blackHole == 42)
+            System.out.println();
+    }
+
+    /**
+     * Measure encoding and decoding the requests with one of the formats and print the results.
+     * @param title The name of the format.
+     * @param totalSize The number of bytes of all the requests in the format.
+     * @param connections The requests.
+     * @param rounds The number of times to encode and decode all the requests.
+     * @param codec True to measure ConnectionCodec and false to measure Java serialization.
+     */
+    private static void run(String title, long totalSize, List<Connection> connections, int rounds,
+                            boolean codec) throws Exception {
+        List<Object> encoded = new ArrayList<>();
+        for (Connection connection : connections)
+            encoded.add(codec? ConnectionCodec.encode(connection) : serialize(connection));
+
+        long encodeTime = Long.MAX_VALUE, decodeTime = Long.MAX_VALUE;
+        for (int round = 0; round < WARMUP_ROUNDS + rounds; round++) {
+            long start = System.nanoTime();
+            for (Connection connection : connections)
+                blackHole += codec? ConnectionCodec.encode(connection).limit() : serialize(connection).length;
+            long encodeEnd = System.nanoTime();
+            for (Object bytes : encoded)
+                blackHole += (codec? ConnectionCodec.decode(((ByteBuffer) bytes).duplicate())
+                        : deserialize((byte[]) bytes)).getMethod().length();
+            long decodeEnd = System.nanoTime();
+            if (round >= WARMUP_ROUNDS) { // Keep the best round, which is the least disturbed by GC and the OS
+                encodeTime = Math.min(encodeTime, encodeEnd - start);
+                decodeTime = Math.min(decodeTime, decodeEnd - encodeEnd);
+            }
+        }
+        System.out.printf("%-22s %14d %11.2f us %11.2f us\n", title, totalSize / connections.size(),
+                encodeTime / 1000.0 / connections.size(), decodeTime / 1000.0 / connections.size());
+    }
+
+    /**
+     * @param dir A directory of requests saved by Java serialization.
+     * @return The requests of the directory.
+     */
+    private static List<Connection> readLegacy(File dir) {
+        List<Connection> connections = new ArrayList<>();
+        File[] files = dir.listFiles((parent, name) -> name.endsWith(".bin"));
+        if (files == null)
+            return connections;
+        Arrays.sort(files);
+        for (File file : files)
+            try (ObjectInputStream input = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                connections.add((Connection) input.readObject());
+            } catch (ClassNotFoundException | IOException e) {
+                System.err.println("Could not read " + file.getName() + ": " + e.getMessage());
+            }
+        return connections;
+    }
+
+    /**
+     * @return Made up requests with a few headers, queries and form data each.
+     */
+    private static List<Connection> generate() {
+        List<Connection> connections = new ArrayList<>();
+        for (int i = 0; i < GENERATED_REQUESTS; i++) {
+            HashMap<String, String> headers = new HashMap<>();
+            headers.put("Accept", "application/json");
+            headers.put("Authorization", "Bearer token" + i);
+            HashMap<String, String> query = new HashMap<>();
+            query.put("page", "" + i);
+            HashMap<String, String> formData = new HashMap<>();
+            if (i % 2 == 0)
+                formData.put("name", "request " + i);
+            connections.add(new Connection("request " + i, "https://api.example.com/items/" + i, (i % 3 == 0)?
+                    "POST" : "GET", true, false, false, null, false, "", formData, headers, query));
+        }
+        return connections;
+    }
+
+    /**
+     * @param connection A request.
+     * @return The request written by Java serialization.
+     */
+    private static byte[] serialize(Connection connection) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream output = new ObjectOutputStream(bytes)) {
+            output.writeObject(connection);
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @param bytes A request written by Java serialization.
+     * @return The request.
+     */
+    private static Connection deserialize(byte[] bytes) throws IOException, ClassNotFoundException {
+        try (ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return (Connection) input.readObject();
+        }
+    }
+}
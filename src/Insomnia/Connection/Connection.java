@@ -1,21 +1,29 @@
 package Insomnia.Connection;
 
 import java.io.*;
-import java.net.HttpURLConnection;
-import java.net.URL;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 
 /**
- * The class Connection has a http connection and sets its settings. Such as its URL, method, headers, body,
- * etc. It also prints the information about this request's response.
+ * The class Connection describes a http request and its settings. Such as its URL, method, headers, body,
+ * etc. It sends itself through an HttpEngine and prints the information about this request's response.
  *
  * @author Negar Movaghatian
  */
 public class Connection implements Serializable {
 
+    private static final long serialVersionUID = 3228223006676467954L; // Keeps the requests saved before readable
+
+    public final static String HTTP_1_1 = "HTTP/1.1"; // One request at a time on each connection
+    public final static String HTTP_2 = "HTTP/2"; // Many requests at once on one connection
+
     // Connection variables
-    transient private HttpURLConnection urlConnection; // An HttpURLConnection which is the base of this class
     private String urlString; // The url of this connection
     private String method; // The method of this connection
     private boolean followRedirect; // Shows if the user wants the program to follow redirects automatically or not
@@ -28,13 +36,17 @@ public class Connection implements Serializable {
     private HashMap<String, String> headers; // The list of the headers of this request
     private HashMap<String, String> query; // The list of the queries of this request
     private String name; // The name of this request
+    private String httpVersion; // The HTTP version to send this request with, null to let the client negotiate it
+    transient private boolean saveRaw; // Shows if the output file gets the body as it was sent, even if compressed
 
     // Response variables
-    transient private String responseLength; // The length of the response in byte, kilobyte or
-    // megabyte depending on how large it is
     transient private String responseMessage; // The combination of the status code and message
     transient private byte[] streamBytes; // The bytes of the response
+    transient private HttpResult response; // The response of the last time this request was sent
+    transient private CompletableFuture<HttpResult> pendingResponse; // The response which is being received
+    transient private LinkedList<ResponseSink> sinks; // The sinks which receive the body of the response
     transient private LinkedList<String> errors; // A list of runtime errors which occurs during running the program
+    transient private PrintStream output; // The stream to print the response information on, null for stdout
 
     /**
      * Create a new Connection/
@@ -68,162 +80,128 @@ public class Connection implements Serializable {
     }
 
     /**
-     * Open the connection and set its settings.
+     * Send this request through the shared engine and print its status and body on the console while they
+     * are being received. printResponseInfo waits for the rest of the response.
      */
     public void runConnection() {
-        try {
-            // Open connection and set its method, body and headers
-            URL url = new URL(urlString);
-            urlConnection = (HttpURLConnection) url.openConnection();
-            urlConnection.setInstanceFollowRedirects(followRedirect);
-            urlConnection.setRequestMethod(method);
-            if (formData.size() != 0)
-                putFormData();
-            if (headers.size() != 0)
-                putHeaders();
-
-            // Set proper name for output file
-            if (fileName != null && fileName.contains("output_") && !fileName.contains("."))
-                this.fileName = fileName.concat('.' + getResponseType());
-
-            // Upload binary file
-            if (uploadBinary)
-                uploadBinary();
-        } catch (Exception e) {
-            System.err.println("Could not connect to server: " + e.getMessage());
-            errors.add("Could not connect to server: " + e.getMessage());
-        }
+        runConnection(new ConsoleSink(getOutput()));
     }
 
     /**
-     * Print the required information of this request.
+     * Send this request through the shared engine. The body of the response is handed to the given sinks
+     * while it is being received and printResponseInfo waits for the rest of the response.
+     * @param sinks The sinks to hand the response body to.
      */
-    public void printResponseInfo() {
-        try {
-            // Print status code and message
-            responseMessage = urlConnection.getResponseCode() + " " + urlConnection.getResponseMessage();
-            System.out.println("\nStatus Code: " + responseMessage);
-
-            // Get the response body
-            InputStream connectionInputStream;
-            if (urlConnection.getResponseMessage().equals("OK"))
-                connectionInputStream = urlConnection.getInputStream();
-            else
-                connectionInputStream = urlConnection.getErrorStream();
-
-            streamBytes = StreamUtils.getStreamBytes(new BufferedInputStream(connectionInputStream));
-
-            // Print the response body
-            if (streamBytes != null) {
-                String responseBody = StreamUtils.getResponseBodyText(streamBytes);
-                System.out.println("\nResponse Body:\n" + responseBody);
-            }
-            else
-                System.out.println("\nResponse Body: Empty");
-
-            // Print headers info
-            if (showResponseHeaders) {
-                System.out.println("\n\nResponse Headers:");
-                for (int i = 0; i < urlConnection.getHeaderFields().size(); i++)
-                    System.out.println(urlConnection.getHeaderFieldKey(i) + " = " + urlConnection.getHeaderField(i));
-            }
-
-            // Show response type
-            System.out.println("\nResponse Type: " + getResponseType());
-
-            // Show response size
-            if (streamBytes != null)
-                responseLength = (streamBytes.length > 1048576)? (String.format("%.2fMB", (float) streamBytes.length/1048576)) :
-                        (streamBytes.length > 1024)? (String.format("%.2fKB",(float) streamBytes.length/1024)) : ((float) streamBytes.length + "B");
-            else
-                responseLength = "0B";
-            System.out.println("\nResponse Size: " + responseLength);
-
-            // Save response
-            if (saveFile)
-                StreamUtils.fileWriter(streamBytes, fileName);
-            urlConnection.disconnect();
-        } catch (Exception e) {
-            System.err.println("An unexpected error occurred while communicating with server: " + e.getMessage());
-        }
+    public void runConnection(ResponseSink... sinks) {
+        runConnection(HttpClientEngine.getDefault(), sinks);
     }
 
     /**
-     * Write the request body into the requests output stream.
-     * @param body The list of the body parameters.
-     * @param boundary The boundary to separate the form data fields with.
-     * @param bufferedOutputStream The output stream of this connection.
+     * Send this request through the given engine. The body of the response is handed to the given sinks
+     * while it is being received and printResponseInfo waits for the rest of the response. If the user
+     * wants the output saved, the body is written into the output file too.
+     * @param engine The engine to send this request with.
+     * @param sinks The sinks to hand the response body to.
      */
-    public void bufferOutFormData(HashMap<String, String> body, String boundary, BufferedOutputStream bufferedOutputStream) {
-        try {
-            for (String key : body.keySet()) {
-                bufferedOutputStream.write(("--" + boundary + "\r\n").getBytes());
-                if (key.contains("file")) { // In case the data is a file
-                    if (!StreamUtils.isPathValid(body.get(key)))
-                        System.out.println("Could not add this key to form-data");
-                    bufferedOutputStream.write(("Content-Disposition: form-data; filename=\"" + (new File(body.get(key))).getName() + "\"\r\nContent-Type: Auto\r\n\r\n").getBytes());
-                    try {
-                        BufferedInputStream tempBufferedInputStream = new BufferedInputStream(new FileInputStream(new File(body.get(key))));
-                        byte[] filesBytes = new byte[tempBufferedInputStream.available()];
-                        tempBufferedInputStream.read(filesBytes);
-                        bufferedOutputStream.write(filesBytes);
-                        bufferedOutputStream.write("\r\n".getBytes());
-                    } catch (IOException e) {
-                        e.printStackTrace();
-                    }
-                } else { // In case the data is text
-                    bufferedOutputStream.write(("Content-Disposition: form-data; name=\"" + key + "\"\r\n\r\n").getBytes());
-                    bufferedOutputStream.write((body.get(key) + "\r\n").getBytes());
-                }
-            }
-            bufferedOutputStream.write(("--" + boundary + "--\r\n").getBytes());
-            bufferedOutputStream.flush();
-            bufferedOutputStream.close();
-        } catch (IOException e) {
-            System.err.println("Could not write form data: " + e.getMessage());
-            errors.add("Could not write form data: " + e.getMessage());
-        }
+    public void runConnection(HttpEngine engine, ResponseSink... sinks) {
+        errors = new LinkedList<>();
+        response = null;
+        streamBytes = null;
+        this.sinks = new LinkedList<>(Arrays.asList(sinks));
+        if (saveFile)
+            this.sinks.add(new FileSink(fileName, saveRaw));
+        pendingResponse = engine.send(this, this.sinks.toArray(new ResponseSink[0]));
     }
 
     /**
-     * Add form data information to headers of this request and write the to this request's
-     * output stream using method bufferOutFormData.
+     * Cancel the response which is being received since this request was last sent. The engine aborts the
+     * exchange if it can, and printResponseInfo reports the request as cancelled.
      */
-    private void putFormData() {
-        try {
-            String boundary = "X-MAXEU-BOUNDARY";
-            urlConnection.setDoOutput(true);
-            urlConnection.setRequestProperty("Content-Type", "multipart/form-data; boundary=" + boundary);
-            BufferedOutputStream requestOutputStream = new BufferedOutputStream(urlConnection.getOutputStream());
-            bufferOutFormData(formData, boundary, requestOutputStream);
-        } catch (Exception e) {
-            System.err.println("Could not write form data: " + e.getMessage());
-            errors.add("Could not write form data: " + e.getMessage());
-        }
+    public void cancel() {
+        if (pendingResponse != null)
+            pendingResponse.cancel(true);
     }
 
     /**
-     * Upload a binary file to the server.
+     * Wait for the response of this request and print its required information.
      */
-    public void uploadBinary() {
+    public void printResponseInfo() {
+        try {
+            response = pendingResponse.join();
+        } catch (CancellationException e) {
+            System.err.println("The request was cancelled.");
+            errors.add("The request was cancelled.");
+            return;
+        } catch (CompletionException e) {
+            String message = (e.getCause() != null)? e.getCause().getMessage() : e.getMessage();
+            System.err.println("Could not connect to server: " + message);
+            errors.add("Could not connect to server: " + message);
+            return;
+        }
+
         try {
-            if (!StreamUtils.isPathValid(binaryFileName)) {
-                System.out.println("Failed to upload the binary file.");
-                return;
+            // Collect what the sinks got from the response body
+            responseMessage = response.getStatusMessage();
+            boolean printedOnConsole = false;
+            for (ResponseSink sink : sinks) {
+                if (sink instanceof ConsoleSink)
+                    printedOnConsole = true;
+                else if (sink instanceof MemorySink)
+                    streamBytes = ((MemorySink) sink).toByteArray();
+                else if (sink instanceof SpillSink)
+                    streamBytes = ((SpillSink) sink).toByteArray();
+                else if (sink instanceof FileSink)
+                    fileName = ((FileSink) sink).getFileName();
+                else if (sink instanceof ChecksumSink)
+                    getOutput().println("\n" + ((ChecksumSink) sink).getAlgorithm() + ": "
+                            + ((ChecksumSink) sink).getChecksum());
+            }
+
+            // Print status code and message in case it was not printed with the body
+            if (!printedOnConsole)
+                getOutput().println("\nStatus Code: " + responseMessage);
+
+            // Print the protocol the response was received with
+            getOutput().println("\nProtocol: " + response.getProtocol());
+
+            // Print if the response came from the cache
+            if (response.getCacheStatus() != null)
+                getOutput().println("\nCache: " + response.getCacheStatus());
+
+            // Print headers info
+            if (showResponseHeaders) {
+                getOutput().println("\n\nResponse Headers:");
+                for (Map.Entry<String, List<String>> header : response.getHeaders().entrySet())
+                    getOutput().println(header.getKey() + " = " + String.join(", ", header.getValue()));
+            }
+
+            // Print how long each phase of the exchange took
+            if (showResponseHeaders && response.getTimings() != null) {
+                getOutput().println("\n\nTimings:");
+                response.getTimings().print(getOutput());
             }
-            File fileToUpload = new File(binaryFileName);
-            urlConnection.setDoOutput(true);
-            urlConnection.setRequestProperty("Content-Type", "application/octet-stream");
-            BufferedOutputStream bufferedOutputStream = new BufferedOutputStream(urlConnection.getOutputStream());
-            BufferedInputStream fileInputStream = new BufferedInputStream(new FileInputStream(fileToUpload));
-            byte[] filesBytes = new byte[fileInputStream.available()];
-            fileInputStream.read(filesBytes);
-            bufferedOutputStream.write(filesBytes);
-            bufferedOutputStream.flush();
-            bufferedOutputStream.close();
-        } catch (IOException e) {
-            System.err.println("Could not upload binary file: " + e.getMessage());
-           errors.add("Could not upload binary file: " + e.getMessage());
+
+            // Show response type
+            getOutput().println("\nResponse Type: " + getResponseType());
+
+            // Show response size, and how large it was on the wire if it was compressed
+            getOutput().println("\nResponse Size: " + getResponseSize());
+            if (response.getContentEncoding() != null)
+                getOutput().println("Transfer Size: " + getWireSize() + " (" + response.getContentEncoding()
+                        + (DecodingSink.isSupported(response.getContentEncoding())? "" : ", not decoded") + ")");
+
+            // Show how fast the uploaded file was sent
+            if (response.getSendTime() > 0)
+                getOutput().printf("\nUpload: %s in %.2f second(s) (%s/s)\n", StreamUtils.formatSize(response.getBytesSent()),
+                        (float) response.getSendTime() / 1_000_000_000.0, StreamUtils.formatSize(
+                                (long) (response.getBytesSent() / (response.getSendTime() / 1_000_000_000.0))));
+
+            // Show how long it took for the body to start arriving
+            if (response.getTimeToFirstByte() >= 0)
+                getOutput().printf("\nTime to First Byte: %.2f second(s)\n",
+                        (float) response.getTimeToFirstByte() / 1_000_000_000.0);
+        } catch (Exception e) {
+            System.err.println("An unexpected error occurred while communicating with server: " + e.getMessage());
         }
     }
 
@@ -251,27 +229,50 @@ public class Connection implements Serializable {
     }
 
     /**
-     * Add all the headers given by the user to this request's headers.
+     * Get the response type of this request. For example 'txt', 'png', 'html', etc.
+     * @return The type of the response of this request.
      */
-    private void putHeaders() {
-        for (String name : headers.keySet())
-            urlConnection.setRequestProperty(name, headers.get(name));
+    private String getResponseType() {
+        return StreamUtils.getResponseType(getContentType());
     }
 
     /**
-     * Get the response type of this request. For example 'txt', 'png', 'html', etc.
-     * @return The type of the response of this request.
+     * @return The stream the response information is printed on.
      */
-    private String getResponseType() {
-        String header = urlConnection.getContentType();
-        if (header != null) {
-            int c = header.indexOf('/') + 1;
-            String type = "";
-            while (c < header.length() && header.charAt(c) != ';' && header.charAt(c) != ' ' && header.charAt(c) != '\n')
-                type = type.concat(header.charAt(c++) + "");
-            return type;
-        }
-        return "Unknown";
+    public PrintStream getOutput() {
+        return (output != null)? output : System.out;
+    }
+
+    /**
+     * Print the response information on another stream than stdout. For example to keep the output of requests
+     * which are sent at once from getting mixed.
+     * @param output The stream to print on.
+     */
+    public void setOutput(PrintStream output) {
+        this.output = output;
+    }
+
+    /**
+     * @return The response which is being received since this request was last sent, or null if it was never sent.
+     */
+    public CompletableFuture<HttpResult> getPendingResponse() {
+        return pendingResponse;
+    }
+
+    /**
+     * @return The HTTP version to send this request with, HTTP_1_1 or HTTP_2, or null to let the client negotiate
+     * it, which is HTTP/2 when the server supports it and HTTP/1.1 otherwise.
+     */
+    public String getHttpVersion() {
+        return httpVersion;
+    }
+
+    /**
+     * @param httpVersion The HTTP version to send this request with, HTTP_1_1 or HTTP_2, or null to let the client
+     *                    negotiate it.
+     */
+    public void setHttpVersion(String httpVersion) {
+        this.httpVersion = httpVersion;
     }
 
     /**
@@ -282,10 +283,27 @@ public class Connection implements Serializable {
     }
 
     /**
-     * @return The length of the response in byte, kilobyte or megabyte depending on how large it is.
+     * @return The length of the decoded response in byte, kilobyte or megabyte depending on how large it is, or
+     * null if it has not been received.
      */
     public String getResponseSize() {
-        return responseLength;
+        return (response != null)? StreamUtils.formatSize(response.getBodySize()) : null;
+    }
+
+    /**
+     * @return The length of the response as it was sent, which is less than its decoded length if it was
+     * compressed, or null if it has not been received.
+     */
+    public String getWireSize() {
+        return (response != null)? StreamUtils.formatSize(response.getWireSize()) : null;
+    }
+
+    /**
+     * @param saveRaw True to save the body in the output file as it was sent, and false to save a compressed body
+     *                decoded. It is not saved with the request.
+     */
+    public void setSaveRaw(boolean saveRaw) {
+        this.saveRaw = saveRaw;
     }
 
     /**
@@ -309,6 +327,27 @@ public class Connection implements Serializable {
         return method;
     }
 
+    /**
+     * @return True if the user wants to see the response headers and false otherwise.
+     */
+    public boolean isShowResponseHeaders() {
+        return showResponseHeaders;
+    }
+
+    /**
+     * @return True if the user wants the output of the request saved as a file and false otherwise.
+     */
+    public boolean isSaveFile() {
+        return saveFile;
+    }
+
+    /**
+     * @return The name of the file to write the request output in.
+     */
+    public String getFileName() {
+        return fileName;
+    }
+
     /**
      * @return The list of the queries in this connection.
      */
@@ -328,8 +367,9 @@ public class Connection implements Serializable {
      */
     public HashMap<String, String> getHeaders() {
         HashMap<String, String> responseHeaders = new HashMap<>();
-        for (int i = 0; i < urlConnection.getHeaderFields().size(); i++)
-            responseHeaders.put(urlConnection.getHeaderFieldKey(i), urlConnection.getHeaderField(i));
+        if (response != null)
+            for (Map.Entry<String, List<String>> header : response.getHeaders().entrySet())
+                responseHeaders.put(header.getKey(), String.join(", ", header.getValue()));
         return responseHeaders;
     }
 
@@ -338,12 +378,26 @@ public class Connection implements Serializable {
     }
 
     /**
-     * @return The response body as text.
+     * @return The response body as text, decoded with the charset of its Content-Type.
      */
     public String getResponseText() {
         String responseBody = "Empty";
         if (streamBytes != null)
-            responseBody = StreamUtils.getResponseBodyText(streamBytes);
+            responseBody = StreamUtils.getResponseBodyText(streamBytes, StreamUtils.getCharset(getContentType()));
+        return responseBody;
+    }
+
+    /**
+     * Get the beginning of the response body as text. Only the needed part of the body is decoded, so large
+     * bodies can be shown without decoding them completely.
+     * @param maxChars The most characters of the body to return.
+     * @return The beginning of the response body as text, decoded with the charset of its Content-Type.
+     */
+    public String getResponseText(int maxChars) {
+        String responseBody = "Empty";
+        if (streamBytes != null)
+            responseBody = StreamUtils.getResponseBodyText(streamBytes, StreamUtils.getCharset(getContentType()),
+                    maxChars);
         return responseBody;
     }
 
@@ -365,6 +419,34 @@ public class Connection implements Serializable {
         return error;
     }
 
+    /**
+     * @return The Content-Type of the response or null if it's not known.
+     */
+    public String getContentType() {
+        return (response != null)? response.getContentType() : null;
+    }
+
+    /**
+     * @return The response of the last time this request was sent or null if it has not been received.
+     */
+    public HttpResult getResponse() {
+        return response;
+    }
+
+    /**
+     * @return True if the user wants the program to follow redirects automatically and false otherwise.
+     */
+    public boolean isFollowRedirect() {
+        return followRedirect;
+    }
+
+    /**
+     * @return True if the user wants to upload a binary file and false otherwise.
+     */
+    public boolean isUploadBinary() {
+        return uploadBinary;
+    }
+
     /**
      * @return A list of the form data of the request's body.
      */
@@ -376,7 +458,7 @@ public class Connection implements Serializable {
      * @return True if the response is an image and false otherwise.
      */
     public boolean isImage() {
-        return urlConnection.getContentType() != null && urlConnection.getContentType().contains("image");
+        return getContentType() != null && getContentType().contains("image");
     }
 
     /**
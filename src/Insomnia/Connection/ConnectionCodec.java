@@ -0,0 +1,298 @@
+package Insomnia.Connection;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The class ConnectionCodec writes the definition of a request into a compact binary form and reads it back.
+ * Only what the user set is written: the name, URL, method, flags, output and upload file names, form data,
+ * headers, query and HTTP version. Numbers are written as varints and strings as their UTF-8 length followed by their bytes,
+ * straight into and out of NIO buffers.
+ * Every encoded request starts with the version of the layout it was written with, so requests written by an
+ * older version can still be read after fields are added.
+ *
+ * @author Negar Movaghatian
+ */
+public final class ConnectionCodec {
+
+    public final static int VERSION = 2; // The version of the layout requests are written with
+
+    private final static int FOLLOW_REDIRECT = 1; // The flag which is set if redirects are followed
+    private final static int SHOW_RESPONSE_HEADERS = 1 << 1; // The flag which is set if headers are shown
+    private final static int SAVE_FILE = 1 << 2; // The flag which is set if the output is saved as a file
+    private final static int UPLOAD_BINARY = 1 << 3; // The flag which is set if a binary file is uploaded
+
+    private ConnectionCodec() {}
+
+    /**
+     * Encode a request into a new buffer.
+     * @param connection The request to encode.
+     * @return A buffer which holds exactly the encoded request, ready to be read.
+     */
+    public static ByteBuffer encode(Connection connection) {
+        ByteBuffer buffer = ByteBuffer.allocate(encodedSize(connection));
+        encode(connection, buffer);
+        return buffer.flip();
+    }
+
+    /**
+     * Encode a request at the position of a buffer.
+     * @param connection The request to encode.
+     * @param buffer The buffer to write into. It must have at least encodedSize(connection) bytes remaining.
+     */
+    public static void encode(Connection connection, ByteBuffer buffer) {
+        putVarint(buffer, VERSION);
+        putVarint(buffer, flags(connection));
+        putString(buffer, connection.getName());
+        putString(buffer, connection.getUrlString());
+        putString(buffer, connection.getMethod());
+        putString(buffer, connection.getFileName());
+        putString(buffer, connection.getBinaryFileName());
+        putMap(buffer, connection.getFormData());
+        putMap(buffer, connection.getRequestHeaders());
+        putMap(buffer, connection.getQuery());
+        putString(buffer, connection.getHttpVersion());
+    }
+
+    /**
+     * @param connection A request.
+     * @return The number of bytes the request is encoded in.
+     */
+    public static int encodedSize(Connection connection) {
+        return varintSize(VERSION) + varintSize(flags(connection)) + stringSize(connection.getName())
+                + stringSize(connection.getUrlString()) + stringSize(connection.getMethod())
+                + stringSize(connection.getFileName()) + stringSize(connection.getBinaryFileName())
+                + mapSize(connection.getFormData()) + mapSize(connection.getRequestHeaders())
+                + mapSize(connection.getQuery()) + stringSize(connection.getHttpVersion());
+    }
+
+    /**
+     * Decode a request from the position of a buffer. The buffer is left after the last byte of the request.
+     * @param buffer The buffer to read from.
+     * @return The decoded request.
+     * @throws IOException If the buffer does not hold a request this version can read.
+     */
+    public static Connection decode(ByteBuffer buffer) throws IOException {
+        try {
+            int version = getVarint(buffer);
+            if (version < 1 || version > VERSION)
+                throw new IOException("Unsupported request version " + version);
+            int flags = getVarint(buffer);
+            String name = getString(buffer);
+            String url = getString(buffer);
+            String method = getString(buffer);
+            String fileName = getString(buffer);
+            String binaryFileName = getString(buffer);
+            HashMap<String, String> formData = getMap(buffer);
+            HashMap<String, String> headers = getMap(buffer);
+            HashMap<String, String> query = getMap(buffer);
+            String httpVersion = (version >= 2)? getString(buffer) : null; // Added in version 2
+            Connection connection = new Connection(name, url, method, (flags & FOLLOW_REDIRECT) != 0,
+                    (flags & SHOW_RESPONSE_HEADERS) != 0, (flags & SAVE_FILE) != 0, fileName,
+                    (flags & UPLOAD_BINARY) != 0, binaryFileName, formData, headers, query);
+            connection.setHttpVersion(httpVersion);
+            return connection;
+        } catch (BufferUnderflowException | IllegalArgumentException e) {
+            throw new IOException("The request is cut off or corrupted", e);
+        }
+    }
+
+    /**
+     * @param connection A request.
+     * @return The flags of the request as a bit set.
+     */
+    private static int flags(Connection connection) {
+        return (connection.isFollowRedirect()? FOLLOW_REDIRECT : 0)
+                | (connection.isShowResponseHeaders()? SHOW_RESPONSE_HEADERS : 0)
+                | (connection.isSaveFile()? SAVE_FILE : 0)
+                | (connection.isUploadBinary()? UPLOAD_BINARY : 0);
+    }
+
+    /**
+     * Write a non-negative number in as few bytes as it needs, seven bits in each byte.
+     * @param buffer The buffer to write into.
+     * @param value The number to write.
+     */
+    private static void putVarint(ByteBuffer buffer, int value) {
+        while ((value & ~0x7F) != 0) {
+            buffer.put((byte) ((value & 0x7F) | 0x80));
+            value >>>= 7;
+        }
+        buffer.put((byte) value);
+    }
+
+    /**
+     * Read a number written by putVarint.
+     * @param buffer The buffer to read from.
+     * @return The number.
+     */
+    private static int getVarint(ByteBuffer buffer) {
+        int value = 0;
+        for (int shift = 0; shift < 32; shift += 7) {
+            byte b = buffer.get();
+            value |= (b & 0x7F) << shift;
+            if (b >= 0)
+                return value;
+        }
+        throw new IllegalArgumentException("Varint is too long");
+    }
+
+    /**
+     * @param value A non-negative number.
+     * @return The number of bytes putVarint writes the number in.
+     */
+    private static int varintSize(int value) {
+        int size = 1;
+        while ((value & ~0x7F) != 0) {
+            value >>>= 7;
+            size++;
+        }
+        return size;
+    }
+
+    /**
+     * Write a string as the length of its UTF-8 bytes plus one followed by the bytes, so a null string is
+     * written as a single zero. The characters are encoded straight into the buffer; a surrogate which is not
+     * part of a pair is written as '?'.
+     * @param buffer The buffer to write into.
+     * @param value The string to write, or null.
+     */
+    private static void putString(ByteBuffer buffer, String value) {
+        if (value == null) {
+            putVarint(buffer, 0);
+            return;
+        }
+        putVarint(buffer, utf8Length(value) + 1);
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80)
+                buffer.put((byte) c);
+            else if (c < 0x800)
+                buffer.put((byte) (0xC0 | (c >> 6))).put((byte) (0x80 | (c & 0x3F)));
+            else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                        && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    int codePoint = Character.toCodePoint(c, value.charAt(++i));
+                    buffer.put((byte) (0xF0 | (codePoint >> 18))).put((byte) (0x80 | ((codePoint >> 12) & 0x3F)))
+                            .put((byte) (0x80 | ((codePoint >> 6) & 0x3F))).put((byte) (0x80 | (codePoint & 0x3F)));
+                }
+                else
+                    buffer.put((byte) '?');
+            }
+            else
+                buffer.put((byte) (0xE0 | (c >> 12))).put((byte) (0x80 | ((c >> 6) & 0x3F)))
+                        .put((byte) (0x80 | (c & 0x3F)));
+        }
+    }
+
+    /**
+     * Read a string written by putString.
+     * @param buffer The buffer to read from.
+     * @return The string, or null if a null string was written.
+     */
+    private static String getString(ByteBuffer buffer) {
+        int length = getVarint(buffer) - 1;
+        if (length == -1)
+            return null;
+        if (length < 0 || length > buffer.remaining())
+            throw new BufferUnderflowException();
+        String value;
+        if (buffer.hasArray())
+            value = new String(buffer.array(), buffer.arrayOffset() + buffer.position(), length, StandardCharsets.UTF_8);
+        else {
+            byte[] bytes = new byte[length];
+            buffer.duplicate().get(bytes);
+            value = new String(bytes, StandardCharsets.UTF_8);
+        }
+        buffer.position(buffer.position() + length);
+        return value;
+    }
+
+    /**
+     * @param value A string, or null.
+     * @return The number of bytes putString writes the string in.
+     */
+    private static int stringSize(String value) {
+        if (value == null)
+            return 1;
+        int length = utf8Length(value);
+        return varintSize(length + 1) + length;
+    }
+
+    /**
+     * @param value A string.
+     * @return The number of bytes of the string in UTF-8, with a surrogate which is not part of a pair as one byte.
+     */
+    private static int utf8Length(String value) {
+        int length = 0;
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c < 0x80)
+                length++;
+            else if (c < 0x800)
+                length += 2;
+            else if (Character.isSurrogate(c)) {
+                if (Character.isHighSurrogate(c) && i + 1 < value.length()
+                        && Character.isLowSurrogate(value.charAt(i + 1))) {
+                    length += 4;
+                    i++;
+                }
+                else
+                    length++;
+            }
+            else
+                length += 3;
+        }
+        return length;
+    }
+
+    /**
+     * Write a map as the number of its entries followed by the name and value of each one. A null map is
+     * written as an empty one.
+     * @param buffer The buffer to write into.
+     * @param map The map to write.
+     */
+    private static void putMap(ByteBuffer buffer, Map<String, String> map) {
+        if (map == null) {
+            putVarint(buffer, 0);
+            return;
+        }
+        putVarint(buffer, map.size());
+        for (Map.Entry<String, String> entry : map.entrySet()) {
+            putString(buffer, entry.getKey());
+            putString(buffer, entry.getValue());
+        }
+    }
+
+    /**
+     * Read a map written by putMap.
+     * @param buffer The buffer to read from.
+     * @return The map.
+     */
+    private static HashMap<String, String> getMap(ByteBuffer buffer) {
+        int size = getVarint(buffer);
+        if (size < 0 || size > buffer.remaining())
+            throw new BufferUnderflowException();
+        HashMap<String, String> map = new HashMap<>();
+        for (int i = 0; i < size; i++)
+            map.put(getString(buffer), getString(buffer));
+        return map;
+    }
+
+    /**
+     * @param map A map, or null.
+     * @return The number of bytes putMap writes the map in.
+     */
+    private static int mapSize(Map<String, String> map) {
+        if (map == null)
+            return 1;
+        int size = varintSize(map.size());
+        for (Map.Entry<String, String> entry : map.entrySet())
+            size += stringSize(entry.getKey()) + stringSize(entry.getValue());
+        return size;
+    }
+}
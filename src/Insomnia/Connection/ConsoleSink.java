@@ -0,0 +1,70 @@
+package Insomnia.Connection;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+
+/**
+ * The class ConsoleSink prints the status and the body of a response on a stream while it is being received.
+ * A text body is decoded with the charset of its Content-Type as it arrives; any other body is printed as it is.
+ *
+ * @author Negar Movaghatian
+ */
+public class ConsoleSink implements ResponseSink {
+
+    private final PrintStream out; // The stream to print on
+    private final byte[] buffer; // A buffer which is reused to copy chunks which don't have an accessible array
+    private boolean empty; // Shows if nothing of the body has been printed yet
+    private TextDecoder decoder; // The decoder of a text body, or null if the body is binary
+
+    /**
+     * Create a new console sink.
+     * @param out The stream to print on.
+     */
+    public ConsoleSink(PrintStream out) {
+        this.out = out;
+        buffer = new byte[8192];
+        empty = true;
+    }
+
+    @Override
+    public void begin(HttpResponse.ResponseInfo info) {
+        out.println("\nStatus Code: " + info.statusCode() + " " + HttpResult.reasonPhrase(info.statusCode()));
+        String contentType = info.headers().firstValue("Content-Type").orElse(null);
+        if (StreamUtils.isText(contentType))
+            decoder = new TextDecoder(StreamUtils.getCharset(contentType));
+    }
+
+    @Override
+    public void write(ByteBuffer chunk) throws IOException {
+        if (empty) {
+            out.println("\nResponse Body:");
+            empty = false;
+        }
+        if (decoder != null) {
+            decoder.decode(chunk, out);
+            return;
+        }
+        if (chunk.hasArray()) {
+            out.write(chunk.array(), chunk.arrayOffset() + chunk.position(), chunk.remaining());
+            return;
+        }
+        while (chunk.hasRemaining()) {
+            int length = Math.min(buffer.length, chunk.remaining());
+            chunk.get(buffer, 0, length);
+            out.write(buffer, 0, length);
+        }
+    }
+
+    @Override
+    public void end() throws IOException {
+        if (decoder != null)
+            decoder.finish(out);
+        if (empty)
+            out.println("\nResponse Body: Empty");
+        else
+            out.println();
+        out.flush();
+    }
+}
@@ -0,0 +1,135 @@
+package Insomnia.Connection;
+
+import java.io.*;
+import java.net.ConnectException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+
+/**
+ * The class DaemonClient hands the arguments of a jurl invocation to a running JurlDaemon and prints what the
+ * daemon sends back, so the request is run by a warm JVM with warm connections. It only uses a socket and the
+ * file the daemon left its address in, so none of the classes of the rest of the program are loaded.
+ * The daemon sends back its output as frames: a byte which tells the kind of the frame, then for stdout and
+ * stderr frames the number of bytes and the bytes, and for the last frame the exit status.
+ *
+ * @author Negar Movaghatian
+ */
+public class DaemonClient {
+
+    final static String DAEMON_FILE = "." + File.separator + "data" + File.separator + "jurl.daemon"; // The file
+    // a running daemon writes its port and token in
+    final static String NO_DAEMON = "jurl.noDaemon"; // The system property which makes jurl run the arguments
+    // itself even if a daemon is running, like the benchmark of its cold start does
+    final static int END = 0; // The kind of the last frame, which holds the exit status
+    final static int STDOUT = 1; // The kind of a frame which should be printed on stdout
+    final static int STDERR = 2; // The kind of a frame which should be printed on stderr
+
+    private final static int CONNECT_TIMEOUT = 1000; // The milliseconds to wait for the daemon to accept
+
+    private DaemonClient() {}
+
+    /**
+     * Send the arguments to the daemon which runs in this directory and print its output. A batch read from stdin
+     * is not sent, since the daemon can't read the stdin of this invocation, and nothing is sent if the system
+     * property jurl.noDaemon is true.
+     * @param args The arguments of this invocation.
+     * @return True if a daemon ran the arguments and false if no daemon is running, in which case nothing was
+     * printed and the arguments should be run here.
+     */
+    public static boolean forward(String[] args) {
+        Path daemonFile = Paths.get(DAEMON_FILE);
+        if (Boolean.getBoolean(NO_DAEMON) || !Files.isRegularFile(daemonFile)
+                || (args.length > 1 && args[0].equals("--batch") && args[1].equals("-")))
+            return false;
+        int port;
+        String token;
+        try {
+            String[] address = new String(Files.readAllBytes(daemonFile), StandardCharsets.UTF_8).trim().split(" ");
+            port = Integer.parseInt(address[0]);
+            token = address[1];
+        } catch (IOException | RuntimeException e) {
+            return false;
+        }
+
+        try (Socket socket = new Socket()) {
+            socket.connect(new InetSocketAddress(InetAddress.getLoopbackAddress(), port), CONNECT_TIMEOUT);
+            socket.setTcpNoDelay(true);
+            DataOutputStream output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+            output.writeUTF(token);
+            output.writeInt(args.length);
+            for (String arg : args)
+                writeString(output, arg);
+            output.flush();
+            return printOutput(new DataInputStream(new BufferedInputStream(socket.getInputStream())));
+        } catch (ConnectException e) { // The daemon is gone without removing its file
+            try {
+                Files.deleteIfExists(daemonFile);
+            } catch (IOException ignored) {}
+            return false;
+        } catch (IOException e) {
+            System.err.println("Lost the connection to the jurl daemon: " + e.getMessage());
+            return true;
+        }
+    }
+
+    /**
+     * Print the frames sent by the daemon until the last one.
+     * @param input The stream of the frames.
+     * @return True once the last frame is read.
+     * @throws IOException If the daemon closes the connection before the last frame.
+     */
+    private static boolean printOutput(DataInputStream input) throws IOException {
+        byte[] buffer = new byte[8192];
+        while (true) {
+            int kind = input.readUnsignedByte();
+            if (kind == END) {
+                input.readInt(); // The exit status; jurl always exits normally
+                System.out.flush();
+                System.err.flush();
+                return true;
+            }
+            PrintStream out = (kind == STDERR)? System.err : System.out;
+            int length = input.readInt();
+            while (length > 0) {
+                int read = input.read(buffer, 0, Math.min(buffer.length, length));
+                if (read < 0)
+                    throw new EOFException("The daemon closed the connection");
+                out.write(buffer, 0, read);
+                length -= read;
+            }
+            out.flush();
+        }
+    }
+
+    /**
+     * Write a string as the number of its UTF-8 bytes followed by the bytes, which unlike writeUTF has no limit
+     * on the length.
+     * @param output The stream to write into.
+     * @param value The string to write.
+     */
+    static void writeString(DataOutputStream output, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    /**
+     * Read a string written by writeString.
+     * @param input The stream to read from.
+     * @param maxLength The most bytes the string may have.
+     * @return The string.
+     */
+    static String readString(DataInputStream input, int maxLength) throws IOException {
+        int length = input.readInt();
+        if (length < 0 || length > maxLength)
+            throw new IOException("A string of " + length + " bytes is too long");
+        byte[] bytes = new byte[length];
+        input.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
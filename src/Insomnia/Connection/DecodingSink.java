@@ -0,0 +1,313 @@
+package Insomnia.Connection;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * The class DecodingSink stands between a response and its sinks and decodes a body which was compressed with
+ * gzip or deflate while it is being received, so no sink needs the whole compressed body at once. Sinks which
+ * want the body as it was sent, such as a file saved with --raw, get the bytes of the wire instead.
+ * A body with any other Content-Encoding, such as br which the JDK can't decode, is handed to all the sinks as
+ * it is.
+ *
+ * @author Negar Movaghatian
+ */
+public class DecodingSink implements ResponseSink {
+
+    public final static String ACCEPT_ENCODING = "gzip, deflate"; // The encodings the program asks servers for
+
+    private final static int HEADER = 0; // Reading the header of a gzip member or the first bytes of a deflate body
+    private final static int BODY = 1; // Inflating the compressed data
+    private final static int TRAILER = 2; // Reading the checksum and size at the end of a gzip member
+    private final static int DONE = 3; // The end of a deflate body was reached
+    private final static int FEXTRA = 4, FNAME = 8, FCOMMENT = 16, FHCRC = 2; // The flags of a gzip header
+
+    private final List<ResponseSink> rawSinks; // The sinks which get the body as it was sent
+    private final List<ResponseSink> decodedSinks; // The sinks which get the decoded body
+    private final byte[] input; // A buffer to copy chunks which don't have an accessible array into
+    private final byte[] output; // The buffer the body is inflated into
+    private String encoding; // The encoding which is being decoded, or null if the body is handed on as it is
+    private Inflater inflater; // The inflater of the compressed data
+    private CRC32 crc; // The checksum of the decoded bytes of the current gzip member
+    private long memberSize; // The number of decoded bytes of the current gzip member
+    private ByteArrayOutputStream pending; // The bytes of a header or trailer which has not been read completely
+    private int state; // HEADER, BODY, TRAILER or DONE
+    private boolean received; // Shows if any byte of the body was received
+    private long decodedSize; // The number of bytes handed to the sinks of the decoded body
+
+    /**
+     * Create a new decoding sink.
+     * @param sinks The sinks to hand the body to. Each one gets the decoded body unless it asks for the raw one.
+     */
+    public DecodingSink(List<ResponseSink> sinks) {
+        rawSinks = new ArrayList<>();
+        decodedSinks = new ArrayList<>();
+        for (ResponseSink sink : sinks)
+            (sink.isRaw()? rawSinks : decodedSinks).add(sink);
+        input = new byte[16 * 1024];
+        output = new byte[64 * 1024];
+    }
+
+    /**
+     * @param contentEncoding The value of the Content-Encoding header of a response, or null.
+     * @return True if a body with this encoding can be decoded.
+     */
+    public static boolean isSupported(String contentEncoding) {
+        return contentEncoding == null || contentEncoding.trim().isEmpty() || encoding(contentEncoding) != null;
+    }
+
+    /**
+     * @param contentEncoding The value of the Content-Encoding header of a response, or null.
+     * @return 'gzip' or 'deflate' if the body was compressed once with one of them, or null otherwise.
+     */
+    private static String encoding(String contentEncoding) {
+        if (contentEncoding == null)
+            return null;
+        String encoding = contentEncoding.trim().toLowerCase();
+        if (encoding.equals("gzip") || encoding.equals("x-gzip"))
+            return "gzip";
+        if (encoding.equals("deflate"))
+            return "deflate";
+        return null;
+    }
+
+    @Override
+    public void begin(HttpResponse.ResponseInfo info) throws IOException {
+        if (!decodedSinks.isEmpty())
+            encoding = encoding(String.join(",", info.headers().allValues("Content-Encoding")));
+        if (encoding != null) {
+            pending = new ByteArrayOutputStream();
+            state = HEADER;
+        }
+        for (ResponseSink sink : rawSinks)
+            sink.begin(info);
+        for (ResponseSink sink : decodedSinks)
+            sink.begin(info);
+    }
+
+    @Override
+    public void write(ByteBuffer chunk) throws IOException {
+        if (chunk.hasRemaining())
+            received = true;
+        int position = chunk.position();
+        for (ResponseSink sink : rawSinks) {
+            sink.write(chunk);
+            chunk.position(position);
+        }
+        if (encoding == null) {
+            decodedSize += chunk.remaining();
+            for (ResponseSink sink : decodedSinks) {
+                sink.write(chunk);
+                chunk.position(position);
+            }
+            return;
+        }
+        if (chunk.hasArray()) {
+            feed(chunk.array(), chunk.arrayOffset() + chunk.position(), chunk.remaining());
+            return;
+        }
+        while (chunk.hasRemaining()) {
+            int length = Math.min(input.length, chunk.remaining());
+            chunk.get(input, 0, length);
+            feed(input, 0, length);
+        }
+    }
+
+    @Override
+    public void end() throws IOException {
+        IOException failure = null;
+        if (encoding != null && received && !(state == DONE || (state == HEADER && pending.size() == 0)))
+            failure = new IOException("The " + encoding + " body of the response ended early");
+        if (inflater != null) {
+            inflater.end();
+            inflater = null;
+        }
+        for (ResponseSink sink : rawSinks) {
+            try {
+                sink.end();
+            } catch (IOException e) {
+                if (failure == null)
+                    failure = e;
+            }
+        }
+        for (ResponseSink sink : decodedSinks) {
+            try {
+                sink.end();
+            } catch (IOException e) {
+                if (failure == null)
+                    failure = e;
+            }
+        }
+        if (failure != null)
+            throw failure;
+    }
+
+    @Override
+    public boolean isRaw() {
+        return true;
+    }
+
+    /**
+     * @return The number of bytes of the decoded body, or -1 if the body was encoded but no sink wanted it
+     * decoded.
+     */
+    public long getDecodedSize() {
+        return (decodedSinks.isEmpty() && !rawSinks.isEmpty())? -1 : decodedSize;
+    }
+
+    /**
+     * Decode some bytes of the compressed body and hand what they decode to to the sinks.
+     * @param bytes The array of the bytes.
+     * @param offset The position of the first byte in the array.
+     * @param length The number of bytes.
+     * @throws IOException If the bytes are not a valid gzip or deflate body.
+     */
+    private void feed(byte[] bytes, int offset, int length) throws IOException {
+        while (length > 0) {
+            int used;
+            if (state == HEADER)
+                used = readHeader(bytes, offset, length);
+            else if (state == BODY) {
+                inflater.setInput(bytes, offset, length);
+                inflate();
+                used = length - inflater.getRemaining();
+                if (inflater.finished())
+                    state = encoding.equals("gzip")? TRAILER : DONE;
+            }
+            else if (state == TRAILER)
+                used = readTrailer(bytes, offset, length);
+            else // Anything after the end of a deflate body is not part of it
+                used = length;
+            offset += used;
+            length -= used;
+        }
+    }
+
+    /**
+     * Read the header of a gzip member, or the first two bytes of a deflate body which tell if it has a zlib
+     * header, and start inflating once it is complete.
+     * @param bytes The array of the bytes.
+     * @param offset The position of the first byte in the array.
+     * @param length The number of bytes.
+     * @return The number of bytes which were read.
+     * @throws IOException If the header is not valid.
+     */
+    private int readHeader(byte[] bytes, int offset, int length) throws IOException {
+        int start = pending.size();
+        pending.write(bytes, offset, length);
+        byte[] header = pending.toByteArray();
+        if (encoding.equals("deflate")) {
+            if (header.length < 2)
+                return length;
+            // Servers should send a zlib stream but some send raw deflate data, which has no header
+            boolean zlib = (header[0] & 0x0f) == 8 && (((header[0] & 0xff) << 8) | (header[1] & 0xff)) % 31 == 0;
+            inflater = new Inflater(!zlib);
+            pending.reset();
+            state = BODY;
+            feed(header, 0, header.length);
+            return length;
+        }
+
+        int headerLength = gzipHeaderLength(header);
+        if (headerLength < 0)
+            return length;
+        pending.reset();
+        if (inflater == null)
+            inflater = new Inflater(true);
+        else
+            inflater.reset();
+        crc = new CRC32();
+        memberSize = 0;
+        state = BODY;
+        return headerLength - start;
+    }
+
+    /**
+     * @param header The first bytes of a gzip member.
+     * @return The length of the header of the member, or -1 if it is not complete yet.
+     * @throws IOException If the bytes are not the header of a gzip member.
+     */
+    private static int gzipHeaderLength(byte[] header) throws IOException {
+        if (header.length < 10)
+            return -1;
+        if ((header[0] & 0xff) != 0x1f || (header[1] & 0xff) != 0x8b || header[2] != 8)
+            throw new IOException("The body of the response is not in the gzip format");
+        int flags = header[3];
+        int position = 10;
+        if ((flags & FEXTRA) != 0) {
+            if (header.length < position + 2)
+                return -1;
+            position += 2 + ((header[position] & 0xff) | ((header[position + 1] & 0xff) << 8));
+        }
+        for (int flag : new int[] {FNAME, FCOMMENT}) {
+            if ((flags & flag) == 0)
+                continue;
+            while (position < header.length && header[position] != 0)
+                position++;
+            if (position >= header.length)
+                return -1;
+            position++;
+        }
+        if ((flags & FHCRC) != 0)
+            position += 2;
+        return (position > header.length)? -1 : position;
+    }
+
+    /**
+     * Read the trailer of a gzip member and check the decoded bytes against it.
+     * @param bytes The array of the bytes.
+     * @param offset The position of the first byte in the array.
+     * @param length The number of bytes.
+     * @return The number of bytes which were read.
+     * @throws IOException If the decoded bytes do not match the trailer.
+     */
+    private int readTrailer(byte[] bytes, int offset, int length) throws IOException {
+        int used = Math.min(8 - pending.size(), length);
+        pending.write(bytes, offset, used);
+        if (pending.size() < 8)
+            return used;
+        byte[] trailer = pending.toByteArray();
+        long checksum = 0, size = 0;
+        for (int i = 3; i >= 0; i--) {
+            checksum = (checksum << 8) | (trailer[i] & 0xff);
+            size = (size << 8) | (trailer[i + 4] & 0xff);
+        }
+        if (checksum != crc.getValue() || size != (memberSize & 0xffffffffL))
+            throw new IOException("The gzip body of the response is corrupt");
+        pending.reset();
+        state = HEADER; // Another member may follow
+        return used;
+    }
+
+    /**
+     * Inflate as much as the input of the inflater allows and hand the decoded bytes to the sinks.
+     * @throws IOException If the compressed data is not valid or a sink could not take the bytes.
+     */
+    private void inflate() throws IOException {
+        try {
+            int length;
+            while ((length = inflater.inflate(output)) > 0) {
+                if (crc != null)
+                    crc.update(output, 0, length);
+                memberSize += length;
+                decodedSize += length;
+                ByteBuffer chunk = ByteBuffer.wrap(output, 0, length);
+                for (ResponseSink sink : decodedSinks) {
+                    sink.write(chunk);
+                    chunk.position(0);
+                }
+            }
+            if (inflater.needsDictionary())
+                throw new IOException("The " + encoding + " body of the response needs a preset dictionary");
+        } catch (DataFormatException e) {
+            throw new IOException("The " + encoding + " body of the response is corrupt: " + e.getMessage(), e);
+        }
+    }
+}
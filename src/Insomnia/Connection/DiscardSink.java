@@ -0,0 +1,27 @@
+package Insomnia.Connection;
+
+import java.nio.ByteBuffer;
+
+/**
+ * The class DiscardSink throws the body of a response away and only counts its bytes. It's used when
+ * only the status or the timing of a response matters, such as in benchmarks.
+ *
+ * @author Negar Movaghatian
+ */
+public class DiscardSink implements ResponseSink {
+
+    private long size; // The number of bytes received
+
+    @Override
+    public void write(ByteBuffer chunk) {
+        size += chunk.remaining();
+        chunk.position(chunk.limit());
+    }
+
+    /**
+     * @return The number of bytes received.
+     */
+    public long size() {
+        return size;
+    }
+}
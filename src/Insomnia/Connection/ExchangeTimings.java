@@ -0,0 +1,144 @@
+package Insomnia.Connection;
+
+import java.io.PrintStream;
+
+/**
+ * The class ExchangeTimings is an immutable record of how long each phase of an exchange took: resolving the
+ * host name, connecting, the TLS handshake, waiting for the server to answer and receiving the body. A phase
+ * which did not happen, such as the handshake of a plain HTTP exchange, or which could not be measured, takes
+ * -1 nanoseconds.
+ * The connect phase can only be told apart from waiting for the server on TLS connections, since it ends
+ * when the handshake starts; on plain HTTP connections it is part of the wait. For the same reason only TLS
+ * connections are known to be new or reused from the pool.
+ *
+ * @author Negar Movaghatian
+ */
+public final class ExchangeTimings {
+
+    public final static String[] PHASES = {"DNS", "Connect", "TLS", "Wait", "Transfer"}; // The names of the phases
+
+    private final long dns; // The nanoseconds it took to resolve the host name
+    private final long connect; // The nanoseconds it took to connect to the server
+    private final long tls; // The nanoseconds the TLS handshake took
+    private final long wait; // The nanoseconds between sending the request and receiving the response headers
+    private final long transfer; // The nanoseconds between receiving the response headers and the end of the body
+    private final boolean reused; // Shows if the exchange was sent on a connection from the pool
+
+    /**
+     * Create a new record. Each phase is in nanoseconds, or -1 if it did not happen or could not be measured.
+     * @param dns The time it took to resolve the host name.
+     * @param connect The time it took to connect to the server.
+     * @param tls The time the TLS handshake took.
+     * @param wait The time between sending the request and receiving the response headers.
+     * @param transfer The time between receiving the response headers and the end of the body.
+     * @param reused True if the exchange was sent on a connection from the pool, so it was not connected again.
+     */
+    public ExchangeTimings(long dns, long connect, long tls, long wait, long transfer, boolean reused) {
+        this.dns = dns;
+        this.connect = connect;
+        this.tls = tls;
+        this.wait = wait;
+        this.transfer = transfer;
+        this.reused = reused;
+    }
+
+    /**
+     * @return The nanoseconds it took to resolve the host name, or -1 if it was not resolved.
+     */
+    public long getDns() {
+        return dns;
+    }
+
+    /**
+     * @return The nanoseconds it took to connect to the server, or -1 if it could not be measured.
+     */
+    public long getConnect() {
+        return connect;
+    }
+
+    /**
+     * @return The nanoseconds the TLS handshake took, or -1 if there was no handshake.
+     */
+    public long getTls() {
+        return tls;
+    }
+
+    /**
+     * @return The nanoseconds between sending the request and receiving the response headers.
+     */
+    public long getWait() {
+        return wait;
+    }
+
+    /**
+     * @return The nanoseconds between receiving the response headers and the end of the body.
+     */
+    public long getTransfer() {
+        return transfer;
+    }
+
+    /**
+     * @return True if the exchange was sent on a connection from the pool, so the connect and TLS phases were
+     * skipped.
+     */
+    public boolean isReused() {
+        return reused;
+    }
+
+    /**
+     * @return True if it is known whether the connection was new or reused, which is only the case for TLS.
+     */
+    public boolean isReuseKnown() {
+        return reused || tls >= 0;
+    }
+
+    /**
+     * @return The nanoseconds of each phase, in the order of PHASES.
+     */
+    public long[] getPhases() {
+        return new long[] {dns, connect, tls, wait, transfer};
+    }
+
+    /**
+     * @return The nanoseconds of all the phases together.
+     */
+    public long getTotal() {
+        long total = 0;
+        for (long phase : getPhases())
+            if (phase > 0)
+                total += phase;
+        return total;
+    }
+
+    /**
+     * Print each phase on a line with a bar which shows when it started and how long it took.
+     * @param out The stream to print on.
+     */
+    public void print(PrintStream out) {
+        final int width = 40;
+        long total = Math.max(1, getTotal());
+        long[] phases = getPhases();
+        long start = 0;
+        for (int i = 0; i < phases.length; i++) {
+            String bar = "";
+            if (phases[i] >= 0) {
+                int offset = (int) (start * width / total);
+                int length = Math.max(1, (int) ((start + phases[i]) * width / total) - offset);
+                bar = " ".repeat(offset) + "#".repeat(Math.min(length, width - Math.min(offset, width - 1)));
+                start += phases[i];
+            }
+            out.printf("%-9s %10s  |%-" + width + "s|\n", PHASES[i], format(phases[i]), bar);
+        }
+        out.printf("%-9s %10s\n", "Total", format(getTotal()));
+        if (isReuseKnown())
+            out.println("Connection: " + (reused? "reused from the pool" : "new"));
+    }
+
+    /**
+     * @param nanos A phase in nanoseconds, or -1.
+     * @return The phase in milliseconds, or '-' if it is -1.
+     */
+    public static String format(long nanos) {
+        return (nanos < 0)? "-" : String.format("%.2f ms", nanos / 1_000_000.0);
+    }
+}
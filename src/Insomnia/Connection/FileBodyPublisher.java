@@ -0,0 +1,110 @@
+package Insomnia.Connection;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * The class FileBodyPublisher sends a file as the body of a request without loading it into memory.
+ * A regular file is sent with a fixed length from memory-mapped windows of the file, so files larger than
+ * 2GB work too. Anything else, such as a pipe, is read through its channel and sent chunked since its
+ * length is not known up front.
+ *
+ * @author Negar Movaghatian
+ */
+public class FileBodyPublisher extends ChunkPublisher {
+
+    private final static long WINDOW_SIZE = 16 * 1024 * 1024; // The size of each mapped window of the file
+    private final static int CHUNK_SIZE = 256 * 1024; // The size of the chunks handed to the client
+
+    private final Path path; // The path of the file to send
+    private final long length; // The length of the file, or -1 if it is not a regular file
+
+    /**
+     * Create a new file publisher.
+     * @param path The path of the file to send.
+     * @throws IOException If the file could not be found.
+     */
+    public FileBodyPublisher(Path path) throws IOException {
+        this.path = path;
+        length = Files.isRegularFile(path)? Files.size(path) : -1;
+    }
+
+    @Override
+    public long contentLength() {
+        return length;
+    }
+
+    @Override
+    protected ChunkSource open() throws IOException {
+        FileChannel channel = FileChannel.open(path, StandardOpenOption.READ);
+        if (length == -1)
+            return new StreamSource(channel);
+        return new MappedSource(channel);
+    }
+
+    /**
+     * A source which maps the file window by window and hands each window to the client in slices.
+     */
+    private class MappedSource implements ChunkSource {
+
+        private final FileChannel channel; // The channel of the file
+        private MappedByteBuffer window; // The part of the file which is mapped at the moment
+        private long windowEnd; // The position of the file right after the current window
+
+        MappedSource(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public ByteBuffer next() throws IOException {
+            if (window == null || !window.hasRemaining()) {
+                if (windowEnd >= length)
+                    return null;
+                long size = Math.min(WINDOW_SIZE, length - windowEnd);
+                window = channel.map(FileChannel.MapMode.READ_ONLY, windowEnd, size);
+                windowEnd += size;
+            }
+            ByteBuffer chunk = window.slice();
+            chunk.limit(Math.min(CHUNK_SIZE, chunk.remaining()));
+            window.position(window.position() + chunk.remaining());
+            return chunk;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    /**
+     * A source which reads a file of unknown length through its channel until it is over.
+     */
+    private static class StreamSource implements ChunkSource {
+
+        private final FileChannel channel; // The channel of the file
+
+        StreamSource(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        @Override
+        public ByteBuffer next() throws IOException {
+            ByteBuffer chunk = ByteBuffer.allocate(CHUNK_SIZE);
+            while (chunk.hasRemaining())
+                if (channel.read(chunk) == -1)
+                    break;
+            chunk.flip();
+            return chunk.hasRemaining()? chunk : null;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+}
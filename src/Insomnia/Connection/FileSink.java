@@ -0,0 +1,143 @@
+package Insomnia.Connection;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.ConcurrentLinkedQueue;
+
+/**
+ * The class FileSink writes the body of a response into a file in the output directory while it is being
+ * received. Chunks are gathered in a large direct buffer and written through a FileChannel, so a download
+ * takes a few large writes instead of one write per chunk. If the response has a Content-Length the file
+ * is extended to its final length before the first write.
+ * If the file name was generated by the program and has no extension, the extension is chosen according
+ * to the response type. A compressed body is saved decoded unless the sink asks for the raw body.
+ *
+ * @author Negar Movaghatian
+ */
+public class FileSink implements ResponseSink {
+
+    private final static int BUFFER_SIZE = 1024 * 1024; // The size of the direct buffers chunks are gathered in
+    private final static int MAX_POOLED_BUFFERS = 4; // The most direct buffers kept for the next downloads
+    private final static ConcurrentLinkedQueue<ByteBuffer> bufferPool = new ConcurrentLinkedQueue<>(); // The
+    // direct buffers which are free, since allocating them is expensive
+
+    private String fileName; // The name of the file to write the body in
+    private FileChannel channel; // The channel of the file
+    private ByteBuffer buffer; // The direct buffer chunks are gathered in before being written
+    private long position; // The number of bytes written into the file so far
+    private long expectedLength; // The length the file was extended to up front, or -1 if it was not
+    private final boolean raw; // Shows if the body is saved as it was sent, even if it was compressed
+
+    /**
+     * Create a new file sink which saves the decoded body.
+     * @param fileName The name of the file to write the body in.
+     */
+    public FileSink(String fileName) {
+        this(fileName, false);
+    }
+
+    /**
+     * Create a new file sink.
+     * @param fileName The name of the file to write the body in.
+     * @param raw True to save the body as it was sent and false to save a compressed body decoded.
+     */
+    public FileSink(String fileName, boolean raw) {
+        this.fileName = fileName;
+        this.raw = raw;
+        expectedLength = -1;
+    }
+
+    @Override
+    public void begin(HttpResponse.ResponseInfo info) throws IOException {
+        if (fileName.contains("output_") && !fileName.contains("."))
+            fileName = fileName.concat('.' + StreamUtils.getResponseType(
+                    info.headers().firstValue("Content-Type").orElse(null)));
+        channel = FileChannel.open(Paths.get(StreamUtils.OUTPUT_DIR + File.separator + fileName),
+                StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        // The buffer is taken once the file is open, so end() always has a channel to give it back with
+        buffer = bufferPool.poll();
+        if (buffer == null)
+            buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+
+        // Extend the file to its final length, so the file system knows how large it will be
+        boolean decoded = !raw && info.headers().firstValue("Content-Encoding").isPresent();
+        long contentLength = decoded? -1 : info.headers().firstValueAsLong("Content-Length").orElse(-1);
+        if (contentLength > BUFFER_SIZE) {
+            channel.write(ByteBuffer.wrap(new byte[1]), contentLength - 1);
+            expectedLength = contentLength;
+        }
+    }
+
+    @Override
+    public void write(ByteBuffer chunk) throws IOException {
+        if (buffer.position() == 0 && chunk.remaining() >= BUFFER_SIZE / 2) { // Large enough to write as it is
+            writeFully(chunk);
+            return;
+        }
+        while (chunk.hasRemaining()) {
+            if (!buffer.hasRemaining())
+                flush();
+            int length = Math.min(buffer.remaining(), chunk.remaining());
+            ByteBuffer part = chunk.slice();
+            part.limit(length);
+            buffer.put(part);
+            chunk.position(chunk.position() + length);
+        }
+    }
+
+    @Override
+    public void end() throws IOException {
+        if (channel == null)
+            return;
+        try {
+            flush();
+            if (expectedLength != -1 && position != expectedLength)
+                channel.truncate(position);
+        } finally {
+            channel.close();
+            channel = null;
+            if (bufferPool.size() < MAX_POOLED_BUFFERS) {
+                buffer.clear();
+                bufferPool.offer(buffer);
+            }
+            buffer = null;
+        }
+    }
+
+    @Override
+    public boolean isRaw() {
+        return raw;
+    }
+
+    /**
+     * @return The name of the file the body is written in.
+     */
+    public String getFileName() {
+        return fileName;
+    }
+
+    /**
+     * Write the gathered chunks into the file.
+     * @throws IOException If the file could not be written.
+     */
+    private void flush() throws IOException {
+        buffer.flip();
+        writeFully(buffer);
+        buffer.clear();
+    }
+
+    /**
+     * Write all the remaining bytes of a buffer at the current position of the file.
+     * @param source The buffer to write.
+     * @throws IOException If the file could not be written.
+     */
+    private void writeFully(ByteBuffer source) throws IOException {
+        while (source.hasRemaining())
+            position += channel.write(source, position);
+    }
+}
@@ -0,0 +1,834 @@
+package Insomnia.Connection;
+
+import java.io.*;
+import java.net.http.HttpClient;
+import java.net.http.HttpHeaders;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.time.ZonedDateTime;
+import java.time.format.DateTimeFormatter;
+import java.time.format.DateTimeParseException;
+import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The class HttpCache is an HttpEngine which keeps the responses of GET requests on disk and sends the requests
+ * through another engine only when it has to. It follows Cache-Control, Expires and Vary as a private cache:
+ * a fresh response is served from disk, and a stale one which has an ETag or Last-Modified is revalidated with
+ * If-None-Match or If-Modified-Since, so a 304 answer is served from the local copy. A request with
+ * 'Cache-Control: no-cache' is always revalidated and one with 'no-store' skips the cache altogether. Sending any
+ * other method to a URL removes the responses kept for it.
+ * The bodies are kept as they were sent, so a compressed body is kept compressed and decoded when it is served.
+ * They are kept as separate files next to a small index, and once they take more than the size limit the
+ * least recently used ones are removed. Each result tells if it was a hit, a miss or revalidated.
+ * The directory may be shared by several processes at once, like the GUI and the command line. The index is only
+ * read and written while holding a lock on the directory, and each write merges what this process has changed
+ * into the index on disk instead of replacing it with its own view.
+ *
+ * @author Negar Movaghatian
+ */
+public class HttpCache implements HttpEngine {
+
+    public final static String HIT = "HIT"; // The response was served from the cache without asking the server
+    public final static String MISS = "MISS"; // The response was received from the server
+    public final static String REVALIDATED = "REVALIDATED"; // The server answered the kept response is still valid
+    public final static long DEFAULT_MAX_SIZE = 64 * 1024 * 1024; // The most bytes of bodies kept by default
+
+    final static String CACHE_DIR = "." + File.separator + "data" + File.separator + "Cache"; // The directory of
+    // the cache which is shared by the whole program
+    private final static String INDEX_FILE = "index.bin"; // The name of the index in the directory of the cache
+    private final static String LOCK_FILE = "index.lock"; // The name of the file the processes using the cache
+    // lock, since the index itself is replaced on each write
+    private final static long ORPHAN_AGE = 60 * 60 * 1000L; // The milliseconds since a body file which the index
+    // does not know of was last written before it is removed, since another process may still be writing it
+    private final static int INDEX_MAGIC = 0x49484358; // The first bytes of an index, 'IHCX'
+    private final static int INDEX_VERSION = 1; // The version of the layout of the index
+    private final static long HEURISTIC_LIMIT = 24 * 60 * 60 * 1000L; // The longest a response without an expiry
+    // time is fresh for, in milliseconds
+    private final static List<String> VALIDATING_HEADERS = Arrays.asList("if-none-match", "if-modified-since",
+            "if-match", "if-unmodified-since", "if-range", "range"); // Request headers which make the user ask the
+    // server directly
+
+    private final static ExecutorService REPLAY_EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "jurl-cache");
+        thread.setDaemon(true);
+        return thread;
+    }); // The threads kept bodies are handed to the sinks on, since reading a file blocks
+
+    private static HttpCache defaultCache; // The cache which is shared by the whole program
+
+    private final HttpEngine engine; // The engine which sends the requests the cache can't answer
+    private final Path directory; // The directory the index and the bodies are kept in
+    private final long maxSize; // The most bytes of bodies to keep
+    private final LinkedHashMap<String, Entry> entries; // The kept responses, the least recently used first
+    private long size; // The number of bytes of the kept bodies
+    private final LinkedHashMap<String, Entry> added; // The responses kept or updated since the index was written
+    private final Set<String> removedFiles; // The body files removed since the index was written
+    private boolean cleared; // Shows if every kept response was removed since the index was written
+
+    /**
+     * The class Entry describes a kept response. Its body is in a file of its own.
+     */
+    private static class Entry {
+
+        private final String key; // The method, redirect mode and URL of the request
+        private final String file; // The name of the file of the body in the directory of the cache
+        private final int statusCode; // The status code of the response
+        private final String version; // The name of the protocol version of the response
+        private final Map<String, List<String>> headers; // The response headers
+        private final Map<String, String> vary; // The request headers the response varies by and their values
+        private final long requestTime; // The time the request was sent at, in milliseconds since the epoch
+        private final long responseTime; // The time the response was received at, in milliseconds since the epoch
+        private final long bodySize; // The number of bytes of the body as it was sent
+
+        private Entry(String key, String file, int statusCode, String version, Map<String, List<String>> headers,
+                      Map<String, String> vary, long requestTime, long responseTime, long bodySize) {
+            this.key = key;
+            this.file = file;
+            this.statusCode = statusCode;
+            this.version = version;
+            this.headers = headers;
+            this.vary = vary;
+            this.requestTime = requestTime;
+            this.responseTime = responseTime;
+            this.bodySize = bodySize;
+        }
+    }
+
+    /**
+     * Open a cache and read its index. Body files which the index does not know of are removed, unless they were
+     * written lately and may belong to a response another process is still receiving.
+     * @param engine The engine to send the requests the cache can't answer with.
+     * @param directory The directory to keep the index and the bodies in.
+     * @param maxSize The most bytes of bodies to keep.
+     * @throws IOException If the directory could not be created or locked.
+     */
+    public HttpCache(HttpEngine engine, Path directory, long maxSize) throws IOException {
+        this.engine = engine;
+        this.directory = directory;
+        this.maxSize = maxSize;
+        entries = new LinkedHashMap<>(16, 0.75f, true);
+        added = new LinkedHashMap<>();
+        removedFiles = new HashSet<>();
+        Files.createDirectories(directory);
+        try (FileChannel lockChannel = openLock()) {
+            lockChannel.lock(); // Released when the channel is closed
+            entries.putAll(readIndex());
+            for (Entry entry : entries.values())
+                size += entry.bodySize;
+            Set<String> known = new HashSet<>();
+            for (Entry entry : entries.values())
+                known.add(entry.file);
+            long orphanTime = System.currentTimeMillis() - ORPHAN_AGE;
+            try (DirectoryStream<Path> files = Files.newDirectoryStream(directory, "*.body")) {
+                for (Path file : files)
+                    if (!known.contains(file.getFileName().toString())
+                            && Files.getLastModifiedTime(file).toMillis() < orphanTime)
+                        deleteFile(file);
+            }
+        }
+    }
+
+    /**
+     * @return The cache which is shared by the whole program, in data/Cache in front of the default engine.
+     * @throws IOException If the directory of the cache could not be created.
+     */
+    public static synchronized HttpCache getDefault() throws IOException {
+        if (defaultCache == null)
+            defaultCache = new HttpCache(HttpClientEngine.getDefault(), Paths.get(CACHE_DIR), DEFAULT_MAX_SIZE);
+        return defaultCache;
+    }
+
+    @Override
+    public CompletableFuture<HttpResult> send(Connection connection, ResponseSink... sinks) {
+        long startTime = System.nanoTime();
+        String method = connection.getMethod().toUpperCase();
+        if (!method.equals("GET")) { // Anything but a GET may change what is kept for the URL
+            return engine.send(connection, sinks).thenApply(result -> {
+                if (result.getStatusCode() < 400)
+                    invalidate(connection.getUrlString());
+                return result;
+            });
+        }
+        String requestCacheControl = requestHeader(connection.getRequestHeaders(), "Cache-Control");
+        boolean noStore = hasDirective(requestCacheControl, "no-store");
+        for (String name : connection.getRequestHeaders().keySet())
+            if (VALIDATING_HEADERS.contains(name.trim().toLowerCase()))
+                noStore = true;
+        if (noStore)
+            return engine.send(connection, sinks);
+
+        // Find a kept response for the request and open its body, so it can't be removed before it is read
+        String key = key(connection);
+        Entry entry;
+        FileChannel body = null;
+        synchronized (this) {
+            entry = entries.get(key);
+            if (entry != null && !matches(entry, connection.getRequestHeaders()))
+                entry = null;
+            if (entry != null) {
+                try {
+                    body = FileChannel.open(directory.resolve(entry.file), StandardOpenOption.READ);
+                } catch (IOException e) { // The body is gone; forget the response
+                    remove(key);
+                    entry = null;
+                }
+            }
+        }
+
+        if (entry != null && isFresh(entry, System.currentTimeMillis()) && !hasDirective(requestCacheControl,
+                "no-cache") && !hasDirective(requestCacheControl, "max-age=0")
+                && !hasDirective(requestHeader(connection.getRequestHeaders(), "Pragma"), "no-cache")) {
+            Entry hit = entry;
+            FileChannel hitBody = body;
+            return CompletableFuture.supplyAsync(() -> replay(hit, hit.headers, hitBody, HIT, null, startTime,
+                    sinks), REPLAY_EXECUTOR);
+        }
+        if (entry != null && validator(entry) == null) { // Can't be revalidated; send it as if it was not kept
+            close(body);
+            entry = null;
+            body = null;
+        }
+
+        // Ask the server, with the validators of the kept response if there is one
+        Entry stale = entry;
+        FileChannel staleBody = body;
+        Connection request = (stale == null)? connection : conditional(connection, stale);
+        long requestTime = System.currentTimeMillis();
+        CacheSink cacheSink = new CacheSink(sinks, stale != null);
+        return engine.send(request, cacheSink).handle((result, error) -> {
+            if (error != null) {
+                close(staleBody);
+                cacheSink.discard();
+                throw (error instanceof CompletionException)? (CompletionException) error
+                        : new CompletionException(error);
+            }
+            if (cacheSink.notModified) { // The kept body is still valid
+                Map<String, List<String>> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+                headers.putAll(stale.headers);
+                for (Map.Entry<String, List<String>> header : result.getHeaders().entrySet())
+                    if (!header.getKey().equalsIgnoreCase("content-length") && !header.getKey().startsWith(":"))
+                        headers.put(header.getKey(), header.getValue());
+                Entry updated = new Entry(stale.key, stale.file, stale.statusCode, stale.version,
+                        new LinkedHashMap<>(headers), stale.vary, requestTime, System.currentTimeMillis(),
+                        stale.bodySize);
+                synchronized (this) {
+                    if (entries.get(key) == stale) {
+                        entries.put(key, updated);
+                        added.put(key, updated);
+                        writeIndex();
+                    }
+                }
+                return replay(updated, updated.headers, staleBody, REVALIDATED, result.getTimings(), startTime,
+                        sinks);
+            }
+            close(staleBody);
+            if (cacheSink.file != null)
+                store(new Entry(key, cacheSink.file.getFileName().toString(), result.getStatusCode(),
+                        result.getProtocol(), result.getHeaders(), vary(result.getHeaders(),
+                        connection.getRequestHeaders()), requestTime, System.currentTimeMillis(), cacheSink.size));
+            if (cacheSink.decoder.getDecodedSize() >= 0)
+                result = result.withBodySize(cacheSink.decoder.getDecodedSize());
+            return result.withCacheStatus(MISS);
+        });
+    }
+
+    /**
+     * Remove every kept response.
+     */
+    public synchronized void clear() {
+        for (String key : new ArrayList<>(entries.keySet()))
+            remove(key);
+        cleared = true;
+        writeIndex();
+    }
+
+    /**
+     * @return The number of kept responses.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * @return The number of bytes of the kept bodies.
+     */
+    public synchronized long getSize() {
+        return size;
+    }
+
+    /**
+     * Hand a kept body to the sinks just as if it was being received.
+     * @param entry The kept response.
+     * @param headers The headers to show the response with.
+     * @param body The opened body of the response, which is closed afterwards.
+     * @param cacheStatus HIT or REVALIDATED.
+     * @param timings How long each phase of the revalidation took, or null if the server was not asked.
+     * @param startTime The time the request was sent at.
+     * @param sinks The sinks to hand the body to.
+     * @return The result of the response.
+     */
+    private HttpResult replay(Entry entry, Map<String, List<String>> headers, FileChannel body, String cacheStatus,
+                              ExchangeTimings timings, long startTime, ResponseSink... sinks) {
+        HttpClient.Version version = entry.version.equals("HTTP/2")? HttpClient.Version.HTTP_2
+                : HttpClient.Version.HTTP_1_1;
+        HttpHeaders httpHeaders = HttpHeaders.of(headers, (name, value) -> true);
+        HttpResponse.ResponseInfo info = new HttpResponse.ResponseInfo() {
+            @Override
+            public int statusCode() { return entry.statusCode; }
+
+            @Override
+            public HttpHeaders headers() { return httpHeaders; }
+
+            @Override
+            public HttpClient.Version version() { return version; }
+        };
+        long timeToFirstByte = -1;
+        DecodingSink decoder = new DecodingSink(Arrays.asList(sinks));
+        boolean begun = false;
+        try (FileChannel channel = body) {
+            decoder.begin(info);
+            begun = true;
+            ByteBuffer chunk = ByteBuffer.allocate(64 * 1024);
+            while (channel.read(chunk) > 0) {
+                if (timeToFirstByte < 0)
+                    timeToFirstByte = System.nanoTime() - startTime;
+                chunk.flip();
+                decoder.write(chunk);
+                chunk.clear();
+            }
+            begun = false;
+            decoder.end();
+        } catch (IOException e) {
+            if (begun) {
+                try {
+                    decoder.end();
+                } catch (IOException ignored) {}
+            }
+            throw new UncheckedIOException("Could not read the cached response: " + e.getMessage(), e);
+        }
+        return new HttpResult(entry.statusCode, version, headers, (decoder.getDecodedSize() >= 0)?
+                decoder.getDecodedSize() : entry.bodySize, entry.bodySize, timeToFirstByte, 0, -1, timings)
+                .withCacheStatus(cacheStatus);
+    }
+
+    /**
+     * Keep a received response and remove the least recently used ones if the bodies take too much space.
+     * @param entry The response to keep.
+     */
+    private synchronized void store(Entry entry) {
+        remove(entry.key);
+        entries.put(entry.key, entry);
+        added.put(entry.key, entry);
+        size += entry.bodySize;
+        evict();
+        writeIndex();
+    }
+
+    /**
+     * Remove the least recently used responses while the bodies take more than the size limit. The index is not
+     * written.
+     */
+    private void evict() {
+        Iterator<Map.Entry<String, Entry>> iterator = entries.entrySet().iterator();
+        while (size > maxSize && iterator.hasNext()) {
+            Entry eldest = iterator.next().getValue();
+            iterator.remove();
+            added.remove(eldest.key);
+            removedFiles.add(eldest.file);
+            size -= eldest.bodySize;
+            deleteFile(directory.resolve(eldest.file));
+        }
+    }
+
+    /**
+     * Forget a kept response and remove its body. The index is not written.
+     * @param key The key of the response.
+     */
+    private void remove(String key) {
+        Entry entry = entries.remove(key);
+        if (entry != null) {
+            added.remove(key);
+            removedFiles.add(entry.file);
+            size -= entry.bodySize;
+            deleteFile(directory.resolve(entry.file));
+        }
+    }
+
+    /**
+     * Remove the responses kept for a URL, after a request which may have changed it.
+     * @param url The URL of the request.
+     */
+    private synchronized void invalidate(String url) {
+        boolean removed = false;
+        for (String key : new ArrayList<>(entries.keySet()))
+            if (key.substring(key.indexOf(' ', key.indexOf(' ') + 1) + 1).equals(url)) {
+                remove(key);
+                removed = true;
+            }
+        if (removed)
+            writeIndex();
+    }
+
+    /**
+     * @param connection A request.
+     * @return The key the response of the request is kept with: its method, whether it follows redirects and its
+     * URL.
+     */
+    private static String key(Connection connection) {
+        return connection.getMethod().toUpperCase() + " " + (connection.isFollowRedirect()? "follow" : "direct") + " "
+                + connection.getUrlString();
+    }
+
+    /**
+     * Create a copy of a request which asks the server if a kept response is still valid.
+     * @param connection The request.
+     * @param entry The kept response.
+     * @return The conditional request.
+     */
+    private static Connection conditional(Connection connection, Entry entry) {
+        HashMap<String, String> headers = new HashMap<>(connection.getRequestHeaders());
+        String etag = header(entry.headers, "ETag");
+        String lastModified = header(entry.headers, "Last-Modified");
+        if (etag != null)
+            headers.put("If-None-Match", etag);
+        if (lastModified != null)
+            headers.put("If-Modified-Since", lastModified);
+        Connection request = new Connection(connection.getName(), connection.getUrlString(), connection.getMethod(),
+                connection.isFollowRedirect(), false, false, null, connection.isUploadBinary(),
+                connection.getBinaryFileName(), connection.getFormData(), headers, connection.getQuery());
+        request.setHttpVersion(connection.getHttpVersion());
+        return request;
+    }
+
+    /**
+     * @param entry A kept response.
+     * @return The ETag of the response, or its Last-Modified if it has no ETag, or null if it has neither.
+     */
+    private static String validator(Entry entry) {
+        String etag = header(entry.headers, "ETag");
+        return (etag != null)? etag : header(entry.headers, "Last-Modified");
+    }
+
+    /**
+     * @param entry A kept response.
+     * @param now The current time in milliseconds since the epoch.
+     * @return True if the response can be served without asking the server.
+     */
+    private static boolean isFresh(Entry entry, long now) {
+        String cacheControl = header(entry.headers, "Cache-Control");
+        if (hasDirective(cacheControl, "no-cache"))
+            return false;
+        return freshnessLifetime(entry.headers) > age(entry, now);
+    }
+
+    /**
+     * Work out how long a response is fresh for: its max-age, or the time between its Date and Expires, or a tenth
+     * of the time since it was last modified up to a day.
+     * @param headers The response headers.
+     * @return The milliseconds the response is fresh for after it was created.
+     */
+    private static long freshnessLifetime(Map<String, List<String>> headers) {
+        String maxAge = directive(header(headers, "Cache-Control"), "max-age");
+        if (maxAge != null) {
+            try {
+                return Long.parseLong(maxAge) * 1000;
+            } catch (NumberFormatException e) {
+                return 0;
+            }
+        }
+        long date = parseDate(header(headers, "Date"));
+        String expires = header(headers, "Expires");
+        if (expires != null) {
+            long expiresTime = parseDate(expires);
+            return (expiresTime < 0 || date < 0)? 0 : expiresTime - date;
+        }
+        long lastModified = parseDate(header(headers, "Last-Modified"));
+        if (lastModified >= 0 && date >= lastModified)
+            return Math.min((date - lastModified) / 10, HEURISTIC_LIMIT);
+        return 0;
+    }
+
+    /**
+     * @param entry A kept response.
+     * @param now The current time in milliseconds since the epoch.
+     * @return The milliseconds since the response was created by the server.
+     */
+    private static long age(Entry entry, long now) {
+        long date = parseDate(header(entry.headers, "Date"));
+        long apparentAge = (date < 0)? 0 : Math.max(0, entry.responseTime - date);
+        long ageValue = 0;
+        try {
+            String age = header(entry.headers, "Age");
+            if (age != null)
+                ageValue = Long.parseLong(age.trim()) * 1000;
+        } catch (NumberFormatException ignored) {}
+        long correctedAge = Math.max(apparentAge, ageValue + entry.responseTime - entry.requestTime);
+        return correctedAge + now - entry.responseTime;
+    }
+
+    /**
+     * @param statusCode The status code of a response.
+     * @param headers The headers of the response.
+     * @return True if the response may be kept and served later.
+     */
+    private static boolean isStorable(int statusCode, Map<String, List<String>> headers) {
+        if (statusCode != 200 && statusCode != 203)
+            return false;
+        String cacheControl = header(headers, "Cache-Control");
+        if (hasDirective(cacheControl, "no-store") || "*".equals(header(headers, "Vary")))
+            return false;
+        return header(headers, "ETag") != null || header(headers, "Last-Modified") != null
+                || freshnessLifetime(headers) > 0;
+    }
+
+    /**
+     * @param responseHeaders The headers of a response.
+     * @param requestHeaders The headers of its request.
+     * @return The request headers the response varies by, with the values they had.
+     */
+    private static Map<String, String> vary(Map<String, List<String>> responseHeaders,
+                                            Map<String, String> requestHeaders) {
+        Map<String, String> vary = new TreeMap<>();
+        String varyHeader = header(responseHeaders, "Vary");
+        if (varyHeader != null)
+            for (String name : varyHeader.split(","))
+                if (!name.trim().isEmpty()) {
+                    String value = requestHeader(requestHeaders, name.trim());
+                    vary.put(name.trim().toLowerCase(), (value != null)? value.trim() : "");
+                }
+        return vary;
+    }
+
+    /**
+     * @param entry A kept response.
+     * @param requestHeaders The headers of a request.
+     * @return True if the request has the same values as the request of the response for the headers the response
+     * varies by.
+     */
+    private static boolean matches(Entry entry, Map<String, String> requestHeaders) {
+        for (Map.Entry<String, String> header : entry.vary.entrySet()) {
+            String value = requestHeader(requestHeaders, header.getKey());
+            if (!header.getValue().equals((value != null)? value.trim() : ""))
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * @param headers Response headers.
+     * @param name The name of a header, compared case-insensitively.
+     * @return The values of the header joined by ', ' or null if there is no such header.
+     */
+    private static String header(Map<String, List<String>> headers, String name) {
+        for (Map.Entry<String, List<String>> header : headers.entrySet())
+            if (header.getKey().equalsIgnoreCase(name))
+                return String.join(", ", header.getValue());
+        return null;
+    }
+
+    /**
+     * @param headers Request headers.
+     * @param name The name of a header, compared case-insensitively.
+     * @return The value of the header or null if there is no such header.
+     */
+    private static String requestHeader(Map<String, String> headers, String name) {
+        for (Map.Entry<String, String> header : headers.entrySet())
+            if (header.getKey().trim().equalsIgnoreCase(name))
+                return header.getValue();
+        return null;
+    }
+
+    /**
+     * @param cacheControl The value of a Cache-Control header, or null.
+     * @param directive A directive, with its value if it needs one. For example 'no-cache' or 'max-age=0'.
+     * @return True if the header has the directive.
+     */
+    private static boolean hasDirective(String cacheControl, String directive) {
+        if (cacheControl == null)
+            return false;
+        for (String part : cacheControl.split(","))
+            if (part.trim().replace("\"", "").equalsIgnoreCase(directive))
+                return true;
+        return false;
+    }
+
+    /**
+     * @param cacheControl The value of a Cache-Control header, or null.
+     * @param name The name of a directive which has a value.
+     * @return The value of the directive, or null if the header does not have it.
+     */
+    private static String directive(String cacheControl, String name) {
+        if (cacheControl == null)
+            return null;
+        for (String part : cacheControl.split(",")) {
+            String[] directive = part.trim().split("=", 2);
+            if (directive.length == 2 && directive[0].trim().equalsIgnoreCase(name))
+                return directive[1].trim().replace("\"", "");
+        }
+        return null;
+    }
+
+    /**
+     * @param date An HTTP date. For example 'Sun, 06 Nov 1994 08:49:37 GMT'.
+     * @return The date in milliseconds since the epoch, or -1 if it is missing or invalid.
+     */
+    private static long parseDate(String date) {
+        if (date == null)
+            return -1;
+        try {
+            return ZonedDateTime.parse(date.trim(), DateTimeFormatter.RFC_1123_DATE_TIME).toInstant().toEpochMilli();
+        } catch (DateTimeParseException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Read the index of the cache. An index which can't be read is ignored, which empties the cache. The lock of
+     * the directory should be held.
+     * @return The kept responses in the index, the least recently used first.
+     */
+    private LinkedHashMap<String, Entry> readIndex() {
+        LinkedHashMap<String, Entry> read = new LinkedHashMap<>();
+        Path indexFile = directory.resolve(INDEX_FILE);
+        if (!Files.isRegularFile(indexFile))
+            return read;
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+            if (input.readInt() != INDEX_MAGIC || input.readInt() != INDEX_VERSION)
+                return read;
+            int count = input.readInt();
+            for (int i = 0; i < count; i++) {
+                String key = input.readUTF();
+                String file = input.readUTF();
+                int statusCode = input.readInt();
+                String version = input.readUTF();
+                Map<String, List<String>> headers = new LinkedHashMap<>();
+                int headerCount = input.readInt();
+                for (int j = 0; j < headerCount; j++) {
+                    String name = input.readUTF();
+                    List<String> values = new ArrayList<>();
+                    int valueCount = input.readInt();
+                    for (int k = 0; k < valueCount; k++)
+                        values.add(DaemonClient.readString(input, Integer.MAX_VALUE));
+                    headers.put(name, values);
+                }
+                Map<String, String> vary = new TreeMap<>();
+                int varyCount = input.readInt();
+                for (int j = 0; j < varyCount; j++)
+                    vary.put(input.readUTF(), DaemonClient.readString(input, Integer.MAX_VALUE));
+                read.put(key, new Entry(key, file, statusCode, version, headers, vary, input.readLong(),
+                        input.readLong(), input.readLong()));
+            }
+        } catch (IOException e) {
+            System.err.println("Could not read the cache index, the cache is emptied: " + e.getMessage());
+            read.clear();
+        }
+        return read;
+    }
+
+    /**
+     * Merge what this process has changed into the index on disk, which other processes may have changed since it
+     * was read, and write the merged index into a new file which is moved into place, so a crash never leaves half
+     * an index. The responses of this process then become the merged ones.
+     */
+    private void writeIndex() {
+        Path indexFile = directory.resolve(INDEX_FILE);
+        Path newIndex = directory.resolve(INDEX_FILE + ".new");
+        try (FileChannel lockChannel = openLock()) {
+            lockChannel.lock(); // Released when the channel is closed
+            LinkedHashMap<String, Entry> merged = new LinkedHashMap<>();
+            for (Entry entry : readIndex().values()) {
+                if (cleared)
+                    deleteFile(directory.resolve(entry.file));
+                else if (!removedFiles.contains(entry.file))
+                    merged.put(entry.key, entry);
+            }
+            for (Entry entry : added.values()) {
+                if (!Files.exists(directory.resolve(entry.file))) // Removed by another process
+                    continue;
+                Entry replaced = merged.remove(entry.key);
+                if (replaced != null && !replaced.file.equals(entry.file))
+                    deleteFile(directory.resolve(replaced.file));
+                merged.put(entry.key, entry);
+            }
+            entries.clear();
+            entries.putAll(merged);
+            size = 0;
+            for (Entry entry : entries.values())
+                size += entry.bodySize;
+            evict();
+            added.clear();
+            removedFiles.clear();
+            cleared = false;
+
+            try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+                    Files.newOutputStream(newIndex)))) {
+                output.writeInt(INDEX_MAGIC);
+                output.writeInt(INDEX_VERSION);
+                output.writeInt(entries.size());
+                for (Entry entry : entries.values()) {
+                    output.writeUTF(entry.key);
+                    output.writeUTF(entry.file);
+                    output.writeInt(entry.statusCode);
+                    output.writeUTF(entry.version);
+                    output.writeInt(entry.headers.size());
+                    for (Map.Entry<String, List<String>> header : entry.headers.entrySet()) {
+                        output.writeUTF(header.getKey());
+                        output.writeInt(header.getValue().size());
+                        for (String value : header.getValue())
+                            DaemonClient.writeString(output, value);
+                    }
+                    output.writeInt(entry.vary.size());
+                    for (Map.Entry<String, String> header : entry.vary.entrySet()) {
+                        output.writeUTF(header.getKey());
+                        DaemonClient.writeString(output, header.getValue());
+                    }
+                    output.writeLong(entry.requestTime);
+                    output.writeLong(entry.responseTime);
+                    output.writeLong(entry.bodySize);
+                }
+            }
+            Files.move(newIndex, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            System.err.println("Could not save the cache index: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return A channel of the file the processes using the cache lock while they read or write the index. Closing
+     * the channel releases the lock.
+     * @throws IOException If the file could not be opened.
+     */
+    private FileChannel openLock() throws IOException {
+        return FileChannel.open(directory.resolve(LOCK_FILE), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * Remove a body file. A file which is being read can't be removed on some systems; it is removed the next time
+     * the cache is opened.
+     * @param file The file to remove.
+     */
+    private static void deleteFile(Path file) {
+        try {
+            Files.deleteIfExists(file);
+        } catch (IOException ignored) {}
+    }
+
+    /**
+     * @param channel A channel to close, or null.
+     */
+    private static void close(FileChannel channel) {
+        if (channel != null) {
+            try {
+                channel.close();
+            } catch (IOException ignored) {}
+        }
+    }
+
+    /**
+     * The class CacheSink stands between a response and the sinks of its request. It hands the body to the sinks,
+     * decoded for those which want it decoded, and writes it into a new body file as it was sent too if the
+     * response may be kept. When a kept response is being
+     * revalidated and the server answers 304, the sinks are left alone, since the kept body is handed to them
+     * instead.
+     */
+    private class CacheSink implements ResponseSink {
+
+        private final DecodingSink decoder; // The sink which hands the body to the sinks of the request
+        private final boolean revalidating; // Shows if the request asks if a kept response is still valid
+        private boolean notModified; // Shows if the server answered that the kept response is still valid
+        private Path file; // The file the body is written into, or null if the response is not kept
+        private OutputStream output; // The stream of the file
+        private long size; // The number of bytes written into the file
+        private final byte[] buffer; // A buffer to copy chunks into the file with
+
+        private CacheSink(ResponseSink[] sinks, boolean revalidating) {
+            decoder = new DecodingSink(Arrays.asList(sinks));
+            this.revalidating = revalidating;
+            buffer = new byte[8192];
+        }
+
+        @Override
+        public void begin(HttpResponse.ResponseInfo info) throws IOException {
+            if (revalidating && info.statusCode() == 304) {
+                notModified = true;
+                return;
+            }
+            decoder.begin(info);
+            if (isStorable(info.statusCode(), info.headers().map())
+                    && info.headers().firstValueAsLong("Content-Length").orElse(0) <= maxSize) {
+                file = directory.resolve(UUID.randomUUID() + ".body");
+                output = new BufferedOutputStream(Files.newOutputStream(file));
+            }
+        }
+
+        @Override
+        public void write(ByteBuffer chunk) throws IOException {
+            if (notModified)
+                return;
+            int position = chunk.position();
+            decoder.write(chunk);
+            chunk.position(position);
+            if (output == null)
+                return;
+            if (size + chunk.remaining() > maxSize) { // Too large to keep
+                discard();
+                return;
+            }
+            size += chunk.remaining();
+            while (chunk.hasRemaining()) {
+                int length = Math.min(buffer.length, chunk.remaining());
+                chunk.get(buffer, 0, length);
+                output.write(buffer, 0, length);
+            }
+        }
+
+        @Override
+        public void end() throws IOException {
+            if (notModified)
+                return;
+            IOException failure = null;
+            try {
+                decoder.end();
+            } catch (IOException e) {
+                failure = e;
+            }
+            if (output != null) {
+                try {
+                    output.close();
+                } catch (IOException e) {
+                    discard();
+                }
+                output = null;
+            }
+            if (failure != null)
+                throw failure;
+        }
+
+        @Override
+        public boolean isRaw() {
+            return true;
+        }
+
+        /**
+         * Stop writing the body into its file and remove the file.
+         */
+        private void discard() {
+            if (output != null) {
+                try {
+                    output.close();
+                } catch (IOException ignored) {}
+                output = null;
+            }
+            if (file != null) {
+                deleteFile(file);
+                file = null;
+            }
+        }
+    }
+}
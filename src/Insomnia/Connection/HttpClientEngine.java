@@ -0,0 +1,259 @@
+package Insomnia.Connection;
+
+import javax.net.ssl.SSLContext;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.URI;
+import java.net.UnknownHostException;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * The class HttpClientEngine sends requests through java.net.http.HttpClient. All the sends share
+ * the same clients, so connections are pooled and reused between requests and no thread waits for
+ * a response while the server is working on it. The pool keeps a limited number of idle connections for a
+ * limited time, and TLS sessions are cached so even a new connection to a known server has a short handshake.
+ * Servers are asked for gzip or deflate bodies, which are decoded while they are received.
+ * Each result tells how long each phase of its exchange took. Host names are looked up before sending to time
+ * the lookup, and the TLS handshakes are timed by the engines of a TimingSSLContext.
+ * Unless a request is sent with HTTP/1.1, HTTP/2 is asked for: through ALPN over TLS and through an upgrade on
+ * plain connections. An HTTP/2 connection carries all the requests to its origin at once, so when several
+ * requests to an origin without a connection are sent together, the first one goes ahead alone and the others
+ * wait for its response headers to find its connection in the pool instead of each opening one.
+ * Cancelling the future of a send aborts its exchange.
+ *
+ * @author Negar Movaghatian
+ */
+public class HttpClientEngine implements HttpEngine {
+
+    private final static List<String> RESTRICTED_HEADERS = Arrays.asList("connection", "content-length", "expect",
+            "host", "upgrade"); // The headers which are managed by the client itself and can't be set
+
+    private final static ExecutorService DNS_EXECUTOR = Executors.newCachedThreadPool(runnable -> {
+        Thread thread = new Thread(runnable, "jurl-dns");
+        thread.setDaemon(true);
+        return thread;
+    }); // The threads host names are looked up on, since a lookup blocks
+
+    public final static int DEFAULT_MAX_IDLE_CONNECTIONS = 20; // The most idle connections kept by default
+    public final static int DEFAULT_IDLE_TIMEOUT = 120; // The seconds an idle connection is kept by default
+
+    private static HttpClientEngine defaultEngine; // The engine which is shared by the whole program
+    private static boolean clientCreated; // Shows if a client was created, after which the pool can't be configured
+
+    private final HttpClient redirectingClient; // The client which follows redirects automatically
+    private final HttpClient client; // The client which does not follow redirects
+    private final ConcurrentHashMap<String, CompletableFuture<Void>> origins; // The first exchange with each origin
+
+    /**
+     * Create a new engine with its own connection pool.
+     */
+    public HttpClientEngine() {
+        synchronized (HttpClientEngine.class) {
+            configurePool(Integer.getInteger("jdk.httpclient.connectionPoolSize", DEFAULT_MAX_IDLE_CONNECTIONS),
+                    Integer.getInteger("jdk.httpclient.keepalive.timeout", DEFAULT_IDLE_TIMEOUT));
+            clientCreated = true;
+        }
+        SSLContext sslContext = TimingSSLContext.newDefault();
+        redirectingClient = HttpClient.newBuilder().followRedirects(HttpClient.Redirect.NORMAL)
+                .sslContext(sslContext).build();
+        client = HttpClient.newBuilder().followRedirects(HttpClient.Redirect.NEVER).sslContext(sslContext).build();
+        origins = new ConcurrentHashMap<>();
+    }
+
+    /**
+     * @return The engine which is shared by the whole program.
+     */
+    public static synchronized HttpClientEngine getDefault() {
+        if (defaultEngine == null)
+            defaultEngine = new HttpClientEngine();
+        return defaultEngine;
+    }
+
+    /**
+     * Set how many idle connections the pool keeps and for how long. The pool of the HttpClient reads these
+     * settings once, so they only apply if no client has been created yet.
+     * @param maxIdleConnections The most idle connections to keep, or zero to keep all of them.
+     * @param idleTimeout The seconds to keep an idle connection for.
+     * @return True if the settings apply and false if a client was already created.
+     */
+    public static synchronized boolean configurePool(int maxIdleConnections, int idleTimeout) {
+        if (clientCreated)
+            return false;
+        System.setProperty("jdk.httpclient.connectionPoolSize", "" + Math.max(0, maxIdleConnections));
+        System.setProperty("jdk.httpclient.keepalive.timeout", "" + Math.max(1, idleTimeout));
+        return true;
+    }
+
+    @Override
+    public CompletableFuture<HttpResult> send(Connection connection, ResponseSink... sinks) {
+        HttpRequest request;
+        try {
+            request = buildRequest(connection);
+        } catch (Exception e) {
+            return CompletableFuture.failedFuture(e);
+        }
+        HttpClient httpClient = connection.isFollowRedirect()? redirectingClient : client;
+        List<ResponseSink> sinkList = Arrays.asList(sinks);
+        AtomicReference<StreamingBodySubscriber> subscriber = new AtomicReference<>();
+        AtomicReference<DecodingSink> decoder = new AtomicReference<>();
+        AtomicReference<CompletableFuture<?>> exchange = new AtomicReference<>();
+        AtomicBoolean cancelled = new AtomicBoolean();
+        ChunkPublisher upload = (ChunkPublisher) request.bodyPublisher()
+                .filter(publisher -> publisher instanceof ChunkPublisher).orElse(null);
+
+        // Wait for the first exchange with the origin, so an HTTP/2 connection is shared instead of raced for
+        String origin = (connection.isFollowRedirect()? "redirecting " : "") + request.uri().getScheme() + "://"
+                + request.uri().getAuthority();
+        CompletableFuture<Void> firstExchange = new CompletableFuture<>();
+        boolean http1 = request.version().orElse(null) == HttpClient.Version.HTTP_1_1;
+        CompletableFuture<Void> previous = http1? null : origins.putIfAbsent(origin, firstExchange);
+        boolean leads = !http1 && previous == null;
+        CompletableFuture<Void> ready = (previous != null)? previous : CompletableFuture.completedFuture(null);
+
+        CompletableFuture<HttpResult> result = ready.thenCompose(v -> {
+            long startTime = System.nanoTime();
+            return resolve(request.uri().getHost()).thenCompose(dnsTime -> {
+                long sendTime = System.nanoTime();
+                AtomicLong headersTime = new AtomicLong();
+                CompletableFuture<HttpResponse<Long>> sent = httpClient.sendAsync(request, info -> {
+                    headersTime.set(System.nanoTime());
+                    if (leads)
+                        firstExchange.complete(null);
+                    decoder.set(new DecodingSink(sinkList));
+                    subscriber.set(new StreamingBodySubscriber(info, Collections.singletonList(decoder.get()),
+                            startTime));
+                    return subscriber.get();
+                });
+                exchange.set(sent);
+                if (cancelled.get())
+                    sent.cancel(true);
+                return sent.thenApply(response -> new HttpResult(response.statusCode(), response.version(),
+                        response.headers().map(), (decoder.get().getDecodedSize() >= 0)?
+                        decoder.get().getDecodedSize() : response.body(), response.body(),
+                        subscriber.get().getTimeToFirstByte(),
+                        (upload != null)? upload.getBytesSent() : 0, (upload != null)? upload.getSendTime() : -1,
+                        timings(response, dnsTime, sendTime, headersTime.get(), System.nanoTime())));
+            });
+        });
+        result.whenComplete((response, error) -> {
+            if (error instanceof CancellationException) { // The client aborts the exchange since Java 16
+                cancelled.set(true);
+                CompletableFuture<?> sent = exchange.get();
+                if (sent != null)
+                    sent.cancel(true);
+            }
+        });
+        if (leads)
+            result.whenComplete((response, error) -> {
+                if (error != null) // Let the next request to the origin lead instead
+                    origins.remove(origin, firstExchange);
+                firstExchange.complete(null);
+            });
+        return result;
+    }
+
+    /**
+     * Resolve a host name before the request is sent, to measure how long it takes. The client finds the
+     * address in the cache of the JVM afterwards.
+     * @param host The host name of the request.
+     * @return A future which completes with the nanoseconds the lookup took, or -1 if the host is an address.
+     */
+    private static CompletableFuture<Long> resolve(String host) {
+        if (host == null || host.contains(":") || host.matches("\\d+\\.\\d+\\.\\d+\\.\\d+"))
+            return CompletableFuture.completedFuture(-1L);
+        return CompletableFuture.supplyAsync(() -> {
+            long start = System.nanoTime();
+            try {
+                InetAddress.getAllByName(host);
+            } catch (UnknownHostException e) {
+                // The client reports the failure when it looks the host up itself
+            }
+            return System.nanoTime() - start;
+        }, DNS_EXECUTOR);
+    }
+
+    /**
+     * Work out how long each phase of an exchange took. The handshake of a TLS connection tells when it was
+     * connected and when it was ready; a TLS connection created before the request was sent was reused.
+     * @param response The response of the exchange.
+     * @param dnsTime The nanoseconds the lookup of the host name took, or -1.
+     * @param sendTime The time the request was handed to the client at.
+     * @param headersTime The time the response headers were received at.
+     * @param endTime The time the body was received at.
+     * @return The timings of the exchange.
+     */
+    private static ExchangeTimings timings(HttpResponse<?> response, long dnsTime, long sendTime, long headersTime,
+                                           long endTime) {
+        TimingSSLContext.Handshake handshake = response.sslSession()
+                .map(session -> session.getValue(TimingSSLContext.HANDSHAKE_KEY))
+                .filter(value -> value instanceof TimingSSLContext.Handshake)
+                .map(value -> (TimingSSLContext.Handshake) value).orElse(null);
+        long transfer = endTime - headersTime;
+        if (handshake == null) // Plain HTTP; connecting is part of the wait
+            return new ExchangeTimings(dnsTime, -1, -1, headersTime - sendTime, transfer, false);
+        if (handshake.getCreatedTime() < sendTime || handshake.getEndTime() == 0) // A reused connection
+            return new ExchangeTimings(dnsTime, 0, 0, headersTime - sendTime, transfer, true);
+        return new ExchangeTimings(dnsTime, handshake.getStartTime() - sendTime,
+                handshake.getEndTime() - handshake.getStartTime(), headersTime - handshake.getEndTime(), transfer,
+                false);
+    }
+
+    /**
+     * Create the request described by the given connection. Such as its URL, method, headers and body.
+     * @param connection The connection to create the request of.
+     * @return The request to send.
+     * @throws IOException If the body of the request could not be read.
+     */
+    private HttpRequest buildRequest(Connection connection) throws IOException {
+        HttpRequest.Builder builder = HttpRequest.newBuilder(URI.create(connection.getUrlString()));
+
+        // Ask for a compressed body unless the user asked for some encoding
+        if (connection.getRequestHeaders().keySet().stream().noneMatch(name -> name.trim()
+                .equalsIgnoreCase("Accept-Encoding")))
+            builder.header("Accept-Encoding", DecodingSink.ACCEPT_ENCODING);
+
+        // Add the headers given by the user
+        for (Map.Entry<String, String> header : connection.getRequestHeaders().entrySet()) {
+            if (RESTRICTED_HEADERS.contains(header.getKey().trim().toLowerCase())) {
+                System.err.println("Header " + header.getKey() + " is set automatically and was ignored.");
+                continue;
+            }
+            builder.header(header.getKey().trim(), header.getValue());
+        }
+
+        // Set the body of the request
+        HttpRequest.BodyPublisher body = HttpRequest.BodyPublishers.noBody();
+        if (connection.isUploadBinary()) {
+            if (!StreamUtils.isPathValid(connection.getBinaryFileName()))
+                throw new IOException("Failed to upload the binary file.");
+            builder.header("Content-Type", "application/octet-stream");
+            body = new FileBodyPublisher(Paths.get(connection.getBinaryFileName()));
+        }
+        else if (connection.getFormData().size() != 0) {
+            MultipartBodyPublisher formData = new MultipartBodyPublisher(connection.getFormData());
+            builder.header("Content-Type", "multipart/form-data; boundary=" + formData.getBoundary());
+            body = formData;
+        }
+
+        if (Connection.HTTP_1_1.equals(connection.getHttpVersion()))
+            builder.version(HttpClient.Version.HTTP_1_1);
+        else if (Connection.HTTP_2.equals(connection.getHttpVersion()))
+            builder.version(HttpClient.Version.HTTP_2);
+        return builder.method(connection.getMethod(), body).build();
+    }
+}
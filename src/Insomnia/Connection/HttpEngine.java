@@ -0,0 +1,23 @@
+package Insomnia.Connection;
+
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * An HttpEngine sends the request described by a Connection and completes with its response
+ * asynchronously, so the caller does not have to wait for the server.
+ *
+ * @author Negar Movaghatian
+ */
+public interface HttpEngine {
+
+    /**
+     * Send the request described by the given connection. The connection is only read, so the same
+     * connection can be sent several times at once.
+     * @param connection The request to send.
+     * @param sinks The sinks to hand the response body to while it is being received. Without any sink the
+     *              body is thrown away.
+     * @return A future which completes with the response once its body is received, or completes exceptionally
+     * if the exchange fails.
+     */
+    CompletableFuture<HttpResult> send(Connection connection, ResponseSink... sinks);
+}
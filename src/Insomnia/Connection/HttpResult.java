@@ -0,0 +1,241 @@
+package Insomnia.Connection;
+
+import java.net.http.HttpClient;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The class HttpResult is an immutable snapshot of a response received by an HttpEngine. It holds
+ * the status, the protocol version and the headers of the response and how its body was received. The
+ * body itself is handed to the ResponseSinks of the exchange while it is being received.
+ *
+ * @author Negar Movaghatian
+ */
+public final class HttpResult {
+
+    private final int statusCode; // The status code of the response
+    private final HttpClient.Version version; // The protocol version the response was received with
+    private final Map<String, List<String>> headers; // The response headers
+    private final long bodySize; // The number of bytes of the decoded response body
+    private final long wireSize; // The number of bytes of the response body as it was sent, maybe compressed
+    private final long timeToFirstByte; // The nanoseconds between sending the request and the first byte of the body
+    private final long bytesSent; // The number of bytes of the request body which were streamed to the server
+    private final long sendTime; // The nanoseconds it took to stream the request body
+    private final ExchangeTimings timings; // How long each phase of the exchange took
+    private final String cacheStatus; // HttpCache.HIT, MISS or REVALIDATED, or null if no cache was asked
+
+    /**
+     * Create a new result.
+     * @param statusCode The status code of the response.
+     * @param version The protocol version the response was received with.
+     * @param headers The response headers.
+     * @param bodySize The number of bytes of the decoded response body.
+     * @param wireSize The number of bytes of the response body as it was sent, which is less than bodySize if it
+     *                 was compressed.
+     * @param timeToFirstByte The nanoseconds between sending the request and the first byte of the body, or -1
+     *                        if the body was empty.
+     * @param bytesSent The number of bytes of the request body which were streamed to the server.
+     * @param sendTime The nanoseconds it took to stream the request body, or -1 if it was not streamed.
+     * @param timings How long each phase of the exchange took.
+     */
+    public HttpResult(int statusCode, HttpClient.Version version, Map<String, List<String>> headers, long bodySize,
+                      long wireSize, long timeToFirstByte, long bytesSent, long sendTime, ExchangeTimings timings) {
+        this.statusCode = statusCode;
+        this.version = version;
+        this.headers = Collections.unmodifiableMap(new LinkedHashMap<>(headers));
+        this.bodySize = bodySize;
+        this.wireSize = wireSize;
+        this.timeToFirstByte = timeToFirstByte;
+        this.bytesSent = bytesSent;
+        this.sendTime = sendTime;
+        this.timings = timings;
+        cacheStatus = null;
+    }
+
+    /**
+     * Create a copy of a result which tells what the cache did with it.
+     * @param result The result to copy.
+     * @param bodySize The number of bytes of the decoded response body.
+     * @param cacheStatus HttpCache.HIT, MISS or REVALIDATED.
+     */
+    private HttpResult(HttpResult result, long bodySize, String cacheStatus) {
+        statusCode = result.statusCode;
+        version = result.version;
+        headers = result.headers;
+        this.bodySize = bodySize;
+        wireSize = result.wireSize;
+        timeToFirstByte = result.timeToFirstByte;
+        bytesSent = result.bytesSent;
+        sendTime = result.sendTime;
+        timings = result.timings;
+        this.cacheStatus = cacheStatus;
+    }
+
+    /**
+     * @param cacheStatus HttpCache.HIT, MISS or REVALIDATED.
+     * @return A copy of this result which tells what the cache did with it.
+     */
+    public HttpResult withCacheStatus(String cacheStatus) {
+        return new HttpResult(this, bodySize, cacheStatus);
+    }
+
+    /**
+     * @param bodySize The number of bytes of the decoded response body.
+     * @return A copy of this result with another decoded size, for when the body was decoded by another sink than
+     * the engine knows of.
+     */
+    public HttpResult withBodySize(long bodySize) {
+        return new HttpResult(this, bodySize, cacheStatus);
+    }
+
+    /**
+     * @return The status code of the response.
+     */
+    public int getStatusCode() {
+        return statusCode;
+    }
+
+    /**
+     * @return The combination of the status code and its reason phrase. For example '200 OK'.
+     */
+    public String getStatusMessage() {
+        return statusCode + " " + reasonPhrase(statusCode);
+    }
+
+    /**
+     * @return The protocol of the response. For example 'HTTP/1.1'.
+     */
+    public String getProtocol() {
+        return (version == HttpClient.Version.HTTP_2)? "HTTP/2" : "HTTP/1.1";
+    }
+
+    /**
+     * @return An unmodifiable map of the response headers.
+     */
+    public Map<String, List<String>> getHeaders() {
+        return headers;
+    }
+
+    /**
+     * Get the value of a response header. Header names are compared case-insensitively.
+     * @param name The name of the header.
+     * @return The values of the header joined by ', ' or null if the response does not have it.
+     */
+    public String getHeader(String name) {
+        for (Map.Entry<String, List<String>> header : headers.entrySet())
+            if (header.getKey().equalsIgnoreCase(name))
+                return String.join(", ", header.getValue());
+        return null;
+    }
+
+    /**
+     * @return The value of the Content-Type header or null if the response does not have it.
+     */
+    public String getContentType() {
+        return getHeader("Content-Type");
+    }
+
+    /**
+     * @return The number of bytes of the decoded response body.
+     */
+    public long getBodySize() {
+        return bodySize;
+    }
+
+    /**
+     * @return The number of bytes of the response body as it was sent, which is less than the body size if it was
+     * compressed.
+     */
+    public long getWireSize() {
+        return wireSize;
+    }
+
+    /**
+     * @return The value of the Content-Encoding header, such as 'gzip', or null if the body was not encoded.
+     */
+    public String getContentEncoding() {
+        return getHeader("Content-Encoding");
+    }
+
+    /**
+     * @return The nanoseconds between sending the request and receiving the first byte of the body, or -1 if
+     * the body was empty.
+     */
+    public long getTimeToFirstByte() {
+        return timeToFirstByte;
+    }
+
+    /**
+     * @return The number of bytes of the request body which were streamed to the server.
+     */
+    public long getBytesSent() {
+        return bytesSent;
+    }
+
+    /**
+     * @return The nanoseconds it took to stream the request body, or -1 if it was not streamed.
+     */
+    public long getSendTime() {
+        return sendTime;
+    }
+
+    /**
+     * @return How long each phase of the exchange took.
+     */
+    public ExchangeTimings getTimings() {
+        return timings;
+    }
+
+    /**
+     * @return HttpCache.HIT if the response was served from the cache, HttpCache.MISS if it was received from the
+     * server, HttpCache.REVALIDATED if the server answered that the cached response is still valid, or null if
+     * no cache was asked.
+     */
+    public String getCacheStatus() {
+        return cacheStatus;
+    }
+
+    /**
+     * Get the standard reason phrase of a status code, since HTTP/2 responses and the HttpClient do not carry one.
+     * @param statusCode The status code.
+     * @return The reason phrase of the status code or an empty string if it is not a known one.
+     */
+    public static String reasonPhrase(int statusCode) {
+        switch (statusCode) {
+            case 100: return "Continue";
+            case 101: return "Switching Protocols";
+            case 200: return "OK";
+            case 201: return "Created";
+            case 202: return "Accepted";
+            case 204: return "No Content";
+            case 206: return "Partial Content";
+            case 301: return "Moved Permanently";
+            case 302: return "Found";
+            case 303: return "See Other";
+            case 304: return "Not Modified";
+            case 307: return "Temporary Redirect";
+            case 308: return "Permanent Redirect";
+            case 400: return "Bad Request";
+            case 401: return "Unauthorized";
+            case 403: return "Forbidden";
+            case 404: return "Not Found";
+            case 405: return "Method Not Allowed";
+            case 406: return "Not Acceptable";
+            case 408: return "Request Timeout";
+            case 409: return "Conflict";
+            case 410: return "Gone";
+            case 413: return "Payload Too Large";
+            case 415: return "Unsupported Media Type";
+            case 422: return "Unprocessable Entity";
+            case 429: return "Too Many Requests";
+            case 500: return "Internal Server Error";
+            case 501: return "Not Implemented";
+            case 502: return "Bad Gateway";
+            case 503: return "Service Unavailable";
+            case 504: return "Gateway Timeout";
+            default: return "";
+        }
+    }
+}
@@ -1,5 +1,6 @@
 package Insomnia.Connection;
 
+import java.io.PrintStream;
 import java.util.*;
 import java.util.regex.*;
 
@@ -12,6 +13,8 @@ import java.util.regex.*;
  */
 public class InputHandler {
 
+    private final static int DEFAULT_PARALLELISM = 8; // The most saved requests fired at once by default
+
     private String[] args; // An array of the inputs to analyze
 
     private LinkedList<String> url; // The URL of the connection to be created
@@ -22,14 +25,29 @@ public class InputHandler {
     private boolean followRedirect; // Shows if the user wants this program to follow redirects automatically or not
     private String fileName; // The name of the output of this request
     private String binaryFilePath; // The path of the binary file to upload
+    private String httpVersion; // The HTTP version to send the request with, null to let the client negotiate it
+    private String batchFile; // The file to read the requests of a batch from, '-' for stdin
 
     private boolean isMethod; // Shows if the next argument should be a method
     private boolean isHeader; // Shows if the next argument should be a list of headers
     private boolean isFileName; // Shows if the next argument should be a file name
     private boolean isData; // Shows if the next argument should be form data
+    private boolean isParallelism; // Shows if the next argument should be the number of requests to send at once
     private boolean saveFile; // Shows if we should save this request or not
     private boolean uploadBinary; // Shows if the user wants to upload any binary file or not
+    private boolean checksum; // Shows if the user wants to see the checksum of the response body or not
+    private boolean asCompleted; // Shows if the user wants each response printed as soon as it is received
+    private boolean cache; // Shows if the user wants the request sent through the response cache
+    private boolean saveRaw; // Shows if the user wants the output file to get the body as it was sent
+    private boolean fileNameGenerated; // Shows if the name of the output was made up since none was given
+    private int parallelism; // The most requests the user wants sent at once, zero if not given
+    private PrintStream messages; // The stream to explain what is wrong with the input on, or null for stdout
 
+    private int benchConcurrency; // The number of workers or requests in flight of a benchmark
+    private long benchRequests; // The number of requests a benchmark should measure
+    private double benchDuration; // The number of seconds a benchmark should measure for
+    private double benchWarmup; // The number of seconds a benchmark should warm up for
+    private double benchRate; // The number of requests a benchmark should send per second
 
     /**
      * Create a new input handler.
@@ -39,6 +57,7 @@ public class InputHandler {
         headers = new HashMap<>();
         formData = new HashMap<>();
         method = "GET";
+        benchConcurrency = 1;
     }
 
     /**
@@ -47,6 +66,10 @@ public class InputHandler {
      * an 'invalid input'. If none of the cases mentioned above, it will return 'none'.
      */
     public String getInput() {
+        if (args.length > 0 && args[0].equals("bench"))
+            return benchInputParser();
+        if (args.length > 0 && args[0].equals("--batch"))
+            return batchInputParser();
         String input = "";
         for (int i=0; i<args.length; i++)
             input = input.concat(args[i] + " ");
@@ -80,17 +103,129 @@ public class InputHandler {
             Pattern headerPattern = Pattern.compile("fire( +(\\d+))+");
             Matcher matcher = headerPattern.matcher(input);
             if (!matcher.find()) {
-                System.out.println("Invalid Expression");
+                report("Invalid Expression");
                 return "invalid input";
             }
             String[] fireNumbers = matcher.group(0).trim().split("\\s+");
+            LinkedList<Integer> requestNumbers = new LinkedList<>();
             for (int i=1; i<fireNumbers.length; i++)
-                RequestManager.runRequest(Integer.parseInt(fireNumbers[i]));
+                requestNumbers.add(Integer.parseInt(fireNumbers[i]));
+            if (input.matches(".*(^| )(-P|--parallel)( |$).*")) {
+                Matcher parallelMatcher = Pattern.compile("(^| )(-P|--parallel) +(\\d+)").matcher(input);
+                if (!parallelMatcher.find() || Integer.parseInt(parallelMatcher.group(3)) < 1) {
+                    report("Expected a positive number after " + (input.contains("-P")? "-P" : "--parallel"));
+                    return "invalid input";
+                }
+                parallelism = Integer.parseInt(parallelMatcher.group(3));
+            }
+            if (input.matches(".*(^| )--http1\\.1( |$).*"))
+                httpVersion = Connection.HTTP_1_1;
+            else if (input.matches(".*(^| )--http2( |$).*"))
+                httpVersion = Connection.HTTP_2;
+            RequestManager.runRequests(requestNumbers, (parallelism == 0)? DEFAULT_PARALLELISM : parallelism,
+                    input.matches(".*(^| )--as-completed( |$).*"), httpVersion,
+                    input.matches(".*(^| )--cache( |$).*"));
             return "fire";
         }
         return "none";
     }
 
+    /**
+     * Analyze the arguments of the 'bench' command. The benchmark options are taken out first and the rest
+     * of the arguments describe the request to send, just like a new request.
+     * @return 'bench' if the arguments are valid and 'invalid input' otherwise.
+     */
+    private String benchInputParser() {
+        LinkedList<String> requestArgs = new LinkedList<>();
+        String option = null; // The option whose value is being read
+        try {
+            for (int i = 1; i < args.length; i++) {
+                option = args[i];
+                switch (args[i]) {
+                    case "-c":
+                    case "--concurrency":
+                        benchConcurrency = Integer.parseInt(args[++i]);
+                        break;
+                    case "-n":
+                    case "--requests":
+                        benchRequests = Long.parseLong(args[++i]);
+                        break;
+                    case "--duration":
+                        benchDuration = Double.parseDouble(args[++i]);
+                        break;
+                    case "--warmup":
+                        benchWarmup = Double.parseDouble(args[++i]);
+                        break;
+                    case "--rate":
+                        benchRate = Double.parseDouble(args[++i]);
+                        break;
+                    default:
+                        requestArgs.add(args[i]);
+                }
+            }
+        } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+            report("Expected a number after " + option);
+            return "invalid input";
+        }
+        if (benchConcurrency < 1) {
+            report("The concurrency of a benchmark must be at least 1");
+            return "invalid input";
+        }
+        if (benchRequests < 0 || benchDuration < 0 || benchWarmup < 0 || benchRate < 0) {
+            report("Benchmark options can't be negative");
+            return "invalid input";
+        }
+        for (int i = 0; i < requestArgs.size(); i++)
+            if (!inputParser(requestArgs.get(i), (i == requestArgs.size() - 1)))
+                return "invalid input";
+        return "bench";
+    }
+
+    /**
+     * Analyze the arguments of the '--batch' command, which are the file to read the requests from and the most
+     * requests to send at once.
+     * @return 'batch' if the arguments are valid and 'invalid input' otherwise.
+     */
+    private String batchInputParser() {
+        if (args.length < 2 || (args[1].startsWith("-") && !args[1].equals("-"))) {
+            report("Expected a file path or '-' after --batch");
+            return "invalid input";
+        }
+        batchFile = args[1];
+        if (!batchFile.equals("-") && !StreamUtils.isPathValid(batchFile, messages()))
+            return "invalid input";
+        for (int i = 2; i < args.length; i++) {
+            if (!args[i].equals("-P") && !args[i].equals("--parallel")) {
+                report("No such an argument specifier for --batch as " + args[i]);
+                return "invalid input";
+            }
+            try {
+                parallelism = Integer.parseInt(args[++i]);
+            } catch (NumberFormatException | ArrayIndexOutOfBoundsException e) {
+                parallelism = 0;
+            }
+            if (parallelism < 1) {
+                report("Expected a positive number after " + args[i - 1]);
+                return "invalid input";
+            }
+        }
+        if (parallelism == 0)
+            parallelism = DEFAULT_PARALLELISM;
+        return "batch";
+    }
+
+    /**
+     * Analyze the arguments as the description of a single request, without looking for commands like 'list' or
+     * 'fire'. This is how each line of a batch is read.
+     * @return True if the arguments are valid and false otherwise.
+     */
+    public boolean parseRequest() {
+        for (int i=0; i<args.length; i++)
+            if (!inputParser(args[i], (i == args.length-1)))
+                return false;
+        return true;
+    }
+
     /**
      * Takes the last argument entered by the user and analyzes it.
      * @param input The last argument entered by the user.
@@ -100,12 +235,25 @@ public class InputHandler {
     private boolean inputParser (String input, boolean isLastArgument) {
         if (input.startsWith("-")) {
             if (!isValidArgument(input)) {
-                System.out.println("No such an argument specifier as " + input);
+                report("No such an argument specifier as " + input);
                 return false;
             }
             isMethod = false;
             isData = false;
         }
+        if (isParallelism) {
+            isParallelism = false;
+            try {
+                parallelism = Integer.parseInt(input);
+            } catch (NumberFormatException e) {
+                parallelism = 0;
+            }
+            if (parallelism < 1) {
+                report("Expected a positive number after -P");
+                return false;
+            }
+            return true;
+        }
         if (isFileName && !input.startsWith("-")) {
             fileName = input;
             isFileName = false;
@@ -113,23 +261,24 @@ public class InputHandler {
         }
         else if (isFileName && input.startsWith("-")) {
             fileName = "output_" + System.currentTimeMillis();
+            fileNameGenerated = true;
             isFileName = false;
         }
         else if (uploadBinary && input.startsWith("-")) {
-            System.out.println("Expected a file path");
+            report("Expected a file path");
             return false;
         }
         if (input.equals("-M") || input.equals("--method"))
             isMethod = true;
         else if (isMethod && !setMethod(input)) {
-            System.out.println("Ambiguous command");
+            report("Ambiguous command");
             return false;
         }
         else if (isMethod);
         else if (input.equals("--upload"))
             uploadBinary = true;
         else if (uploadBinary) {
-            if (StreamUtils.isPathValid(input)) {
+            if (StreamUtils.isPathValid(input, messages())) {
                 uploadBinary = false;
                 binaryFilePath = input;
             }
@@ -154,13 +303,34 @@ public class InputHandler {
             showResponseHeaders = true;
         else if (input.equals("-O") || input.equals("--output")) {
             isFileName = true;
-            if (isLastArgument)
+            if (isLastArgument) {
                 fileName = "output_" + System.currentTimeMillis();
+                fileNameGenerated = true;
+            }
         }
         else if (input.equals("-f"))
             followRedirect = true;
         else if (input.equals("-S") || input.equals("--save"))
             saveFile = true;
+        else if (input.equals("--checksum"))
+            checksum = true;
+        else if (input.equals("-P") || input.equals("--parallel")) {
+            if (isLastArgument) {
+                report("Expected a positive number after -P");
+                return false;
+            }
+            isParallelism = true;
+        }
+        else if (input.equals("--as-completed"))
+            asCompleted = true;
+        else if (input.equals("--http1.1"))
+            httpVersion = Connection.HTTP_1_1;
+        else if (input.equals("--http2"))
+            httpVersion = Connection.HTTP_2;
+        else if (input.equals("--cache"))
+            cache = true;
+        else if (input.equals("--raw"))
+            saveRaw = true;
         else
             url.add(input);
         return true;
@@ -176,7 +346,7 @@ public class InputHandler {
         Pattern headerPattern = Pattern.compile("(([^:;]*):([^;:]*))(;([^;:]*):([^;:]*))*");
         Matcher matcher = headerPattern.matcher(input);
         if (!matcher.find()) {
-            System.out.println("Invalid Expression");
+            report("Invalid Expression");
             return false;
         }
         else {
@@ -205,7 +375,7 @@ public class InputHandler {
         Pattern headerPattern = Pattern.compile("(([^=&]*)=([^=&]*))(&([^=&]*)=([^=&]*))*");
         Matcher matcher = headerPattern.matcher(input);
         if (!matcher.find()) {
-            System.out.println("Invalid Expression");
+            report("Invalid Expression");
             return false;
         }
         else {
@@ -247,15 +417,32 @@ public class InputHandler {
      */
     private void showHelp() {
         System.out.println("HELP:\n" +
+                " bench [options] <request> Send the request repeatedly and print latency statistics\n" +
+                "   -c, --concurrency <n>    Number of workers, or most requests in flight with --rate (Default: 1)\n" +
+                "   -n, --requests <n>       Number of requests to measure (Default: 100)\n" +
+                "   --duration <seconds>     Measure for the given time instead of a number of requests\n" +
+                "   --rate <requests/s>      Send at a fixed arrival rate instead of closed-loop workers\n" +
+                "   --warmup <seconds>       Send requests without measuring them first\n" +
+                " --as-completed             With -P or fire, print each response as soon as it is received\n" +
+                " --batch <file|-> [-P <n>]  Run a request for each line of the file or stdin, n at once (Default: 8),\n" +
+                "                            and print the result of each one as a line of JSON\n" +
+                " --cache                    Keep GET responses in data/Cache, serve them while they are fresh\n" +
+                "                            and revalidate them once they are stale\n" +
+                " --checksum                 Print the SHA-256 checksum of the response body\n" +
+                " daemon [status | stop]     Keep a warm jurl running which later calls in this directory use\n" +
                 " -d, --data <data>          HTTP POST data\n" +
                 " -f                         Follow redirects automatically\n" +
-                " fire <request number>      Run the requests with the given order\n" +
+                " fire <request number>      Run the requests with the given order, 8 at once by default\n" +
                 " -h, --help                 This help text\n" +
+                " --http1.1                  Send with HTTP/1.1, one request at a time on each connection\n" +
+                " --http2                    Send with HTTP/2, all the requests to a server on one connection\n" +
                 " -H, --headers <header>     Pass custom header(s) to server\n" +
                 " -i                         Include protocol response headers in the output\n" +
                 " list                       List all the saved requests\n" +
                 " -M, --method               Request method (Default: GET)\n" +
                 " -O, --output <file>        Write to file instead of stdout\n" +
+                " -P, --parallel <n>         Send the given URLs or fired requests at most n at once\n" +
+                " --raw                      With -O, save a gzip or deflate body as it was sent instead of decoded\n" +
                 " -S, --save                 Save this request\n" +
                 " --upload <file path>       HTTP POST data\n");
 
@@ -268,7 +455,8 @@ public class InputHandler {
      */
     private boolean isValidArgument (String arg) {
         String[] arguments = {"-M", "--method", "-H", "--headers", "-i", "-h", "--help", "-f",
-                                "-O", "--output", "-S", "--save", "-d", "--data", "--upload"};
+                                "-O", "--output", "-S", "--save", "-d", "--data", "--upload", "--checksum",
+                                "-P", "--parallel", "--as-completed", "--http1.1", "--http2", "--cache", "--raw"};
         for (String validArg : arguments)
             if (arg.equals(validArg))
                 return true;
@@ -332,6 +520,13 @@ public class InputHandler {
         return !(fileName == null);
     }
 
+    /**
+     * @return A boolean which shows if the output file name was made up by the program since the user gave none.
+     */
+    public boolean isFileNameGenerated() {
+        return fileNameGenerated;
+    }
+
     /**
      * @return A boolean which shows if the user wants to save this request or not.
      */
@@ -339,6 +534,55 @@ public class InputHandler {
         return saveFile;
     }
 
+    /**
+     * @return A boolean which shows if the user wants to see the checksum of the response body or not.
+     */
+    public boolean isChecksum() {
+        return checksum;
+    }
+
+    /**
+     * @return The most requests the user wants sent at once, or zero if the user wants them sent one by one.
+     */
+    public int getParallelism() {
+        return parallelism;
+    }
+
+    /**
+     * @return A boolean which shows if the user wants each response printed as soon as it is received or not.
+     */
+    public boolean isAsCompleted() {
+        return asCompleted;
+    }
+
+    /**
+     * @return True if the user wants the output file to get the body as it was sent, even if it was compressed.
+     */
+    public boolean isSaveRaw() {
+        return saveRaw;
+    }
+
+    /**
+     * @return True if the user wants the request sent through the response cache.
+     */
+    public boolean isCache() {
+        return cache;
+    }
+
+    /**
+     * @return The HTTP version the user wants the request sent with, or null to let the client negotiate it.
+     */
+    public String getHttpVersion() {
+        return httpVersion;
+    }
+
+    /**
+     * @return The file to read the requests of a batch from, or '-' to read them from stdin.
+     */
+    public String getBatchFile() {
+        return batchFile;
+    }
+
     /**
      * @return The path of the binary file to upload found in the user's input.
      */
@@ -354,10 +598,69 @@ public class InputHandler {
         return !(binaryFilePath == null);
     }
 
+    /**
+     * @return The number of workers or requests in flight of the benchmark.
+     */
+    public int getBenchConcurrency() {
+        return benchConcurrency;
+    }
+
+    /**
+     * @return The number of requests the benchmark should measure.
+     */
+    public long getBenchRequests() {
+        return benchRequests;
+    }
+
+    /**
+     * @return The number of seconds the benchmark should measure for.
+     */
+    public double getBenchDuration() {
+        return benchDuration;
+    }
+
+    /**
+     * @return The number of seconds the benchmark should warm up for.
+     */
+    public double getBenchWarmup() {
+        return benchWarmup;
+    }
+
+    /**
+     * @return The number of requests the benchmark should send per second, zero for closed-loop workers.
+     */
+    public double getBenchRate() {
+        return benchRate;
+    }
+
     /**
      * @param args The input arguments.
      */
     public void setArgs(String[] args) {
         this.args = args;
     }
+
+    /**
+     * Set where the parser explains what is wrong with the input, so a caller can keep the messages of its own
+     * input without touching stdout.
+     * @param messages The stream to print the messages on, or null for stdout.
+     */
+    public void setMessages(PrintStream messages) {
+        this.messages = messages;
+    }
+
+    /**
+     * @return The stream to explain what is wrong with the input on.
+     */
+    private PrintStream messages() {
+        return (messages != null)? messages : System.out;
+    }
+
+    /**
+     * Explain what is wrong with the input.
+     * @param message The message to print.
+     */
+    private void report(String message) {
+        messages().println(message);
+    }
 }
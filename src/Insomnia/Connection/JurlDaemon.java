@@ -0,0 +1,237 @@
+package Insomnia.Connection;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.net.SocketTimeoutException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.PosixFilePermissions;
+import java.security.MessageDigest;
+import java.security.SecureRandom;
+
+/**
+ * The class JurlDaemon keeps a jurl running in the background, so later invocations in the same directory hand
+ * their arguments to it through a DaemonClient instead of starting a JVM of their own. The classes it needs are
+ * loaded and compiled once and its connection pool stays warm between invocations.
+ * It listens on a loopback port which it writes into data/jurl.daemon with a random token; only clients which
+ * can read that file, and so send the token, are served. Invocations are run one at a time, with stdout and
+ * stderr sent back to the client while they are printed.
+ * Usage: jurl daemon [status | stop]
+ *
+ * @author Negar Movaghatian
+ */
+public class JurlDaemon {
+
+    private final static int MAX_ARGS = 4096; // The most arguments an invocation may have
+    private final static int MAX_ARG_LENGTH = 1024 * 1024; // The most bytes an argument may have
+    private final static int READ_TIMEOUT = 5000; // The milliseconds to wait for a client to send its arguments
+
+    private final ServerSocket server; // The socket clients connect to
+    private final String token; // The token clients have to send
+    private final long startTime; // The time this daemon was started at
+    private long served; // The number of invocations this daemon has run
+    private boolean running; // Shows if this daemon should keep accepting clients
+
+    /**
+     * Create a daemon which listens on a free loopback port.
+     * @throws IOException If the port could not be opened.
+     */
+    private JurlDaemon() throws IOException {
+        server = new ServerSocket(0, 50, InetAddress.getLoopbackAddress());
+        byte[] random = new byte[16];
+        new SecureRandom().nextBytes(random);
+        StringBuilder hex = new StringBuilder();
+        for (byte b : random)
+            hex.append(String.format("%02x", b));
+        token = hex.toString();
+        startTime = System.nanoTime();
+    }
+
+    /**
+     * Run the 'daemon' command: start a daemon in this directory, or ask the one which is running about its status
+     * or to stop.
+     * @param args The arguments of the command, starting with 'daemon'.
+     */
+    public static void command(String[] args) {
+        if (args.length == 2 && (args[1].equals("status") || args[1].equals("stop"))) {
+            if (!DaemonClient.forward(args))
+                System.out.println("No jurl daemon is running in this directory");
+        }
+        else if (args.length == 1) {
+            if (DaemonClient.forward(new String[] {"daemon", "status"})) // One is running already
+                return;
+            try {
+                new JurlDaemon().serve();
+            } catch (IOException e) {
+                System.err.println("Could not start the jurl daemon: " + e.getMessage());
+            }
+        }
+        else
+            System.out.println("Usage: jurl daemon [status | stop]");
+    }
+
+    /**
+     * Publish the address of this daemon and run the invocations of clients until it is stopped.
+     * @throws IOException If the address could not be published.
+     */
+    private void serve() throws IOException {
+        Path daemonFile = Paths.get(DaemonClient.DAEMON_FILE);
+        publish(daemonFile);
+        Runtime.getRuntime().addShutdownHook(new Thread(() -> {
+            try {
+                Files.deleteIfExists(daemonFile);
+            } catch (IOException ignored) {}
+        }));
+
+        // Load what every request needs before the first client comes
+        HttpClientEngine.getDefault();
+        StreamUtils.getRequestStore();
+
+        PrintStream out = System.out;
+        PrintStream err = System.err;
+        out.println("jurl daemon is listening on port " + server.getLocalPort() + "; stop it with 'jurl daemon stop'");
+        running = true;
+        while (running) {
+            try (Socket socket = server.accept()) {
+                serve(socket, out, err);
+            } catch (IOException e) {
+                err.println("A client of the jurl daemon failed: " + e.getMessage());
+            }
+        }
+        server.close();
+        Files.deleteIfExists(daemonFile);
+    }
+
+    /**
+     * Write the port and the token of this daemon into a file only the user can read.
+     * @param daemonFile The file to write into.
+     * @throws IOException If the file could not be written.
+     */
+    private void publish(Path daemonFile) throws IOException {
+        Files.createDirectories(daemonFile.toAbsolutePath().getParent());
+        Path temp = Paths.get(daemonFile + ".tmp");
+        Files.deleteIfExists(temp);
+        try {
+            Files.createFile(temp, PosixFilePermissions.asFileAttribute(PosixFilePermissions.fromString("rw-------")));
+        } catch (UnsupportedOperationException e) { // Not a POSIX file system; the user's directory has to do
+            Files.createFile(temp);
+        }
+        Files.write(temp, (server.getLocalPort() + " " + token).getBytes(StandardCharsets.UTF_8));
+        Files.move(temp, daemonFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /**
+     * Read the arguments of a client, run them and send their output back.
+     * @param socket The socket of the client.
+     * @param out The stdout of the daemon.
+     * @param err The stderr of the daemon.
+     * @throws IOException If the client could not be read or written.
+     */
+    private void serve(Socket socket, PrintStream out, PrintStream err) throws IOException {
+        socket.setTcpNoDelay(true);
+        socket.setSoTimeout(READ_TIMEOUT);
+        DataInputStream input = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+        String[] args;
+        try {
+            if (!MessageDigest.isEqual(token.getBytes(StandardCharsets.UTF_8),
+                    input.readUTF().getBytes(StandardCharsets.UTF_8)))
+                return;
+            int count = input.readInt();
+            if (count < 0 || count > MAX_ARGS)
+                throw new IOException(count + " arguments are too many");
+            args = new String[count];
+            for (int i = 0; i < count; i++)
+                args[i] = DaemonClient.readString(input, MAX_ARG_LENGTH);
+        } catch (SocketTimeoutException e) {
+            throw new IOException("The client did not send its arguments in time");
+        }
+        socket.setSoTimeout(0);
+
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(socket.getOutputStream()));
+        PrintStream stdout = new PrintStream(new BufferedOutputStream(new FrameStream(output, DaemonClient.STDOUT)),
+                true);
+        PrintStream stderr = new PrintStream(new BufferedOutputStream(new FrameStream(output, DaemonClient.STDERR)),
+                true);
+        System.setOut(stdout);
+        System.setErr(stderr);
+        try {
+            if (args.length > 0 && args[0].equals("daemon"))
+                daemonCommand(args);
+            else {
+                RequestManager.setArgs(args);
+                RequestManager.runInConsole();
+            }
+        } catch (RuntimeException e) {
+            stderr.println("An unexpected error occurred: " + e);
+        } finally {
+            served++;
+            stdout.flush();
+            stderr.flush();
+            System.setOut(out);
+            System.setErr(err);
+        }
+        synchronized (output) {
+            output.writeByte(DaemonClient.END);
+            output.writeInt(0);
+            output.flush();
+        }
+    }
+
+    /**
+     * Run a 'daemon' command sent by a client.
+     * @param args The arguments of the command, starting with 'daemon'.
+     */
+    private void daemonCommand(String[] args) {
+        if (args.length == 2 && args[1].equals("stop")) {
+            running = false;
+            System.out.println("The jurl daemon is stopped");
+        }
+        else if (args.length == 2 && args[1].equals("status"))
+            System.out.printf("A jurl daemon is running on port %d for %.0f second(s) and has run %d invocation(s)\n",
+                    server.getLocalPort(), (System.nanoTime() - startTime) / 1_000_000_000.0, served);
+        else
+            System.out.println("Usage: jurl daemon [status | stop]");
+    }
+
+    /**
+     * The class FrameStream sends everything written into it to the client as frames of one kind.
+     */
+    private static class FrameStream extends OutputStream {
+
+        private final DataOutputStream output; // The stream of the client, shared by stdout and stderr
+        private final int kind; // The kind of the frames
+
+        private FrameStream(DataOutputStream output, int kind) {
+            this.output = output;
+            this.kind = kind;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            if (length == 0)
+                return;
+            synchronized (output) {
+                output.writeByte(kind);
+                output.writeInt(length);
+                output.write(bytes, offset, length);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            synchronized (output) {
+                output.flush();
+            }
+        }
+    }
+}
@@ -0,0 +1,181 @@
+package Insomnia.Connection;
+
+import java.io.PrintStream;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * The class LatencyHistogram records latencies in microseconds into log-linear buckets. Every power of two
+ * is split into 32 buckets, so any recorded value is kept with an error of about 3%, no matter how large it
+ * is. Values can be recorded from several threads at the same time.
+ *
+ * @author Negar Movaghatian
+ */
+public class LatencyHistogram {
+
+    private final static int LINEAR_LIMIT = 64; // Values below this limit have a bucket of their own
+    private final static int SUB_BUCKETS = 32; // The number of buckets every power of two is split into
+    private final static int BUCKETS = LINEAR_LIMIT + (63 - 6) * SUB_BUCKETS; // The total number of buckets
+
+    private final AtomicLongArray counts; // The number of values recorded in each bucket
+    private final AtomicLong totalCount; // The number of all recorded values
+    private final AtomicLong sum; // The sum of all recorded values
+    private final AtomicLong max; // The largest recorded value
+
+    /**
+     * Create a new empty histogram.
+     */
+    public LatencyHistogram() {
+        counts = new AtomicLongArray(BUCKETS);
+        totalCount = new AtomicLong();
+        sum = new AtomicLong();
+        max = new AtomicLong();
+    }
+
+    /**
+     * Record a latency.
+     * @param micros The latency in microseconds.
+     */
+    public void record(long micros) {
+        if (micros < 0)
+            micros = 0;
+        counts.incrementAndGet(bucketOf(micros));
+        totalCount.incrementAndGet();
+        sum.addAndGet(micros);
+        max.accumulateAndGet(micros, Math::max);
+    }
+
+    /**
+     * Record a latency and correct it for coordinated omission: when a request took longer than the expected
+     * interval between two requests, the requests which would have been sent meanwhile are recorded too, with
+     * the latency they would have seen.
+     * @param micros The latency in microseconds.
+     * @param expectedIntervalMicros The expected interval between two requests in microseconds. Zero or less
+     *                               records the value without correction.
+     */
+    public void recordWithExpectedInterval(long micros, long expectedIntervalMicros) {
+        record(micros);
+        if (expectedIntervalMicros <= 0)
+            return;
+        for (long missing = micros - expectedIntervalMicros; missing >= expectedIntervalMicros;
+             missing -= expectedIntervalMicros)
+            record(missing);
+    }
+
+    /**
+     * Get the value at a given percentile.
+     * @param percentile The percentile, between 0 and 100.
+     * @return The highest value which is equivalent to the value at the given percentile, in microseconds.
+     */
+    public long getValueAtPercentile(double percentile) {
+        long total = totalCount.get();
+        if (total == 0)
+            return 0;
+        long countAtPercentile = Math.max(1, (long) Math.ceil(percentile / 100.0 * total));
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += counts.get(i);
+            if (seen >= countAtPercentile)
+                return Math.min(highestValueOf(i), max.get());
+        }
+        return max.get();
+    }
+
+    /**
+     * @return The number of recorded values.
+     */
+    public long getTotalCount() {
+        return totalCount.get();
+    }
+
+    /**
+     * @return The mean of the recorded values in microseconds.
+     */
+    public double getMean() {
+        long total = totalCount.get();
+        return (total == 0)? 0 : (double) sum.get() / total;
+    }
+
+    /**
+     * @return The largest recorded value in microseconds.
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * Print the number of values recorded in each power of two range as a bar chart.
+     * @param out The stream to print the chart on.
+     */
+    public void printDistribution(PrintStream out) {
+        long[] ranges = new long[64];
+        int first = -1, last = -1;
+        for (int i = 0; i < BUCKETS; i++) {
+            long count = counts.get(i);
+            if (count == 0)
+                continue;
+            int range = 63 - Long.numberOfLeadingZeros(Math.max(1, lowestValueOf(i)));
+            ranges[range] += count;
+            first = (first == -1)? range : Math.min(first, range);
+            last = Math.max(last, range);
+        }
+        if (first == -1)
+            return;
+        long largest = 0;
+        for (long count : ranges)
+            largest = Math.max(largest, count);
+        for (int range = first; range <= last; range++) {
+            int barLength = (int) Math.round(40.0 * ranges[range] / largest);
+            out.printf("%12s - %-10s |%-40s| %d\n", formatMicros(1L << range), formatMicros((2L << range) - 1),
+                    "#".repeat(barLength), ranges[range]);
+        }
+    }
+
+    /**
+     * Format a latency in a human readable form. For example '950us', '12.40ms' or '1.25s'.
+     * @param micros The latency in microseconds.
+     * @return The formatted latency.
+     */
+    public static String formatMicros(double micros) {
+        if (micros >= 1_000_000)
+            return String.format("%.2fs", micros / 1_000_000);
+        if (micros >= 1_000)
+            return String.format("%.2fms", micros / 1_000);
+        return String.format("%.0fus", micros);
+    }
+
+    /**
+     * @param value A value in microseconds.
+     * @return The index of the bucket which the value belongs to.
+     */
+    private static int bucketOf(long value) {
+        if (value < LINEAR_LIMIT)
+            return (int) value;
+        int exponent = 63 - Long.numberOfLeadingZeros(value);
+        int subBucket = (int) (value >>> (exponent - 5)) & (SUB_BUCKETS - 1);
+        return LINEAR_LIMIT + (exponent - 6) * SUB_BUCKETS + subBucket;
+    }
+
+    /**
+     * @param bucket The index of a bucket.
+     * @return The smallest value which belongs to the bucket.
+     */
+    private static long lowestValueOf(int bucket) {
+        if (bucket < LINEAR_LIMIT)
+            return bucket;
+        int exponent = (bucket - LINEAR_LIMIT) / SUB_BUCKETS + 6;
+        long subBucket = (bucket - LINEAR_LIMIT) % SUB_BUCKETS;
+        return (1L << exponent) + (subBucket << (exponent - 5));
+    }
+
+    /**
+     * @param bucket The index of a bucket.
+     * @return The largest value which belongs to the bucket.
+     */
+    private static long highestValueOf(int bucket) {
+        if (bucket < LINEAR_LIMIT)
+            return bucket;
+        int exponent = (bucket - LINEAR_LIMIT) / SUB_BUCKETS + 6;
+        return lowestValueOf(bucket) + (1L << (exponent - 5)) - 1;
+    }
+}
@@ -0,0 +1,56 @@
+package Insomnia.Connection;
+
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * The class MemorySink keeps the body of a response in memory, for the parts of the program which need
+ * the whole body at once such as the response viewer of the GUI.
+ *
+ * @author Negar Movaghatian
+ */
+public class MemorySink implements ResponseSink {
+
+    private final static int MAX_INITIAL_CAPACITY = 16 * 1024 * 1024; // The most memory reserved up front
+
+    private byte[] bytes; // The bytes received so far
+    private int size; // The number of bytes received so far
+
+    /**
+     * Create a new memory sink.
+     */
+    public MemorySink() {
+        bytes = new byte[8192];
+    }
+
+    @Override
+    public void begin(HttpResponse.ResponseInfo info) {
+        long contentLength = info.headers().firstValueAsLong("Content-Length").orElse(-1);
+        if (contentLength > bytes.length)
+            bytes = new byte[(int) Math.min(contentLength, MAX_INITIAL_CAPACITY)];
+    }
+
+    @Override
+    public void write(ByteBuffer chunk) {
+        int length = chunk.remaining();
+        if (size + length > bytes.length)
+            bytes = Arrays.copyOf(bytes, Math.max(size + length, bytes.length * 2));
+        chunk.get(bytes, size, length);
+        size += length;
+    }
+
+    /**
+     * @return A copy of the bytes received, or null if the body was empty.
+     */
+    public byte[] toByteArray() {
+        return (size == 0)? null : Arrays.copyOf(bytes, size);
+    }
+
+    /**
+     * @return The number of bytes received.
+     */
+    public int size() {
+        return size;
+    }
+}
@@ -0,0 +1,141 @@
+package Insomnia.Connection;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Map;
+
+/**
+ * The class MultipartBodyPublisher sends form data as a multipart/form-data body. The headers of the parts
+ * are encoded once when the publisher is created and files are streamed from the disk while the body is
+ * being sent, so forms with many large files are sent without loading them into memory. Since the size of
+ * every part is known up front, the exact Content-Length of the body is known too.
+ * A form data item is sent as a file if its name contains 'file'.
+ *
+ * @author Negar Movaghatian
+ */
+public class MultipartBodyPublisher extends ChunkPublisher {
+
+    private final static char[] BOUNDARY_CHARACTERS =
+            "0123456789abcdefghijklmnopqrstuvwxyzABCDEFGHIJKLMNOPQRSTUVWXYZ".toCharArray();
+    private final static SecureRandom random = new SecureRandom(); // The random generator of the boundaries
+
+    private final String boundary; // The boundary which separates the parts of the body
+    private final ArrayList<Object> segments; // The encoded headers and texts as ByteBuffers and the files
+    // as FileBodyPublishers, in the order they are sent
+    private final long length; // The length of the body, or -1 if a file's length is not known
+
+    /**
+     * Create a new multipart publisher.
+     * @param formData The names and values of the form data. Values of file items are file paths.
+     * @throws IOException If the length of a file could not be read.
+     */
+    public MultipartBodyPublisher(Map<String, String> formData) throws IOException {
+        boundary = newBoundary();
+        segments = new ArrayList<>();
+        long bodyLength = 0;
+        boolean lengthKnown = true;
+        StringBuilder text = new StringBuilder();
+        for (Map.Entry<String, String> item : formData.entrySet()) {
+            text.append("--").append(boundary).append("\r\n");
+            if (item.getKey().contains("file")) { // In case the data is a file
+                if (!StreamUtils.isPathValid(item.getValue())) {
+                    System.out.println("Could not add this key to form-data");
+                    text.setLength(text.length() - boundary.length() - 4);
+                    continue;
+                }
+                Path path = Paths.get(item.getValue());
+                String contentType = Files.probeContentType(path);
+                text.append("Content-Disposition: form-data; name=\"").append(item.getKey())
+                        .append("\"; filename=\"").append(path.getFileName()).append("\"\r\nContent-Type: ")
+                        .append((contentType != null)? contentType : "application/octet-stream").append("\r\n\r\n");
+                bodyLength += addText(text);
+                FileBodyPublisher file = new FileBodyPublisher(path);
+                segments.add(file);
+                bodyLength += file.contentLength();
+                lengthKnown &= file.contentLength() != -1;
+                text.append("\r\n");
+            } else { // In case the data is text
+                text.append("Content-Disposition: form-data; name=\"").append(item.getKey()).append("\"\r\n\r\n")
+                        .append(item.getValue()).append("\r\n");
+            }
+        }
+        text.append("--").append(boundary).append("--\r\n");
+        bodyLength += addText(text);
+        length = lengthKnown? bodyLength : -1;
+    }
+
+    /**
+     * @return The boundary which separates the parts of the body.
+     */
+    public String getBoundary() {
+        return boundary;
+    }
+
+    @Override
+    public long contentLength() {
+        return length;
+    }
+
+    @Override
+    protected ChunkSource open() {
+        return new ChunkSource() {
+
+            private int next; // The index of the next segment
+            private ChunkSource file; // The file which is being sent at the moment
+
+            @Override
+            public ByteBuffer next() throws IOException {
+                while (true) {
+                    if (file != null) {
+                        ByteBuffer chunk = file.next();
+                        if (chunk != null)
+                            return chunk;
+                        file.close();
+                        file = null;
+                    }
+                    if (next == segments.size())
+                        return null;
+                    Object segment = segments.get(next++);
+                    if (segment instanceof ByteBuffer)
+                        return ((ByteBuffer) segment).duplicate();
+                    file = ((FileBodyPublisher) segment).open();
+                }
+            }
+
+            @Override
+            public void close() throws IOException {
+                if (file != null)
+                    file.close();
+            }
+        };
+    }
+
+    /**
+     * Encode the gathered text as a segment of the body and clear it.
+     * @param text The text to encode.
+     * @return The number of bytes of the encoded text.
+     */
+    private long addText(StringBuilder text) {
+        ByteBuffer encoded = StandardCharsets.UTF_8.encode(text.toString()).asReadOnlyBuffer();
+        text.setLength(0);
+        if (encoded.hasRemaining())
+            segments.add(encoded);
+        return encoded.remaining();
+    }
+
+    /**
+     * @return A new random boundary which is very unlikely to appear in any of the parts.
+     */
+    private static String newBoundary() {
+        StringBuilder boundary = new StringBuilder("----InsomniaFormBoundary");
+        for (int i = 0; i < 24; i++)
+            boundary.append(BOUNDARY_CHARACTERS[random.nextInt(BOUNDARY_CHARACTERS.length)]);
+        return boundary.toString();
+    }
+}
@@ -0,0 +1,119 @@
+package Insomnia.Connection;
+
+import java.io.ByteArrayOutputStream;
+import java.io.PrintStream;
+import java.nio.charset.Charset;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The class ParallelRunner sends a number of requests at once, with at most a given number of them in flight.
+ * The output of each request is gathered in its own buffer, so the outputs don't get mixed, and is printed
+ * either in the order the requests were given or as soon as each one is done. At the end it prints how long
+ * all of them took against the sum of the time each one took.
+ * No thread waits for a response; the next request is sent as soon as one in flight is done.
+ *
+ * @author Negar Movaghatian
+ */
+public class ParallelRunner {
+
+    private final HttpEngine engine; // The engine to send the requests with
+    private final int parallelism; // The most requests in flight
+    private final boolean asCompleted; // True to print the output of each request as soon as it is done
+    private final boolean checksum; // True to print the checksum of each response body
+    private final PrintStream out; // The stream to print the outputs on
+
+    private String[] outputs; // The outputs of the requests which are done and not printed yet
+    private int nextToPrint; // The index of the next request to print when printing in order
+
+    /**
+     * Create a new runner.
+     * @param engine The engine to send the requests with.
+     * @param parallelism The most requests in flight.
+     * @param asCompleted True to print the output of each request as soon as it is done and false to print them in
+     *                    the order they were given.
+     * @param checksum True to print the SHA-256 checksum of each response body.
+     */
+    public ParallelRunner(HttpEngine engine, int parallelism, boolean asCompleted, boolean checksum) {
+        this.engine = engine;
+        this.parallelism = Math.max(1, parallelism);
+        this.asCompleted = asCompleted;
+        this.checksum = checksum;
+        out = System.out;
+    }
+
+    /**
+     * Send the requests, print their outputs and wait until all of them are done.
+     * @param connections The requests to send.
+     */
+    public void run(List<Connection> connections) {
+        outputs = new String[connections.size()];
+        nextToPrint = 0;
+        Semaphore inFlight = new Semaphore(parallelism);
+        CountDownLatch done = new CountDownLatch(connections.size());
+        AtomicLong timeSum = new AtomicLong();
+
+        long start = System.nanoTime();
+        for (int i = 0; i < connections.size(); i++) {
+            int index = i;
+            Connection connection = connections.get(i);
+            ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+            PrintStream output = new PrintStream(buffer, true);
+            connection.setOutput(output);
+
+            inFlight.acquireUninterruptibly();
+            output.println("\n\nSending request to: " + connection.getUrlString());
+            long startTime = System.nanoTime();
+            if (checksum)
+                connection.runConnection(engine, new ConsoleSink(output), RequestManager.newChecksumSink());
+            else
+                connection.runConnection(engine, new ConsoleSink(output));
+            connection.getPendingResponse().handle((result, error) -> {
+                inFlight.release();
+                try {
+                    connection.printResponseInfo();
+                    long elapsedTime = System.nanoTime() - startTime;
+                    timeSum.addAndGet(elapsedTime);
+                    output.printf("\nResponse Time: %.2f second(s)\n\n", (float) elapsedTime / 1_000_000_000.0);
+                    output.flush();
+                    finish(index, buffer.toString(Charset.defaultCharset()));
+                } finally {
+                    done.countDown();
+                }
+                return null;
+            });
+        }
+        try {
+            done.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return;
+        }
+        long wallTime = System.nanoTime() - start;
+
+        out.printf("Requests: %d, at most %d at once\n", connections.size(), parallelism);
+        out.printf("Wall Time: %.2f second(s)\n", wallTime / 1_000_000_000.0);
+        out.printf("Sum of Response Times: %.2f second(s)\n", timeSum.get() / 1_000_000_000.0);
+        if (wallTime > 0)
+            out.printf("Speedup: %.2fx\n\n", (double) timeSum.get() / wallTime);
+    }
+
+    /**
+     * Print the output of a request which is done, or keep it until the requests before it are printed.
+     * @param index The index of the request.
+     * @param output The output of the request.
+     */
+    private synchronized void finish(int index, String output) {
+        if (asCompleted) {
+            out.print(output);
+            return;
+        }
+        outputs[index] = output;
+        while (nextToPrint < outputs.length && outputs[nextToPrint] != null) {
+            out.print(outputs[nextToPrint]);
+            outputs[nextToPrint++] = null;
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package Insomnia.Connection;
+
+import java.io.IOException;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+
+/**
+ * The class ProgressSink counts the bytes of a response body as they come off the wire, so another thread can
+ * show how much of a long download has been received. It can also cancel the exchange: once cancel is called,
+ * the next chunk fails and the client aborts the download.
+ *
+ * @author Negar Movaghatian
+ */
+public class ProgressSink implements ResponseSink {
+
+    private volatile long received; // The number of bytes received so far
+    private volatile long expected = -1; // The Content-Length of the response, or -1 if it's not known
+    private volatile boolean cancelled; // Shows if the exchange was cancelled
+
+    @Override
+    public void begin(HttpResponse.ResponseInfo info) throws IOException {
+        if (cancelled)
+            throw new IOException("The request was cancelled");
+        expected = info.headers().firstValueAsLong("Content-Length").orElse(-1);
+    }
+
+    @Override
+    public void write(ByteBuffer chunk) throws IOException {
+        if (cancelled)
+            throw new IOException("The request was cancelled");
+        received += chunk.remaining();
+    }
+
+    @Override
+    public boolean isRaw() {
+        return true;
+    }
+
+    /**
+     * Cancel the exchange. The body stops being received at its next chunk.
+     */
+    public void cancel() {
+        cancelled = true;
+    }
+
+    /**
+     * @return True if the exchange was cancelled.
+     */
+    public boolean isCancelled() {
+        return cancelled;
+    }
+
+    /**
+     * @return The number of bytes of the body received so far, as they were sent.
+     */
+    public long getReceived() {
+        return received;
+    }
+
+    /**
+     * @return The Content-Length of the response, or -1 if the headers have not arrived or don't tell it.
+     */
+    public long getExpected() {
+        return expected;
+    }
+}
@@ -1,12 +1,15 @@
 package Insomnia.Connection;
 
-import Insomnia.Graphics.MainWindow;
-import Insomnia.Graphics.RequestSettingPanel;
-import Insomnia.Graphics.ResponsePanel;
-
-import javax.swing.*;
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.security.NoSuchAlgorithmException;
 import java.util.HashMap;
 import java.util.LinkedList;
+import java.util.List;
 
 /**
  * The class RequestManager manages when to create and run requests. It also shows a list of the
@@ -17,9 +20,6 @@ import java.util.LinkedList;
 public class RequestManager {
 
     private static InputHandler handler; // The handler to get input from
-    private static MainWindow mainWindow; // The main window to get information from in GUI part
-    private static RequestSettingPanel settingPanel; // The setting panel which has interaction with this manager
-    private static ResponsePanel responsePanel; // The response panel which has interaction with this manager
 
     static {
         handler = new InputHandler();
@@ -37,21 +37,50 @@ public class RequestManager {
                     System.out.println("No URL found");
                     break;
                 }
+                if (handler.getParallelism() > 0) { // Send all the URLs at once
+                    LinkedList<Connection> connections = new LinkedList<>();
+                    for (int i=0; i<handler.getUrl().size(); i++)
+                        connections.add(newConnection(i));
+                    new ParallelRunner(engine(handler.isCache()), handler.getParallelism(),
+                            handler.isAsCompleted(), handler.isChecksum()).run(connections);
+                    break;
+                }
                 for (int i=0; i<handler.getUrl().size(); i++) {
-                    Connection connection = new Connection("", handler.getUrl().get(i), handler.getMethod(),
-                            handler.isFollowRedirect(), handler.ShowResponseHeaders(), handler.hasFileName(),
-                            handler.getFileName(), handler.uploadBinary(), handler.getBinaryFilePath(),
-                            handler.getFormData(), handler.getHeaders(), new HashMap<>());
-                    if (handler.isSaveFile())
-                        StreamUtils.saveRequest(connection);
+                    Connection connection = newConnection(i);
 
                     long startTime = System.nanoTime();
-                    connection.runConnection();
+                    if (handler.isChecksum())
+                        connection.runConnection(engine(handler.isCache()), new ConsoleSink(System.out),
+                                newChecksumSink());
+                    else
+                        connection.runConnection(engine(handler.isCache()), new ConsoleSink(System.out));
                     connection.printResponseInfo();
                     long elapsedTime = System.nanoTime() - startTime;
                     System.out.printf("\nResponse Time: %.2f second(s)\n\n", (float) elapsedTime / 1_000_000_000.0);
                 }
                 break;
+            case "bench": // Send the request repeatedly and print its latency statistics
+                if (handler.getUrl().size() != 1) { // A benchmark needs exactly one URL
+                    System.out.println("Expected exactly one URL to benchmark");
+                    break;
+                }
+                Connection benchConnection = new Connection("", handler.getUrl().getFirst(), handler.getMethod(),
+                        handler.isFollowRedirect(), false, false, null, handler.uploadBinary(),
+                        handler.getBinaryFilePath(), handler.getFormData(), handler.getHeaders(), new HashMap<>());
+                benchConnection.setHttpVersion(handler.getHttpVersion());
+                new Benchmark(benchConnection, HttpClientEngine.getDefault(), handler.getBenchConcurrency(),
+                        handler.getBenchRequests(), handler.getBenchDuration(), handler.getBenchWarmup(),
+                        handler.getBenchRate()).run();
+                break;
+            case "batch": // Run a request for each line of a file or stdin
+                try (BufferedReader input = handler.getBatchFile().equals("-")?
+                        new BufferedReader(new InputStreamReader(System.in, StandardCharsets.UTF_8))
+                        : Files.newBufferedReader(Paths.get(handler.getBatchFile()), StandardCharsets.UTF_8)) {
+                    new BatchRunner(HttpClientEngine.getDefault(), handler.getParallelism(), System.out).run(input);
+                } catch (IOException e) {
+                    System.err.println("Could not read the batch: " + e.getMessage());
+                }
+                break;
             case "invalid input": // The input was invalid; print error message
                 System.out.println("The command's syntax is not correct.");
                 break;
@@ -59,117 +88,107 @@ public class RequestManager {
     }
 
     /**
-     * Run a request by getting its information from the GUI part and sending the response information
-     * to it.
+     * Create a new connection to one of the URLs with the options given on the command line, and save it if the
+     * user wants to. If more than one URL was given, the output file name is numbered by the URL, so the
+     * responses don't overwrite each other's file.
+     * @param index The index of the URL among the given URLs.
+     * @return The new connection.
      */
-    public static void runInGUI() {
-        if (settingPanel.getURL().equals("")) { // Print error in case no URL was detected
-            JOptionPane.showMessageDialog(null, "Can't leave the URL field empty.",
-                    "No URL Found", JOptionPane.ERROR_MESSAGE);
-            return;
-        }
-
-        // Create a new connection and update it according to the last changes on request setting panel
-        Connection connection = mainWindow.getRequestPanel().getFocusedRequest();
-        connection.updateRequest(mainWindow.followRedirects(), putQueryItems(settingPanel.getURL(), settingPanel.getQueries()),
-                settingPanel.getMethod(), settingPanel.uploadBinary(), settingPanel.getBinaryFilePath(),
-                settingPanel.getFormData(), settingPanel.getHeaders(), new HashMap<>());
-
-        // Run the new connection
-        long startTime = System.nanoTime();
-        connection.runConnection();
-        connection.printResponseInfo();
-        if (!connection.getErrors().equals("")) { // The connection had some error; print the error messages
-            responsePanel.editStatusBar("ERROR", "0.00s", "0.0B");
-            responsePanel.setRawData(connection.getErrors());
-            responsePanel.setHeaderValues(new HashMap<>());
-        }
-        else { // The connection ran successfully; print response information
-            responsePanel.setHeaderValues(connection.getHeaders());
-            responsePanel.setRawData(connection.getResponseText());
-            if (connection.isImage())
-                responsePanel.setPreview(connection.getResponseBytes());
-            else
-                responsePanel.resetPreview();
-
-            long elapsedTime = System.nanoTime() - startTime;
-            responsePanel.editStatusBar(connection.getResponseMessage(), String.format("%.2fs",
-                    (float) elapsedTime / 1_000_000_000.0), connection.getResponseSize());
-            System.out.printf("\nResponse Time: %.2f second(s)\n\n", (float) elapsedTime / 1_000_000_000.0);
-        }
+    private static Connection newConnection(int index) {
+        String fileName = handler.getFileName();
+        if (fileName != null && handler.getUrl().size() > 1)
+            fileName = StreamUtils.numberFileName(fileName, index + 1);
+        Connection connection = new Connection("", handler.getUrl().get(index), handler.getMethod(),
+                handler.isFollowRedirect(), handler.ShowResponseHeaders(), handler.hasFileName(), fileName,
+                handler.uploadBinary(), handler.getBinaryFilePath(), handler.getFormData(), handler.getHeaders(),
+                new HashMap<>());
+        connection.setHttpVersion(handler.getHttpVersion());
+        connection.setSaveRaw(handler.isSaveRaw());
+        if (handler.isSaveFile())
+            StreamUtils.saveRequest(connection);
+        return connection;
     }
 
     /**
-     * Run a specific request with the given index among the list of saved requests.
-     * @param requestNumber The index of request to run.
+     * Run the saved requests with the given indexes at once. The index of the saved requests is read only once
+     * and only the records of the given requests are decoded.
+     * @param requestNumbers The indexes of the requests to run, starting from one.
+     * @param parallelism The most requests to send at once.
+     * @param asCompleted True to print each response as soon as it is received and false to print them in the
+     *                    given order.
+     * @param httpVersion The HTTP version to send all the requests with, or null to send each one with its own.
+     * @param cache True to send the requests through the response cache.
      */
-    public static void runRequest(int requestNumber) {
-        LinkedList<Connection> savedConnections = StreamUtils.readRequests();
-        if (requestNumber > savedConnections.size() || requestNumber < 1) { // The request does not exist; Print error
-            System.err.println("There is no request with index " + requestNumber);
+    public static void runRequests(List<Integer> requestNumbers, int parallelism, boolean asCompleted,
+                                   String httpVersion, boolean cache) {
+        LinkedList<Connection> connections = new LinkedList<>();
+        try {
+            RequestStore store = StreamUtils.getRequestStore();
+            for (int requestNumber : requestNumbers) {
+                if (requestNumber > store.size() || requestNumber < 1) { // The request does not exist; Print error
+                    System.err.println("There is no request with index " + requestNumber);
+                    continue;
+                }
+                Connection connection = store.read(requestNumber - 1);
+                if (httpVersion != null)
+                    connection.setHttpVersion(httpVersion);
+                connections.add(connection);
+            }
+        } catch (IOException e) {
+            System.err.println("An unexpected error occurred while reading saved requests: " + e.getMessage());
             return;
         }
-        Connection connection = savedConnections.get(requestNumber - 1);
-        System.out.println("\n\nSending request to: " + connection.getUrlString());
-        long startTime = System.nanoTime();
-        connection.runConnection();
-        connection.printResponseInfo();
-        long elapsedTime = System.nanoTime() - startTime;
-        System.out.printf("\nResponse Time: %.2f second(s)\n\n", (float) elapsedTime / 1_000_000_000.0);
+        if (!connections.isEmpty())
+            new ParallelRunner(engine(cache), parallelism, asCompleted, false).run(connections);
     }
 
     /**
-     * Print a list of saved request.
+     * Print a list of saved request. Only the index of the saved requests is read.
      */
     public static void showSavedRequests() {
-        LinkedList<Connection> savedConnections = StreamUtils.readRequests();
-        int counter = 1;
-        for (Connection request : savedConnections)
-            System.out.println((counter++) + ". " + request);
+        try {
+            int counter = 1;
+            for (RequestStore.Entry request : StreamUtils.getRequestStore().list())
+                System.out.println((counter++) + ". " + request);
+        } catch (IOException e) {
+            System.err.println("An unexpected error occurred while reading saved requests: " + e.getMessage());
+        }
         System.out.println();
     }
 
     /**
-     * Set the args array of the handler.
-     * @param args The arg String array to pass to the input handler.
+     * @param cache True to get the response cache.
+     * @return The response cache in front of the shared engine, or the shared engine itself if no cache is wanted
+     * or the cache could not be opened.
      */
-    public static void setArgs(String[] args) {
-        handler.setArgs(args);
+    static HttpEngine engine(boolean cache) {
+        if (cache) {
+            try {
+                return HttpCache.getDefault();
+            } catch (IOException e) {
+                System.err.println("Could not open the response cache: " + e.getMessage());
+            }
+        }
+        return HttpClientEngine.getDefault();
     }
 
     /**
-     * @param mainWindow The main window which has interaction with this class.
+     * @return A sink which calculates the SHA-256 checksum of a response body.
      */
-    public static void setMainWindow(MainWindow mainWindow) {
-        RequestManager.mainWindow = mainWindow;
-        settingPanel = mainWindow.getRequestSettingPanel();
-        responsePanel = mainWindow.getResponsePanel();
+    static ChecksumSink newChecksumSink() {
+        try {
+            return new ChecksumSink("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 is not supported", e);
+        }
     }
 
     /**
-     * Get query items as HashMap and add them in proper format to the end of the URL.
-     * @param url The raw url to append query items to.
-     * @param query The list of the queries to add to the url.
-     * @return The final URL with query items appended to its end.
+     * Set the args array of a new handler, so nothing is left of the arguments of an earlier run.
+     * @param args The arg String array to pass to the input handler.
      */
-    private static String putQueryItems(String url, HashMap<String, String> query) {
-        if (query.size() !=0 ) {
-            url = url.concat("?");
-            int counter = 0;
-            for (String queryKey : query.keySet()) {
-                for (int i=0; i<queryKey.length(); i++) { // Add name
-                    char c = queryKey.charAt(i);
-                    url = url.concat((c == ' ')? "%20" : ("" + c));
-                }
-                url = url.concat("=");
-                for (int i=0; i<query.get(queryKey).length(); i++) { // Add value
-                    char c = query.get(queryKey).charAt(i);
-                    url = url.concat((c == ' ')? "%20" : ("" + c));
-                }
-                if (++counter != query.size())
-                    url = url.concat("&");
-            }
-        }
-        return url;
+    public static void setArgs(String[] args) {
+        handler = new InputHandler();
+        handler.setArgs(args);
     }
-}
\ No newline at end of file
+}
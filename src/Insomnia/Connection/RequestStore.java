@@ -0,0 +1,672 @@
+package Insomnia.Connection;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * The class RequestStore keeps all the saved requests in one append-only data file and a small index file.
+ * The index holds the id, name, method and URL of each request and where its record is in the data file, so
+ * listing the requests only reads the index and running one of them only reads and decodes its own record.
+ * New requests are appended to both files; replacing all of them writes new files and moves them into place,
+ * so a crash never leaves half a collection behind. Both files carry the same epoch in their header, which a
+ * rewrite changes, so an index is never read against a data file it does not belong to.
+ * Several processes may share the store, like the GUI and jurl, so they write it while holding a lock on a lock
+ * file next to the data file, and a process first reads the index again if another one has written it.
+ * Records are written by ConnectionCodec. The first time the store is opened the requests saved as separate
+ * .bin files are imported into it, and a store whose records were written by Java serialization is rewritten.
+ *
+ * @author Negar Movaghatian
+ */
+public class RequestStore {
+
+    private final static int DATA_MAGIC = 0x49524442; // The first bytes of a data file, 'IRDB'
+    private final static int INDEX_MAGIC = 0x49524958; // The first bytes of an index file, 'IRIX'
+    private final static int FILE_VERSION = 3; // The version of the layout of the files. Data files of version 1
+    // may hold records written by Java serialization; since version 2 all records are written by ConnectionCodec,
+    // and since version 3 the header of both files holds their epoch
+    private final static int HEADER_SIZE = 16; // The number of bytes of the magic, version and epoch of each file
+    private final static int OLD_HEADER_SIZE = 8; // The number of bytes of the header before version 3
+    private final static byte SERIALIZED = 0; // The format of a record written by Java serialization
+    private final static byte CODEC = 1; // The format of a record written by ConnectionCodec
+    private final static Object fileLock = new Object(); // Held by the thread of this JVM which locks the lock file,
+    // since a JVM can't lock a file twice even with two stores
+
+    private final Path dataFile; // The file the records of the requests are appended to
+    private final Path indexFile; // The file the summaries of the requests are appended to
+    private final Path lockFile; // The file the processes using the store lock while they read or write it
+    private final ArrayList<Entry> entries; // The summaries of the saved requests in the order they were saved
+    private long nextId; // The id of the next request to save
+    private long epoch; // The stamp of the headers of the files, which changes each time they are rewritten, or
+    // 0 if the data file was written before version 3
+    private List<Object> indexStamp; // The identity, size and modification time of the index when this store
+    // last read or wrote it
+
+    /**
+     * The class Entry is the summary of a saved request which is kept in the index.
+     */
+    public static class Entry {
+
+        private final long id; // The id of the request, which never changes
+        private final String name; // The name of the request
+        private final String method; // The method of the request
+        private final String url; // The URL of the request
+        private final long offset; // The position of the record of the request in the data file
+        private final int length; // The number of bytes of the record
+        private final long epoch; // The epoch of the data file the offset is in
+
+        private Entry(long id, String name, String method, String url, long offset, int length, long epoch) {
+            this.id = id;
+            this.name = name;
+            this.method = method;
+            this.url = url;
+            this.offset = offset;
+            this.length = length;
+            this.epoch = epoch;
+        }
+
+        /**
+         * @return The id of the request.
+         */
+        public long getId() {
+            return id;
+        }
+
+        /**
+         * @return The name of the request.
+         */
+        public String getName() {
+            return name;
+        }
+
+        /**
+         * @return The method of the request.
+         */
+        public String getMethod() {
+            return method;
+        }
+
+        /**
+         * @return The URL of the request.
+         */
+        public String getUrl() {
+            return url;
+        }
+
+        /**
+         * @return A string which contains the name, URL and method of the request.
+         */
+        @Override
+        public String toString() {
+            return ((name.equals(""))? "" : "Name: " + name + " | ") + "URL: " + url + " | " + "Method: " + method;
+        }
+    }
+
+    /**
+     * Open a store and read its index. If a rewrite was stopped after the new data file was moved into place,
+     * its new index is moved into place too.
+     * @param dataFile The file the records of the requests are kept in.
+     * @param indexFile The file the summaries of the requests are kept in.
+     * @throws IOException If the index could not be read, or it does not belong to the data file.
+     */
+    public RequestStore(Path dataFile, Path indexFile) throws IOException {
+        this.dataFile = dataFile;
+        this.indexFile = indexFile;
+        lockFile = dataFile.resolveSibling(dataFile.getFileName() + ".lock");
+        entries = new ArrayList<>();
+        nextId = 1;
+        synchronized (fileLock) {
+            try (FileChannel lockChannel = openLock()) {
+                lockChannel.lock(); // Released when the channel is closed
+                reload();
+            }
+        }
+    }
+
+    /**
+     * Open a store and import the requests saved as separate .bin files into it if it has just been created. If
+     * the records of the store were written by Java serialization, they are rewritten by ConnectionCodec.
+     * @param dataFile The file the records of the requests are kept in.
+     * @param indexFile The file the summaries of the requests are kept in.
+     * @param legacyDir The directory the requests were saved in as separate files.
+     * @return The opened store.
+     * @throws IOException If the store could not be read.
+     */
+    public static RequestStore open(Path dataFile, Path indexFile, Path legacyDir) throws IOException {
+        boolean created = !Files.exists(indexFile);
+        RequestStore store = new RequestStore(dataFile, indexFile);
+        if (created)
+            store.importLegacy(legacyDir);
+        else if (store.readDataVersion() < FILE_VERSION)
+            store.rewrite(store.readAll());
+        return store;
+    }
+
+    /**
+     * @return The summaries of the saved requests in the order they were saved.
+     */
+    public synchronized List<Entry> list() {
+        return Collections.unmodifiableList(new ArrayList<>(entries));
+    }
+
+    /**
+     * @return The number of saved requests.
+     */
+    public synchronized int size() {
+        return entries.size();
+    }
+
+    /**
+     * Read one saved request.
+     * @param index The index of the request among the saved requests, starting from zero.
+     * @return The request.
+     * @throws IOException If the record of the request could not be read or decoded.
+     */
+    public Connection read(int index) throws IOException {
+        Entry entry;
+        synchronized (this) {
+            entry = entries.get(index);
+        }
+        return read(entry);
+    }
+
+    /**
+     * Read the request of an entry of the index.
+     * @param entry The entry of the request.
+     * @return The request.
+     * @throws IOException If the record of the request could not be read or decoded, or the requests were
+     * rewritten since the entry was read, so its record is not where it was.
+     */
+    public Connection read(Entry entry) throws IOException {
+        ByteBuffer record = ByteBuffer.allocate(entry.length);
+        try (FileChannel channel = FileChannel.open(dataFile, StandardOpenOption.READ)) {
+            if (epochOf(readHeader(dataFile, channel, DATA_MAGIC)) != entry.epoch)
+                throw new IOException("The requests were saved again since request " + entry.id + " was listed");
+            while (record.hasRemaining())
+                if (channel.read(record, entry.offset + record.position()) == -1)
+                    throw new EOFException("The record of request " + entry.id + " is cut off");
+        }
+        record.flip();
+        return decode(record);
+    }
+
+    /**
+     * Read all the saved requests, reading the data file only once.
+     * @return The saved requests in the order they were saved. Requests which could not be decoded are left out.
+     * @throws IOException If the data file could not be read.
+     */
+    public synchronized LinkedList<Connection> readAll() throws IOException {
+        LinkedList<Connection> connections = new LinkedList<>();
+        if (entries.isEmpty())
+            return connections;
+        try (FileChannel channel = FileChannel.open(dataFile, StandardOpenOption.READ)) {
+            ByteBuffer data = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+            for (Entry entry : entries) {
+                try {
+                    connections.add(decode(data.duplicate().position((int) entry.offset)
+                            .limit((int) entry.offset + entry.length).slice()));
+                } catch (IOException e) {
+                    System.err.println("An unexpected error occurred while reading saved requests: " + e.getMessage());
+                }
+            }
+        }
+        return connections;
+    }
+
+    /**
+     * Save a new request after the saved ones. If another process has written the store, its index is read again
+     * first, so the request gets a free id and is written after the records of that process.
+     * @param connection The request to save.
+     * @throws IOException If the request could not be written.
+     */
+    public synchronized void append(Connection connection) throws IOException {
+        byte[] record = encode(connection);
+        synchronized (fileLock) {
+            try (FileChannel lockChannel = openLock()) {
+                lockChannel.lock(); // Released when the channel is closed
+                if (isChanged())
+                    reload();
+                long offset;
+                // The record goes first, so the index never points to a record which is not there
+                try (FileChannel channel = FileChannel.open(dataFile, StandardOpenOption.CREATE,
+                        StandardOpenOption.WRITE)) {
+                    offset = Math.max(channel.size(), HEADER_SIZE);
+                    if (channel.size() == 0)
+                        writeFully(channel, header(DATA_MAGIC, epoch), 0);
+                    writeFully(channel, ByteBuffer.wrap(record), offset);
+                }
+                Entry entry = new Entry(nextId++, nullToEmpty(connection.getName()), connection.getMethod(),
+                        connection.getUrlString(), offset, record.length, epoch);
+                boolean newIndex = !Files.exists(indexFile) || Files.size(indexFile) == 0;
+                try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(
+                        Files.newOutputStream(indexFile, StandardOpenOption.CREATE, StandardOpenOption.APPEND)))) {
+                    if (newIndex)
+                        output.write(header(INDEX_MAGIC, epoch).array());
+                    writeEntry(output, entry);
+                }
+                entries.add(entry);
+                indexStamp = indexStamp();
+            }
+        }
+    }
+
+    /**
+     * Replace all the saved requests with the given ones.
+     * @param connections The requests to save, in order.
+     * @throws IOException If the requests could not be written.
+     */
+    public synchronized void rewrite(Collection<Connection> connections) throws IOException {
+        rewriteRequests(new ArrayList<>(connections));
+    }
+
+    /**
+     * Replace all the saved requests with the given ones. The record of a request which is given by its entry is
+     * copied as it is and keeps its id, so only the requests which were read, and may have changed, are encoded
+     * again.
+     * @param requests The requests to save, in order. Each one is a Connection, or an Entry of this store.
+     * @throws IOException If the requests could not be written, or an entry was read before the requests were
+     * last rewritten, so its record is not where it was.
+     */
+    public synchronized void rewriteRequests(List<?> requests) throws IOException {
+        synchronized (fileLock) {
+            try (FileChannel lockChannel = openLock()) {
+                lockChannel.lock(); // Released when the channel is closed
+                if (isChanged())
+                    reload();
+                for (Object request : requests)
+                    if (request instanceof Entry && ((Entry) request).epoch != epoch)
+                        throw new IOException("The requests were saved again since request " + ((Entry) request).id
+                                + " was listed");
+                writeRequests(requests);
+            }
+        }
+    }
+
+    /**
+     * Write the given requests into new files and move them into the place of the files of the store. The lock
+     * file should be locked.
+     * @param requests The requests to save, in order. Each one is a Connection, or an Entry of the current epoch.
+     * @throws IOException If the requests could not be written.
+     */
+    private void writeRequests(List<?> requests) throws IOException {
+        Path newData = tempFile(dataFile);
+        Path newIndex = tempFile(indexFile);
+        ArrayList<Entry> newEntries = new ArrayList<>();
+        long id = nextId;
+        long newEpoch = newEpoch(epoch);
+        try (FileChannel data = FileChannel.open(newData, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+             FileChannel oldData = Files.exists(dataFile)? FileChannel.open(dataFile, StandardOpenOption.READ) : null;
+             FileChannel indexChannel = FileChannel.open(newIndex, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                     StandardOpenOption.TRUNCATE_EXISTING)) {
+            DataOutputStream index = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(indexChannel)));
+            long offset = HEADER_SIZE;
+            writeFully(data, header(DATA_MAGIC, newEpoch), 0);
+            index.write(header(INDEX_MAGIC, newEpoch).array());
+            for (Object request : requests) {
+                Entry entry;
+                if (request instanceof Entry) { // Copy the record without decoding it
+                    Entry kept = (Entry) request;
+                    if (oldData == null)
+                        throw new IOException("The record of request " + kept.id + " is gone");
+                    ByteBuffer record = ByteBuffer.allocate(kept.length);
+                    while (record.hasRemaining())
+                        if (oldData.read(record, kept.offset + record.position()) == -1)
+                            throw new EOFException("The record of request " + kept.id + " is cut off");
+                    writeFully(data, record.flip(), offset);
+                    entry = new Entry(kept.id, kept.name, kept.method, kept.url, offset, kept.length, newEpoch);
+                }
+                else {
+                    Connection connection = (Connection) request;
+                    byte[] record = encode(connection);
+                    writeFully(data, ByteBuffer.wrap(record), offset);
+                    entry = new Entry(id++, nullToEmpty(connection.getName()), connection.getMethod(),
+                            connection.getUrlString(), offset, record.length, newEpoch);
+                }
+                writeEntry(index, entry);
+                newEntries.add(entry);
+                offset += entry.length;
+            }
+            index.flush();
+            data.force(false);
+            indexChannel.force(false);
+        }
+        // Both files are complete before either is moved. The records were moved to new offsets, so the old
+        // index does not fit the new data file: if the program stops between the two moves, the epochs of the
+        // pair differ and the next open finishes the rewrite by moving the new index into place
+        Files.move(newData, dataFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        Files.move(newIndex, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        entries.clear();
+        entries.addAll(newEntries);
+        nextId = id;
+        epoch = newEpoch;
+        indexStamp = indexStamp();
+    }
+
+    /**
+     * Check if the index was written by someone else, like another jurl or the GUI, since this store read or
+     * wrote it. The entries of a store which has changed may point to the wrong records, so it should be opened
+     * again before it is used.
+     * @return True if the index has changed or could not be checked.
+     */
+    public synchronized boolean isChanged() {
+        try {
+            return !indexStamp().equals(indexStamp);
+        } catch (IOException e) {
+            return true;
+        }
+    }
+
+    /**
+     * Read the index again, after finishing a rewrite which did not finish. The lock file should be locked.
+     * @throws IOException If the index could not be read, or it does not belong to the data file.
+     */
+    private void reload() throws IOException {
+        entries.clear();
+        finishRewrite();
+        epoch = readEpoch(dataFile, DATA_MAGIC);
+        if (epoch == 0 && readHeader(dataFile, DATA_MAGIC) == null) // The header is written with the first record
+            epoch = newEpoch(0);
+        readIndex();
+        indexStamp = indexStamp();
+    }
+
+    /**
+     * Finish or undo a rewrite which did not finish. If the new data file was moved into place, the new index
+     * belongs to it and is moved too; otherwise the new files are thrown away.
+     * @throws IOException If the files could not be moved or deleted.
+     */
+    private void finishRewrite() throws IOException {
+        Path newIndex = tempFile(indexFile);
+        if (!Files.exists(newIndex))
+            return;
+        long newEpoch = readEpoch(newIndex, INDEX_MAGIC);
+        if (newEpoch != 0 && !Files.exists(tempFile(dataFile)) && newEpoch == readEpoch(dataFile, DATA_MAGIC)) {
+            Files.move(newIndex, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            System.err.println("Finished saving the requests which were being saved when the program stopped.");
+            return;
+        }
+        Files.delete(newIndex);
+        Files.deleteIfExists(tempFile(dataFile));
+    }
+
+    /**
+     * Read the entries of the index file. Entries which point past the end of the data file were written
+     * by a save which did not finish and are left out.
+     * @throws IOException If the index is not an index of this version, or its epoch is not the epoch of the
+     * data file.
+     */
+    private void readIndex() throws IOException {
+        if (!Files.exists(indexFile) || Files.size(indexFile) == 0)
+            return;
+        long dataSize = Files.exists(dataFile)? Files.size(dataFile) : 0;
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+            int magic = input.readInt();
+            int version = input.readInt();
+            if (magic != INDEX_MAGIC || version < 1 || version > FILE_VERSION)
+                throw new IOException(indexFile + " is not a request index");
+            long indexEpoch = (version >= 3)? input.readLong() : 0;
+            if (dataSize >= OLD_HEADER_SIZE && indexEpoch != epoch)
+                throw new IOException(indexFile + " does not belong to " + dataFile);
+            while (true) {
+                Entry entry;
+                try {
+                    entry = readEntry(input, epoch);
+                } catch (EOFException e) { // The end of the index, or an entry which was cut off
+                    break;
+                }
+                if (entry.offset + entry.length > dataSize)
+                    break;
+                entries.add(entry);
+                nextId = Math.max(nextId, entry.id + 1);
+            }
+        }
+    }
+
+    /**
+     * @return The identity, size and modification time of the index file, which a write of another process
+     * changes, or an empty list if there is no index yet.
+     * @throws IOException If the attributes of the index could not be read.
+     */
+    private List<Object> indexStamp() throws IOException {
+        if (!Files.exists(indexFile))
+            return Collections.emptyList();
+        BasicFileAttributes attributes = Files.readAttributes(indexFile, BasicFileAttributes.class);
+        return Arrays.asList(attributes.fileKey(), attributes.size(), attributes.lastModifiedTime());
+    }
+
+    /**
+     * @return The version of the layout of the data file, or the current version if it has no header yet.
+     * @throws IOException If the data file could not be read.
+     */
+    private int readDataVersion() throws IOException {
+        ByteBuffer header = readHeader(dataFile, DATA_MAGIC);
+        return (header == null)? FILE_VERSION : header.getInt();
+    }
+
+    /**
+     * @param file The data file or the index file.
+     * @param magic The first bytes the file should have.
+     * @return The epoch in the header of the file, or 0 if it has no header yet or was written before version 3.
+     * @throws IOException If the file could not be read.
+     */
+    private static long readEpoch(Path file, int magic) throws IOException {
+        return epochOf(readHeader(file, magic));
+    }
+
+    /**
+     * @param header The header of a file after its magic, or null if the file has no header yet.
+     * @return The epoch in the header, or 0 if there is none.
+     */
+    private static long epochOf(ByteBuffer header) {
+        if (header == null || header.getInt() < 3 || header.remaining() < Long.BYTES)
+            return 0;
+        return header.getLong();
+    }
+
+    /**
+     * Read the header of a file.
+     * @param file The data file or the index file.
+     * @param magic The first bytes the file should have.
+     * @return The header after its magic, or null if the file has no header yet.
+     * @throws IOException If the file could not be read, or it does not start with the magic.
+     */
+    private static ByteBuffer readHeader(Path file, int magic) throws IOException {
+        if (!Files.exists(file))
+            return null;
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            return readHeader(file, channel, magic);
+        }
+    }
+
+    /**
+     * Read the header of a file which is open.
+     * @param file The data file or the index file.
+     * @param channel The channel of the file.
+     * @param magic The first bytes the file should have.
+     * @return The header after its magic, or null if the file has no header yet.
+     * @throws IOException If the file could not be read, or it does not start with the magic.
+     */
+    private static ByteBuffer readHeader(Path file, FileChannel channel, int magic) throws IOException {
+        if (channel.size() < OLD_HEADER_SIZE)
+            return null;
+        ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+        while (header.hasRemaining())
+            if (channel.read(header, header.position()) == -1)
+                break;
+        header.flip();
+        if (header.getInt() != magic)
+            throw new IOException(file + " is not a request " + ((magic == DATA_MAGIC)? "data file" : "index"));
+        return header;
+    }
+
+    /**
+     * Import the requests saved as separate .bin files, in the order their names were given.
+     * @param legacyDir The directory the requests were saved in.
+     */
+    private void importLegacy(Path legacyDir) {
+        File[] files = legacyDir.toFile().listFiles((dir, name) -> name.endsWith(".bin"));
+        if (files == null || files.length == 0)
+            return;
+        Arrays.sort(files);
+        for (File file : files) {
+            try (ObjectInputStream input = new ObjectInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                append((Connection) input.readObject());
+            } catch (ClassNotFoundException | IOException e) {
+                System.err.println("Could not import saved request " + file.getName() + ": " + e.getMessage());
+            }
+        }
+    }
+
+    /**
+     * Encode a request as a record of the data file.
+     * @param connection The request to encode.
+     * @return The record.
+     */
+    private static byte[] encode(Connection connection) {
+        ByteBuffer record = ByteBuffer.allocate(1 + ConnectionCodec.encodedSize(connection));
+        record.put(CODEC);
+        ConnectionCodec.encode(connection, record);
+        return record.array();
+    }
+
+    /**
+     * Decode a record of the data file.
+     * @param record The record, from its first byte to its last.
+     * @return The request of the record.
+     * @throws IOException If the record could not be decoded.
+     */
+    private static Connection decode(ByteBuffer record) throws IOException {
+        byte format = record.get();
+        if (format == CODEC)
+            return ConnectionCodec.decode(record);
+        if (format != SERIALIZED)
+            throw new IOException("Unknown record format " + format);
+        byte[] bytes = new byte[record.remaining()];
+        record.get(bytes);
+        try (ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(bytes))) {
+            return (Connection) input.readObject();
+        } catch (ClassNotFoundException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * @param magic The first bytes of the file.
+     * @param epoch The epoch of the file.
+     * @return The header of a file of this version.
+     */
+    private static ByteBuffer header(int magic, long epoch) {
+        return ByteBuffer.allocate(HEADER_SIZE).putInt(magic).putInt(FILE_VERSION).putLong(epoch).flip();
+    }
+
+    /**
+     * @param last The epoch the files have now, or 0 if they have none.
+     * @return A new epoch, which is never 0 and never the last one.
+     */
+    private static long newEpoch(long last) {
+        long epoch;
+        do {
+            epoch = ThreadLocalRandom.current().nextLong();
+        } while (epoch == 0 || epoch == last);
+        return epoch;
+    }
+
+    /**
+     * @return A channel of the lock file. Closing the channel releases the lock.
+     * @throws IOException If the file could not be opened.
+     */
+    private FileChannel openLock() throws IOException {
+        return FileChannel.open(lockFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+    }
+
+    /**
+     * @param file The data file or the index file.
+     * @return The file a rewrite writes before moving it into the place of the given file.
+     */
+    private static Path tempFile(Path file) {
+        return file.resolveSibling(file.getFileName() + ".tmp");
+    }
+
+    /**
+     * Write an entry at the end of an index.
+     * @param output The stream of the index file.
+     * @param entry The entry to write.
+     * @throws IOException If the entry could not be written.
+     */
+    private static void writeEntry(DataOutputStream output, Entry entry) throws IOException {
+        output.writeLong(entry.id);
+        writeString(output, entry.name);
+        writeString(output, entry.method);
+        writeString(output, entry.url);
+        output.writeLong(entry.offset);
+        output.writeInt(entry.length);
+    }
+
+    /**
+     * Read the next entry of an index.
+     * @param input The stream of the index file.
+     * @param epoch The epoch of the index.
+     * @return The entry.
+     * @throws IOException If the entry could not be read.
+     */
+    private static Entry readEntry(DataInputStream input, long epoch) throws IOException {
+        return new Entry(input.readLong(), readString(input), readString(input), readString(input),
+                input.readLong(), input.readInt(), epoch);
+    }
+
+    /**
+     * Write a string as its length followed by its UTF-8 bytes, since URLs may be longer than writeUTF allows.
+     * @param output The stream to write to.
+     * @param value The string to write.
+     * @throws IOException If the string could not be written.
+     */
+    private static void writeString(DataOutputStream output, String value) throws IOException {
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        output.writeInt(bytes.length);
+        output.write(bytes);
+    }
+
+    /**
+     * Read a string written by writeString.
+     * @param input The stream to read from.
+     * @return The string.
+     * @throws IOException If the string could not be read.
+     */
+    private static String readString(DataInputStream input) throws IOException {
+        byte[] bytes = new byte[input.readInt()];
+        input.readFully(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Write all the remaining bytes of a buffer at a position of a file.
+     * @param channel The channel of the file.
+     * @param source The buffer to write.
+     * @param position The position to write at.
+     * @throws IOException If the file could not be written.
+     */
+    private static void writeFully(FileChannel channel, ByteBuffer source, long position) throws IOException {
+        while (source.hasRemaining())
+            position += channel.write(source, position);
+    }
+
+    /**
+     * @param value A string which may be null.
+     * @return The string, or an empty string if it is null.
+     */
+    private static String nullToEmpty(String value) {
+        return (value == null)? "" : value;
+    }
+}
@@ -0,0 +1,44 @@
+package Insomnia.Connection;
+
+import java.io.IOException;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+
+/**
+ * A ResponseSink receives the body of a response while it is being received. Each chunk is handed to the
+ * sink as soon as it arrives, so a sink which does not keep the bytes needs a constant amount of memory no
+ * matter how large the body is.
+ *
+ * @author Negar Movaghatian
+ */
+public interface ResponseSink {
+
+    /**
+     * Called once when the status and headers of the response have arrived and before any chunk of the body.
+     * @param info The status, headers and version of the response.
+     * @throws IOException If the sink could not get ready to receive the body.
+     */
+    default void begin(HttpResponse.ResponseInfo info) throws IOException {}
+
+    /**
+     * Called for each chunk of the body in the order they are received. The chunk can't be kept after this
+     * method returns, since its buffer may be handed to other sinks or reused.
+     * @param chunk The bytes between the position and limit of this buffer.
+     * @throws IOException If the sink could not take the chunk. The exchange is aborted in that case.
+     */
+    void write(ByteBuffer chunk) throws IOException;
+
+    /**
+     * Called once after the last chunk, or when the exchange fails, so the sink can release its resources.
+     * @throws IOException If the sink could not finish its work.
+     */
+    default void end() throws IOException {}
+
+    /**
+     * @return True if the sink wants the body as it was sent, and false if it wants a body compressed with gzip or
+     * deflate decoded first.
+     */
+    default boolean isRaw() {
+        return false;
+    }
+}
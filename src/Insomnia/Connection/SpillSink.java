@@ -0,0 +1,140 @@
+package Insomnia.Connection;
+
+import java.io.IOException;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * The class SpillSink keeps the body of a response in memory as long as it is small, and moves it into a
+ * temporary file once it grows larger than a limit, so a large body can be shown without keeping all of it on
+ * the heap. Either way the body can be read back at any position with read.
+ *
+ * @author Negar Movaghatian
+ */
+public class SpillSink implements ResponseSink {
+
+    private final long memoryLimit; // The most bytes kept in memory before the body is moved into a file
+    private byte[] bytes; // The bytes received so far, or null once the body is in a file
+    private Path file; // The temporary file of the body, or null if it is in memory
+    private FileChannel channel; // The channel of the temporary file
+    private long size; // The number of bytes received so far
+
+    /**
+     * Create a new spill sink.
+     * @param memoryLimit The most bytes to keep in memory before the body is moved into a temporary file.
+     */
+    public SpillSink(long memoryLimit) {
+        this.memoryLimit = memoryLimit;
+        bytes = new byte[8192];
+    }
+
+    @Override
+    public void begin(HttpResponse.ResponseInfo info) throws IOException {
+        long contentLength = info.headers().firstValueAsLong("Content-Length").orElse(-1);
+        boolean encoded = info.headers().firstValue("Content-Encoding").isPresent();
+        if (!encoded && contentLength > memoryLimit)
+            spill();
+        else if (!encoded && contentLength > bytes.length)
+            bytes = new byte[(int) contentLength];
+    }
+
+    @Override
+    public synchronized void write(ByteBuffer chunk) throws IOException {
+        int length = chunk.remaining();
+        if (bytes != null && size + length > memoryLimit)
+            spill();
+        if (bytes == null) {
+            long position = size;
+            while (chunk.hasRemaining())
+                position += channel.write(chunk, position);
+        }
+        else {
+            if (size + length > bytes.length)
+                bytes = Arrays.copyOf(bytes, (int) Math.min(memoryLimit, Math.max(size + length, bytes.length * 2L)));
+            chunk.get(bytes, (int) size, length);
+        }
+        size += length;
+    }
+
+    @Override
+    public synchronized void end() {
+        if (bytes != null && bytes.length != size)
+            bytes = Arrays.copyOf(bytes, (int) size);
+    }
+
+    /**
+     * Move the bytes received so far into a new temporary file and keep writing there.
+     * @throws IOException If the file could not be created.
+     */
+    private void spill() throws IOException {
+        file = Files.createTempFile("insomnia-body", ".tmp");
+        file.toFile().deleteOnExit();
+        channel = FileChannel.open(file, StandardOpenOption.READ, StandardOpenOption.WRITE);
+        channel.write(ByteBuffer.wrap(bytes, 0, (int) size), 0);
+        bytes = null;
+    }
+
+    /**
+     * Read some bytes of the body.
+     * @param position The position in the body to read from.
+     * @param buffer The array to read into.
+     * @param offset The position in the array to read into.
+     * @param length The most bytes to read.
+     * @return The number of bytes read, or -1 if the position is at the end of the body.
+     * @throws IOException If the temporary file could not be read.
+     */
+    public synchronized int read(long position, byte[] buffer, int offset, int length) throws IOException {
+        if (position >= size)
+            return -1;
+        length = (int) Math.min(length, size - position);
+        if (bytes != null) {
+            System.arraycopy(bytes, (int) position, buffer, offset, length);
+            return length;
+        }
+        ByteBuffer target = ByteBuffer.wrap(buffer, offset, length);
+        while (target.hasRemaining() && channel.read(target, position + target.position() - offset) > 0);
+        return target.position() - offset;
+    }
+
+    /**
+     * @return The bytes of the body, which are not copied, or null if the body was moved into a file.
+     */
+    public synchronized byte[] toByteArray() {
+        return (bytes == null || size == 0)? null : bytes;
+    }
+
+    /**
+     * @return True if the body was moved into a temporary file.
+     */
+    public synchronized boolean isSpilled() {
+        return bytes == null;
+    }
+
+    /**
+     * @return The number of bytes received.
+     */
+    public synchronized long size() {
+        return size;
+    }
+
+    /**
+     * Let go of the body and remove its temporary file.
+     */
+    public synchronized void release() {
+        bytes = new byte[0];
+        size = 0;
+        if (channel != null) {
+            try {
+                channel.close();
+                Files.deleteIfExists(file);
+            } catch (IOException ignored) {}
+            channel = null;
+            file = null;
+        }
+    }
+}
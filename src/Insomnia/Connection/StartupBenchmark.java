@@ -0,0 +1,245 @@
+package Insomnia.Connection;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.*;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * The class StartupBenchmark measures how long a cold start of jurl takes. It starts a new JVM for each run,
+ * once as usual and once headless as on a server, and prints how long the runs took and how many classes
+ * were loaded, including how many of them belong to AWT, Swing or the GUI of the program, which the console
+ * should not need at all.
+ * Then it measures the time to the first request of jurl, until a server of its own receives it, and the time to
+ * the first frame of the GUI, each with and without the AppCDS archives made by scripts/cds-archive.sh if they
+ * exist. The GUI is skipped without a display. jurl is always started without handing its arguments to a jurl
+ * daemon, since a cold start is what is measured.
+ * Usage: java Insomnia.Connection.StartupBenchmark [runs] [jurl arguments]
+ *
+ * @author Negar Movaghatian
+ */
+public class StartupBenchmark {
+
+    final static String CDS_DIR = "." + File.separator + "data" + File.separator + "cds"; // The directory of
+    // the archives made by scripts/cds-archive.sh
+    final static String CDS_JAR = CDS_DIR + File.separator + "insomnia.jar"; // The jar the archives are made of
+    final static String JURL_ARCHIVE = CDS_DIR + File.separator + "jurl.jsa"; // The archive of jurl
+    final static String GUI_ARCHIVE = CDS_DIR + File.separator + "insomnia.jsa"; // The archive of the GUI
+
+    private final static String[] GUI_PACKAGES = {"java.awt.", "javax.swing.", "sun.awt.", "sun.java2d.",
+            "Insomnia.Graphics."}; // The packages of the classes which belong to the GUI
+
+    /**
+     * Run the benchmark.
+     * @param args The number of runs of each mode and the arguments to run jurl with, both optional. jurl shows
+     *             its help by default.
+     */
+    public static void main(String[] args) throws Exception {
+        int runs = 10;
+        List<String> jurlArgs = new ArrayList<>(Arrays.asList(args));
+        if (!jurlArgs.isEmpty() && jurlArgs.get(0).matches("\\d+"))
+            runs = Integer.parseInt(jurlArgs.remove(0));
+        if (runs < 1) {
+            System.out.println("The number of runs must be at least 1");
+            return;
+        }
+        if (jurlArgs.isEmpty())
+            jurlArgs.add("-h");
+        System.out.println("jurl " + String.join(" ", jurlArgs) + ", " + runs + " cold start(s) each\n");
+        System.out.printf("%-10s %10s %10s %10s %9s %12s\n", "", "min", "median", "mean", "classes", "GUI classes");
+        run("default", new ArrayList<>(), jurlArgs, runs);
+        run("headless", new ArrayList<>(List.of("-Djava.awt.headless=true")), jurlArgs, runs);
+
+        boolean archived = Files.isRegularFile(Paths.get(CDS_JAR));
+        System.out.printf("\n%-22s %10s %10s %10s\n", "", "min", "median", "mean");
+        firstRequest("jurl first request", null, runs);
+        if (archived && Files.isRegularFile(Paths.get(JURL_ARCHIVE)))
+            firstRequest("  with AppCDS", JURL_ARCHIVE, runs);
+        firstFrame("GUI first frame", null, runs);
+        if (archived && Files.isRegularFile(Paths.get(GUI_ARCHIVE)))
+            firstFrame("  with AppCDS", GUI_ARCHIVE, runs);
+        if (!archived)
+            System.out.println("\nRun scripts/cds-archive.sh to compare with the AppCDS archives.");
+    }
+
+    /**
+     * Measure how long it takes from starting jurl until its request reaches a server and print the results.
+     * @param title The name of the row.
+     * @param archive The AppCDS archive to start with, or null to start without one.
+     * @param runs The number of times to start jurl.
+     */
+    private static void firstRequest(String title, String archive, int runs) throws IOException, InterruptedException {
+        AtomicLong receivedTime = new AtomicLong();
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", exchange -> {
+            receivedTime.compareAndSet(0, System.nanoTime());
+            exchange.sendResponseHeaders(204, -1);
+            exchange.close();
+        });
+        server.start();
+        try {
+            String url = "http://" + server.getAddress().getAddress().getHostAddress() + ":"
+                    + server.getAddress().getPort() + "/";
+            long[] times = new long[runs];
+            for (int i = -1; i < runs; i++) { // The first run lets the OS cache the files
+                receivedTime.set(0);
+                long startTime = System.nanoTime();
+                Process process = new ProcessBuilder(command(archive, jurl.class.getName(), List.of(url), true))
+                        .redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                        .redirectError(ProcessBuilder.Redirect.DISCARD).start();
+                process.waitFor();
+                if (receivedTime.get() == 0) {
+                    System.out.printf("%-22s the request did not arrive\n", title);
+                    return;
+                }
+                if (i >= 0)
+                    times[i] = receivedTime.get() - startTime;
+            }
+            print(title, times);
+        } finally {
+            server.stop(0);
+        }
+    }
+
+    /**
+     * Measure how long it takes from starting the GUI until its first frame is painted and print the results.
+     * @param title The name of the row.
+     * @param archive The AppCDS archive to start with, or null to start without one.
+     * @param runs The number of times to start the GUI.
+     */
+    private static void firstFrame(String title, String archive, int runs) throws IOException, InterruptedException {
+        long[] times = new long[runs];
+        for (int i = -1; i < runs; i++) { // The first run lets the OS cache the files
+            long startTime = System.nanoTime();
+            Process process = new ProcessBuilder(command(archive, "Insomnia.Graphics.FirstFrameProbe",
+                    List.of("--exit"), false)).redirectError(ProcessBuilder.Redirect.DISCARD).start();
+            String line;
+            long frameTime = 0;
+            try (BufferedReader output = new BufferedReader(new InputStreamReader(process.getInputStream(),
+                    StandardCharsets.UTF_8))) {
+                while ((line = output.readLine()) != null) {
+                    if (line.startsWith("first frame") && frameTime == 0)
+                        frameTime = System.nanoTime();
+                    else if (line.equals("headless")) {
+                        System.out.printf("%-22s skipped, there is no display\n", title);
+                        process.waitFor();
+                        return;
+                    }
+                }
+            }
+            process.waitFor();
+            if (frameTime == 0) {
+                System.out.printf("%-22s the window was not shown\n", title);
+                return;
+            }
+            if (i >= 0)
+                times[i] = frameTime - startTime;
+        }
+        print(title, times);
+    }
+
+    /**
+     * @param archive The AppCDS archive to start with, or null to start without one.
+     * @param mainClass The class to run.
+     * @param args The arguments of the class.
+     * @param noDaemon True to keep jurl from handing its arguments to a running daemon.
+     * @return The command which starts the class in a new JVM, from the jar of the archive if there is one.
+     */
+    private static List<String> command(String archive, String mainClass, List<String> args, boolean noDaemon) {
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        if (noDaemon)
+            command.add("-D" + DaemonClient.NO_DAEMON + "=true");
+        if (archive != null) {
+            command.add("-XX:SharedArchiveFile=" + archive);
+            command.add("-Xshare:auto");
+        }
+        command.add("-cp");
+        command.add((archive != null)? CDS_JAR : System.getProperty("java.class.path"));
+        command.add(mainClass);
+        command.addAll(args);
+        return command;
+    }
+
+    /**
+     * Print the minimum, median and mean of some durations.
+     * @param title The name of the row.
+     * @param times The durations in nanoseconds.
+     */
+    private static void print(String title, long[] times) {
+        Arrays.sort(times);
+        double mean = Arrays.stream(times).average().orElse(0);
+        System.out.printf("%-22s %7.1f ms %7.1f ms %7.1f ms\n", title, times[0] / 1e6, times[times.length / 2] / 1e6,
+                mean / 1e6);
+    }
+
+    /**
+     * Measure the cold starts of one mode and print the results.
+     * @param title The name of the mode.
+     * @param jvmOptions The options to start the JVM with.
+     * @param jurlArgs The arguments to run jurl with.
+     * @param runs The number of times to start jurl.
+     */
+    private static void run(String title, List<String> jvmOptions, List<String> jurlArgs, int runs)
+            throws IOException, InterruptedException {
+        // Count the classes in a run of its own, since logging them slows the start down
+        Path classLog = Files.createTempFile("jurl-classes", ".log");
+        List<String> logOptions = new ArrayList<>(jvmOptions);
+        logOptions.add("-Xlog:class+load=info:file=" + classLog);
+        start(logOptions, jurlArgs);
+        long classes = 0, guiClasses = 0;
+        for (String line : Files.readAllLines(classLog, StandardCharsets.UTF_8)) {
+            int start = line.indexOf("[class,load] ");
+            if (start < 0)
+                continue;
+            classes++;
+            String name = line.substring(start + "[class,load] ".length());
+            for (String guiPackage : GUI_PACKAGES)
+                if (name.startsWith(guiPackage)) {
+                    guiClasses++;
+                    break;
+                }
+        }
+        Files.deleteIfExists(classLog);
+
+        start(jvmOptions, jurlArgs); // Let the OS cache the files first
+        long[] times = new long[runs];
+        for (int i = 0; i < runs; i++)
+            times[i] = start(jvmOptions, jurlArgs);
+        Arrays.sort(times);
+        double mean = Arrays.stream(times).average().orElse(0);
+        System.out.printf("%-10s %7.1f ms %7.1f ms %7.1f ms %9d %12d\n", title, times[0] / 1e6,
+                times[runs / 2] / 1e6, mean / 1e6, classes, guiClasses);
+    }
+
+    /**
+     * Start jurl in a new JVM and wait for it to exit.
+     * @param jvmOptions The options to start the JVM with.
+     * @param jurlArgs The arguments to run jurl with.
+     * @return The nanoseconds between starting the JVM and its exit.
+     */
+    private static long start(List<String> jvmOptions, List<String> jurlArgs) throws IOException, InterruptedException {
+        List<String> command = new ArrayList<>();
+        command.add(System.getProperty("java.home") + File.separator + "bin" + File.separator + "java");
+        command.addAll(jvmOptions);
+        command.add("-D" + DaemonClient.NO_DAEMON + "=true");
+        command.add("-cp");
+        command.add(System.getProperty("java.class.path"));
+        command.add(jurl.class.getName());
+        command.addAll(jurlArgs);
+        long startTime = System.nanoTime();
+        Process process = new ProcessBuilder(command).redirectOutput(ProcessBuilder.Redirect.DISCARD)
+                .redirectError(ProcessBuilder.Redirect.DISCARD).start();
+        process.waitFor();
+        return System.nanoTime() - startTime;
+    }
+}
@@ -0,0 +1,47 @@
+package Insomnia.Connection;
+
+import com.sun.net.httpserver.HttpServer;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * The class StartupTraining runs what a usual jurl invocation runs, so the classes it loads can be listed and
+ * archived for Application Class-Data Sharing (see scripts/cds-archive.sh). It sends a request with its
+ * headers and timings shown to a server of its own, so it needs no network, and lists the saved requests.
+ * Usage: java Insomnia.Connection.StartupTraining
+ *
+ * @author Negar Movaghatian
+ */
+public class StartupTraining {
+
+    /**
+     * Run the training.
+     * @param args Not used.
+     */
+    public static void main(String[] args) throws IOException {
+        HttpServer server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+        server.createContext("/", exchange -> {
+            byte[] body = "{\"training\": true}\n".getBytes(StandardCharsets.UTF_8);
+            exchange.getResponseHeaders().add("Content-Type", "application/json; charset=utf-8");
+            exchange.sendResponseHeaders(200, body.length);
+            try (OutputStream output = exchange.getResponseBody()) {
+                output.write(body);
+            }
+        });
+        server.start();
+        try {
+            String url = "http://" + server.getAddress().getAddress().getHostAddress() + ":"
+                    + server.getAddress().getPort() + "/training";
+            RequestManager.setArgs(new String[] {url, "-i", "-H", "Accept:application/json"});
+            RequestManager.runInConsole();
+            RequestManager.setArgs(new String[] {"list"});
+            RequestManager.runInConsole();
+        } finally {
+            server.stop(0);
+        }
+    }
+}
@@ -1,106 +1,237 @@
 package Insomnia.Connection;
 
-import Insomnia.Graphics.MainWindow;
-import javax.swing.*;
 import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.util.Collection;
 import java.util.LinkedList;
-import java.util.Scanner;
+import java.util.List;
 
 /**
  * The class StreamUtils is a class to work with streams, write to or read from them.
- * It works with HttpURLConnection output stream and writes and reads from the the last
+ * It works with the response types and bodies and writes and reads from the the last
  * request files.
  *
  * @author Negar Movaghatian
  */
 public class StreamUtils {
 
-    private final static String REQUESTS_DIR = "." + File.separator + "data" + File.separator + "Requests";
-    private final static String OUTPUT_DIR = "." + File.separator + "data" + File.separator + "Output";
-    private final static String SETTINGS_DIR = "." + File.separator + "data" + File.separator;
+    private final static String DATA_DIR = "." + File.separator + "data";
+    private final static String REQUESTS_DIR = DATA_DIR + File.separator + "Requests"; // The directory requests
+    // were saved in as separate files before the request store
+    final static String OUTPUT_DIR = "." + File.separator + "data" + File.separator + "Output";
+
+    private static RequestStore requestStore; // The store of the saved requests, opened when it is first used
 
     static {
-        createDirectory(REQUESTS_DIR);
+        createDirectory(DATA_DIR);
         createDirectory(OUTPUT_DIR);
     }
 
     /**
-     * Read all the bytes written in the connection's input stream and collect them in an array.
-     * @param reader The input stream of the HttpURLConnection.
-     * @return All the bytes written in the connection's input stream.
+     * Get the response type from a Content-Type header. For example 'txt', 'png', 'html', etc.
+     * @param contentType The value of the Content-Type header, or null if the response does not have it.
+     * @return The type of the response.
      */
-    public static byte[] getStreamBytes(BufferedInputStream reader) {
-        try {
-            byte[] streamBytes = new byte[reader.available()];
-            reader.read(streamBytes, 0, reader.available());
-            return streamBytes;
-        } catch (IOException e) {
-            System.err.println("Could not read information from server: " + e.getMessage());
+    public static String getResponseType(String contentType) {
+        if (contentType != null) {
+            int start = contentType.indexOf('/') + 1;
+            int end = start;
+            while (end < contentType.length() && contentType.charAt(end) != ';' && contentType.charAt(end) != ' '
+                    && contentType.charAt(end) != '\n')
+                end++;
+            return contentType.substring(start, end);
         }
-        return null;
+        return "Unknown";
     }
 
     /**
-     * Write the output of the connection in a file.
-     * @param streamBytes The bytes of the file.
-     * @param fileName The name of the file.
+     * Format a size in byte, kilobyte or megabyte depending on how large it is.
+     * @param size The size in bytes.
+     * @return The formatted size. For example '512.0B', '1.50KB' or '12.25MB'.
      */
-    public static void fileWriter(byte[] streamBytes, String fileName) {
-        try (FileOutputStream writer = new FileOutputStream(OUTPUT_DIR + File.separator + fileName)) {
-            if (streamBytes != null)
-                for (byte streamByte : streamBytes)
-                    writer.write(streamByte);
-        } catch (IOException e) {
-            System.err.println("An unexpected error occurred while writing the output file: " + e.getMessage());
+    public static String formatSize(long size) {
+        return (size > 1048576)? (String.format("%.2fMB", (float) size/1048576)) :
+                (size > 1024)? (String.format("%.2fKB",(float) size/1024)) : ((float) size + "B");
+    }
+
+    /**
+     * Number the name of an output file, so several responses which are saved at once each get a file of their
+     * own. The number goes before the extension of the name, if it has one.
+     * @param fileName The name of the file. For example 'out.txt'.
+     * @param number The number of the response.
+     * @return The numbered name. For example 'out_2.txt'.
+     */
+    public static String numberFileName(String fileName, long number) {
+        int dot = fileName.lastIndexOf('.');
+        if (dot <= 0)
+            return fileName + "_" + number;
+        return fileName.substring(0, dot) + "_" + number + fileName.substring(dot);
+    }
+
+    /**
+     * Get the charset of a body from its Content-Type header. For example 'text/html; charset=ISO-8859-1'.
+     * @param contentType The value of the Content-Type header, or null if the response does not have it.
+     * @return The charset given in the header, or UTF-8 if there is none or it is not supported.
+     */
+    public static Charset getCharset(String contentType) {
+        if (contentType != null) {
+            for (String parameter : contentType.split(";")) {
+                parameter = parameter.trim();
+                if (parameter.regionMatches(true, 0, "charset=", 0, 8)) {
+                    String name = parameter.substring(8).replace("\"", "").trim();
+                    try {
+                        return Charset.forName(name);
+                    } catch (IllegalArgumentException e) {
+                        break;
+                    }
+                }
+            }
         }
+        return StandardCharsets.UTF_8;
+    }
+
+    /**
+     * Checks if a body is text according to its Content-Type header, so it can be decoded and shown as text.
+     * @param contentType The value of the Content-Type header, or null if the response does not have it.
+     * @return True if the body is text and false if it's binary or unknown.
+     */
+    public static boolean isText(String contentType) {
+        if (contentType == null)
+            return false;
+        String type = contentType.toLowerCase();
+        return type.startsWith("text/") || type.contains("json") || type.contains("xml") || type.contains("javascript")
+                || type.contains("x-www-form-urlencoded") || type.contains("charset=");
     }
 
     /**
      * Get the response body as text.
      * @param streamBytes The bytes of the request body.
+     * @param charset The charset of the body.
      * @return A string which contains the response of the request body.
      */
-    public static String getResponseBodyText(byte[] streamBytes) {
-        String toString = "";
-        if (streamBytes != null)
-            for (byte streamByte : streamBytes)
-                toString = toString.concat((char) streamByte + "");
-        return toString;
+    public static String getResponseBodyText(byte[] streamBytes, Charset charset) {
+        if (streamBytes == null)
+            return "";
+        return new String(streamBytes, charset);
+    }
+
+    /**
+     * Get the beginning of the response body as text. Only the bytes needed for the given number of characters
+     * are decoded, so this takes the same time for a body of any size. If the text is longer, it's cut and a note
+     * is added at its end.
+     * @param streamBytes The bytes of the request body.
+     * @param charset The charset of the body.
+     * @param maxChars The most characters of the body to return.
+     * @return A string which contains the beginning of the response of the request body.
+     */
+    public static String getResponseBodyText(byte[] streamBytes, Charset charset, int maxChars) {
+        if (streamBytes == null)
+            return "";
+        if (streamBytes.length <= maxChars) // Every byte is at most one character
+            return getResponseBodyText(streamBytes, charset);
+        CharBuffer text = CharBuffer.allocate(maxChars);
+        ByteBuffer bytes = ByteBuffer.wrap(streamBytes);
+        charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE).decode(bytes, text, false);
+        text.flip();
+        if (!bytes.hasRemaining())
+            return text.toString();
+        return text + "\n\n... " + formatSize(bytes.remaining()) + " more not shown";
+    }
+
+    /**
+     * @return The store of the saved requests. The requests saved as separate files are imported into it the first
+     * time it is opened. If another process has written the store since it was opened, like the GUI or another
+     * jurl while the daemon keeps running, it is opened again so its entries point to the right records.
+     * @throws IOException If the store could not be opened.
+     */
+    public static synchronized RequestStore getRequestStore() throws IOException {
+        if (requestStore == null || requestStore.isChanged())
+            requestStore = RequestStore.open(Paths.get(DATA_DIR, "Requests.dat"), Paths.get(DATA_DIR, "Requests.idx"),
+                    Paths.get(REQUESTS_DIR));
+        return requestStore;
     }
 
     /**
-     * Save the given request into a file.
-     * @param connection The connection to save into a file.
+     * Save the given request after the saved requests.
+     * @param connection The connection to save.
      */
     public static void saveRequest(Connection connection) {
-        try (FileOutputStream output = new FileOutputStream(REQUESTS_DIR + File.separator + "req" +
-                System.currentTimeMillis() + ".bin")) {
-            ObjectOutputStream objectOutput = new ObjectOutputStream(output);
-            objectOutput.writeObject(connection);
+        try {
+            getRequestStore().append(connection);
         } catch (IOException e) {
             System.err.println("An unexpected error occurred while saving this request: " + e.getMessage());
         }
     }
 
     /**
-     * Read all the requests in the request directory.
+     * Replace all the saved requests with the given ones, in order to synchronize them with the requests of the app.
+     * @param connections The connections to save.
+     */
+    public static void saveRequests(Collection<Connection> connections) {
+        try {
+            getRequestStore().rewrite(connections);
+        } catch (IOException e) {
+            System.err.println("An unexpected error occurred while saving the requests: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Replace all the saved requests with the given ones, copying the records of the requests which were never
+     * read instead of decoding and encoding them again.
+     * @param requests The requests to save, in order. Each one is a Connection or a RequestStore.Entry.
+     */
+    public static void saveRequestItems(List<?> requests) {
+        try {
+            getRequestStore().rewriteRequests(requests);
+        } catch (IOException e) {
+            System.err.println("An unexpected error occurred while saving the requests: " + e.getMessage());
+        }
+    }
+
+    /**
+     * @return The summaries of all the saved requests, which are read from the index without reading the requests.
+     */
+    public static List<RequestStore.Entry> listRequests() {
+        try {
+            return getRequestStore().list();
+        } catch (IOException e) {
+            System.err.println("An unexpected error occurred while reading saved requests: " + e.getMessage());
+            return new LinkedList<>();
+        }
+    }
+
+    /**
+     * Read one saved request.
+     * @param entry The summary of the request.
+     * @return The request, or null if it could not be read.
+     */
+    public static Connection readRequest(RequestStore.Entry entry) {
+        try {
+            return getRequestStore().read(entry);
+        } catch (IOException e) {
+            System.err.println("An unexpected error occurred while reading request " + entry.getName() + ": "
+                    + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Read all the saved requests.
      * @return A list of all the saved connections.
      */
     public static LinkedList<Connection> readRequests() {
-        LinkedList<Connection> connections = new LinkedList<>();
-        File folder = new File(REQUESTS_DIR);
-
-        if (folder.listFiles() != null) {
-            for (File request : folder.listFiles())
-                try (FileInputStream input = new FileInputStream(request)) {
-                    ObjectInputStream objectInput = new ObjectInputStream(input);
-                    connections.add((Connection) objectInput.readObject());
-                } catch (ClassNotFoundException | IOException e) {
-                    System.err.println("An unexpected error occurred while reading saved requests: " + e.getMessage());
-                }
+        try {
+            return getRequestStore().readAll();
+        } catch (IOException e) {
+            System.err.println("An unexpected error occurred while reading saved requests: " + e.getMessage());
+            return new LinkedList<>();
         }
-
-        return connections;
     }
 
     /**
@@ -110,7 +241,7 @@ public class StreamUtils {
         File file = new File(dirName);
         if (!file.exists()) {
             try {
-                if (!file.mkdir())
+                if (!file.mkdirs())
                     System.err.println("Could not create directory");
             } catch (Exception e) {
                 System.err.println("Could not create" + dirName + "directory: " + e.getMessage());
@@ -124,48 +255,21 @@ public class StreamUtils {
      * @return True if the file path exist and false otherwise.
      */
     public static boolean isPathValid(String filePath) {
-        File file = new File(filePath);
-        if (file.exists())
-            return true;
-        System.out.println("Could not find this file path : " + filePath);
-        return false;
-    }
-
-    /**
-     * Save the last settings applied on this app.
-     */
-    public static void saveSettings(MainWindow mainWindow) {
-        String content = mainWindow.followRedirects() + " " + mainWindow.isHideInTraySelected() + " "
-                + mainWindow.getTheme();
-        try (BufferedWriter output = new BufferedWriter(new FileWriter(SETTINGS_DIR + "Settings.bin"))) {
-            output.write(content);
-            output.flush();
-        } catch (IOException exception) {
-            JOptionPane.showMessageDialog(null, "Could not save user settings.",
-                    "Failed to Save File", JOptionPane.ERROR_MESSAGE);
-        }
+        return isPathValid(filePath, System.out);
     }
 
     /**
-     * Read the last settings before closing the program.
-     * @param mainWindow The main window to apply the settings to.
+     * Checks if any file exist with the given path.
+     * @param filePath The path to check.
+     * @param messages The stream to print on if the file does not exist.
+     * @return True if the file path exist and false otherwise.
      */
-    public static void readSettings(MainWindow mainWindow) {
-        try (FileInputStream input = new FileInputStream(SETTINGS_DIR + "Settings.bin")) {
-            Scanner scanner = new Scanner(input);
-            mainWindow.setFollowRedirects(scanner.nextBoolean());
-            mainWindow.setHideInTray(scanner.nextBoolean());
-            mainWindow.setTheme(scanner.next());
-        } catch (IOException exception) {}
+    public static boolean isPathValid(String filePath, PrintStream messages) {
+        File file = new File(filePath);
+        if (file.exists())
+            return true;
+        messages.println("Could not find this file path : " + filePath);
+        return false;
     }
 
-    /**
-     * Clear request directory in order to synchronize new request with the requests saved before.
-     */
-    public static void clearDirectory() {
-        File dir = new File(REQUESTS_DIR);
-        for(File file: dir.listFiles())
-            if (!file.isDirectory())
-                file.delete();
-    }
 }
@@ -0,0 +1,128 @@
+package Insomnia.Connection;
+
+import java.io.IOException;
+import java.net.http.HttpResponse;
+import java.nio.ByteBuffer;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.Flow;
+
+/**
+ * The class StreamingBodySubscriber hands each chunk of a response body to a list of sinks as soon as it is
+ * received, instead of collecting the whole body first. It asks for the next chunk only after the sinks are
+ * done with the last one, so a slow sink slows the download down rather than piling chunks up in memory.
+ * It completes with the number of bytes received.
+ *
+ * @author Negar Movaghatian
+ */
+public class StreamingBodySubscriber implements HttpResponse.BodySubscriber<Long> {
+
+    private final List<ResponseSink> sinks; // The sinks to hand the body to
+    private final long startTime; // The time the request was sent at
+    private final CompletableFuture<Long> body; // Completes with the number of bytes received
+    private Flow.Subscription subscription; // The subscription to ask for more chunks with
+    private long received; // The number of bytes received so far
+    private volatile long firstByteTime; // The time the first byte of the body was received at
+
+    /**
+     * Create a new subscriber and let the sinks know that the response has arrived.
+     * @param info The status, headers and version of the response.
+     * @param sinks The sinks to hand the body to.
+     * @param startTime The time the request was sent at.
+     */
+    public StreamingBodySubscriber(HttpResponse.ResponseInfo info, List<ResponseSink> sinks, long startTime) {
+        this.sinks = sinks;
+        this.startTime = startTime;
+        body = new CompletableFuture<>();
+        try {
+            for (ResponseSink sink : sinks)
+                sink.begin(info);
+        } catch (IOException e) {
+            fail(e);
+        }
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        this.subscription = subscription;
+        if (body.isDone())
+            subscription.cancel();
+        else
+            subscription.request(1);
+    }
+
+    @Override
+    public void onNext(List<ByteBuffer> chunks) {
+        if (body.isDone())
+            return;
+        try {
+            for (ByteBuffer chunk : chunks) {
+                if (!chunk.hasRemaining())
+                    continue;
+                if (firstByteTime == 0)
+                    firstByteTime = System.nanoTime();
+                received += chunk.remaining();
+                int position = chunk.position();
+                for (ResponseSink sink : sinks) {
+                    sink.write(chunk);
+                    chunk.position(position);
+                }
+            }
+        } catch (IOException e) {
+            subscription.cancel();
+            fail(e);
+            return;
+        }
+        subscription.request(1);
+    }
+
+    @Override
+    public void onError(Throwable throwable) {
+        fail(throwable);
+    }
+
+    @Override
+    public void onComplete() {
+        IOException failure = null; // The first sink which failed; the others are still ended
+        for (ResponseSink sink : sinks) {
+            try {
+                sink.end();
+            } catch (IOException e) {
+                if (failure == null)
+                    failure = e;
+            }
+        }
+        if (failure != null)
+            body.completeExceptionally(failure);
+        else
+            body.complete(received);
+    }
+
+    @Override
+    public CompletionStage<Long> getBody() {
+        return body;
+    }
+
+    /**
+     * @return The time between sending the request and receiving the first byte of the body in nanoseconds,
+     * or -1 if the body was empty.
+     */
+    public long getTimeToFirstByte() {
+        return (firstByteTime == 0)? -1 : firstByteTime - startTime;
+    }
+
+    /**
+     * Fail the body and let every sink release its resources.
+     * @param cause The reason of the failure.
+     */
+    private void fail(Throwable cause) {
+        if (!body.completeExceptionally(cause))
+            return;
+        for (ResponseSink sink : sinks) {
+            try {
+                sink.end();
+            } catch (IOException ignored) {}
+        }
+    }
+}
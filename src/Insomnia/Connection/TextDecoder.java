@@ -0,0 +1,111 @@
+package Insomnia.Connection;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.CodingErrorAction;
+
+/**
+ * The class TextDecoder turns the bytes of a body into text chunk by chunk while they are being received.
+ * A character which is split between two chunks is kept until the rest of it arrives. The decoded text
+ * passes through a small buffer of a fixed size, so decoding takes linear time and constant memory.
+ * Bytes which are not valid in the charset are replaced instead of failing the whole body.
+ *
+ * @author Negar Movaghatian
+ */
+public class TextDecoder {
+
+    private final CharsetDecoder decoder; // The decoder of the charset
+    private final CharBuffer chars; // The buffer the text is decoded into before being appended
+    private final ByteBuffer leftover; // The start of a character which was split at the end of the last chunk
+
+    /**
+     * Create a new decoder.
+     * @param charset The charset of the body.
+     */
+    public TextDecoder(Charset charset) {
+        decoder = charset.newDecoder().onMalformedInput(CodingErrorAction.REPLACE)
+                .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        chars = CharBuffer.allocate(8192);
+        leftover = ByteBuffer.allocate(16);
+    }
+
+    /**
+     * Decode a chunk of the body and append the text to the given output.
+     * @param chunk The bytes between the position and limit of this buffer. All of them are consumed.
+     * @param out The output to append the text to.
+     * @throws IOException If the output could not be appended to.
+     */
+    public void decode(ByteBuffer chunk, Appendable out) throws IOException {
+        if (leftover.position() != 0) { // Complete the character which was split at the end of the last chunk
+            int kept = leftover.position();
+            int moved = Math.min(leftover.remaining(), chunk.remaining());
+            int chunkStart = chunk.position();
+            ByteBuffer part = chunk.slice();
+            part.limit(moved);
+            leftover.put(part);
+            leftover.flip();
+            decode(leftover, out, false);
+            int consumed = leftover.position();
+            if (consumed >= kept) {
+                leftover.clear();
+                chunk.position(chunkStart + consumed - kept);
+            }
+            else {
+                leftover.compact();
+                chunk.position(chunkStart + moved);
+                return;
+            }
+        }
+        decode(chunk, out, false);
+        leftover.put(chunk);
+    }
+
+    /**
+     * Decode what is left after the last chunk and append it to the given output. A character which was never
+     * completed is replaced.
+     * @param out The output to append the text to.
+     * @throws IOException If the output could not be appended to.
+     */
+    public void finish(Appendable out) throws IOException {
+        leftover.flip();
+        decode(leftover, out, true);
+        leftover.clear();
+        CoderResult result;
+        do {
+            result = decoder.flush(chars);
+            drain(out);
+        } while (result.isOverflow());
+        decoder.reset();
+    }
+
+    /**
+     * Decode as much of the input as possible and append the text to the given output.
+     * @param input The bytes to decode.
+     * @param out The output to append the text to.
+     * @param endOfInput Shows if no more bytes will follow the input.
+     * @throws IOException If the output could not be appended to.
+     */
+    private void decode(ByteBuffer input, Appendable out, boolean endOfInput) throws IOException {
+        CoderResult result;
+        do {
+            result = decoder.decode(input, chars, endOfInput);
+            drain(out);
+        } while (result.isOverflow());
+    }
+
+    /**
+     * Append the decoded text to the given output and empty the buffer.
+     * @param out The output to append the text to.
+     * @throws IOException If the output could not be appended to.
+     */
+    private void drain(Appendable out) throws IOException {
+        chars.flip();
+        if (chars.hasRemaining())
+            out.append(chars);
+        chars.clear();
+    }
+}
@@ -0,0 +1,478 @@
+package Insomnia.Connection;
+
+import javax.net.ssl.*;
+import java.nio.ByteBuffer;
+import java.security.KeyManagementException;
+import java.security.Principal;
+import java.security.SecureRandom;
+import java.security.cert.Certificate;
+import java.util.List;
+import java.util.function.BiFunction;
+
+/**
+ * The class TimingSSLContext wraps an SSLContext to find out when the TLS connections it creates are
+ * connected and when their handshakes are done. Each connection gets an engine which records these times in
+ * a Handshake object and hands it out through its session, as the value of HANDSHAKE_KEY. The session of a
+ * response gives the handshake of the connection the response was received on.
+ * Everything else is done by the wrapped context and engines.
+ *
+ * @author Negar Movaghatian
+ */
+class TimingSSLContext extends SSLContext {
+
+    final static String HANDSHAKE_KEY = "Insomnia.Handshake"; // The name of the session value of the handshake
+
+    /**
+     * The class Handshake holds the times of the setup of one TLS connection.
+     */
+    static class Handshake {
+
+        private final long createdTime; // The time the connection was created at, before it was connected
+        private volatile long startTime; // The time the first handshake message was made at, once connected
+        private volatile long endTime; // The time the handshake was done at
+
+        private Handshake() {
+            createdTime = System.nanoTime();
+        }
+
+        /**
+         * @return The time the connection was created at, before it was connected.
+         */
+        long getCreatedTime() {
+            return createdTime;
+        }
+
+        /**
+         * @return The time the first handshake message was made at, which is when the connection was connected, or
+         * zero if the handshake has not started.
+         */
+        long getStartTime() {
+            return startTime;
+        }
+
+        /**
+         * @return The time the handshake was done at, or zero if it is not done.
+         */
+        long getEndTime() {
+            return endTime;
+        }
+    }
+
+    /**
+     * Create a context which creates its engines with the given context.
+     * @param delegate The context to create the engines with.
+     */
+    private TimingSSLContext(SSLContext delegate) {
+        super(new Spi(delegate), delegate.getProvider(), delegate.getProtocol());
+    }
+
+    /**
+     * @return A new context which records the handshake times of the default context.
+     */
+    static SSLContext newDefault() {
+        try {
+            return new TimingSSLContext(SSLContext.getDefault());
+        } catch (java.security.NoSuchAlgorithmException e) {
+            throw new IllegalStateException("TLS is not supported", e);
+        }
+    }
+
+    /**
+     * The class Spi hands every call to the wrapped context and wraps the engines it creates.
+     */
+    private static class Spi extends SSLContextSpi {
+
+        private final SSLContext delegate; // The context which does the work
+
+        private Spi(SSLContext delegate) {
+            this.delegate = delegate;
+        }
+
+        @Override
+        protected void engineInit(KeyManager[] km, TrustManager[] tm, SecureRandom sr) throws KeyManagementException {
+            delegate.init(km, tm, sr);
+        }
+
+        @Override
+        protected SSLSocketFactory engineGetSocketFactory() {
+            return delegate.getSocketFactory();
+        }
+
+        @Override
+        protected SSLServerSocketFactory engineGetServerSocketFactory() {
+            return delegate.getServerSocketFactory();
+        }
+
+        @Override
+        protected SSLEngine engineCreateSSLEngine() {
+            return new TimedEngine(delegate.createSSLEngine());
+        }
+
+        @Override
+        protected SSLEngine engineCreateSSLEngine(String host, int port) {
+            return new TimedEngine(delegate.createSSLEngine(host, port));
+        }
+
+        @Override
+        protected SSLSessionContext engineGetServerSessionContext() {
+            return delegate.getServerSessionContext();
+        }
+
+        @Override
+        protected SSLSessionContext engineGetClientSessionContext() {
+            return delegate.getClientSessionContext();
+        }
+
+        @Override
+        protected SSLParameters engineGetDefaultSSLParameters() {
+            return delegate.getDefaultSSLParameters();
+        }
+
+        @Override
+        protected SSLParameters engineGetSupportedSSLParameters() {
+            return delegate.getSupportedSSLParameters();
+        }
+    }
+
+    /**
+     * The class TimedEngine records when its handshake starts and ends.
+     */
+    private static class TimedEngine extends SSLEngine {
+
+        private final SSLEngine delegate; // The engine which does the work
+        private final Handshake handshake; // The times of the handshake of this engine
+        private final TimedSession session; // The session handed out, which gives the handshake
+
+        private TimedEngine(SSLEngine delegate) {
+            super(delegate.getPeerHost(), delegate.getPeerPort());
+            this.delegate = delegate;
+            handshake = new Handshake();
+            session = new TimedSession(this);
+        }
+
+        /**
+         * Record the start and the end of the handshake.
+         * @param result The result of the last wrap or unwrap.
+         * @param startTime The time the wrap or unwrap was called at.
+         * @return The result.
+         */
+        private SSLEngineResult record(SSLEngineResult result, long startTime) {
+            if (handshake.startTime == 0)
+                handshake.startTime = startTime;
+            if (handshake.endTime == 0 && result.getHandshakeStatus() == SSLEngineResult.HandshakeStatus.FINISHED)
+                handshake.endTime = System.nanoTime();
+            return result;
+        }
+
+        @Override
+        public SSLEngineResult wrap(ByteBuffer[] srcs, int offset, int length, ByteBuffer dst) throws SSLException {
+            long startTime = System.nanoTime();
+            return record(delegate.wrap(srcs, offset, length, dst), startTime);
+        }
+
+        @Override
+        public SSLEngineResult unwrap(ByteBuffer src, ByteBuffer[] dsts, int offset, int length) throws SSLException {
+            long startTime = System.nanoTime();
+            return record(delegate.unwrap(src, dsts, offset, length), startTime);
+        }
+
+        @Override
+        public SSLSession getSession() {
+            return session;
+        }
+
+        @Override
+        public SSLSession getHandshakeSession() {
+            return delegate.getHandshakeSession();
+        }
+
+        @Override
+        public Runnable getDelegatedTask() {
+            return delegate.getDelegatedTask();
+        }
+
+        @Override
+        public void closeInbound() throws SSLException {
+            delegate.closeInbound();
+        }
+
+        @Override
+        public boolean isInboundDone() {
+            return delegate.isInboundDone();
+        }
+
+        @Override
+        public void closeOutbound() {
+            delegate.closeOutbound();
+        }
+
+        @Override
+        public boolean isOutboundDone() {
+            return delegate.isOutboundDone();
+        }
+
+        @Override
+        public String[] getSupportedCipherSuites() {
+            return delegate.getSupportedCipherSuites();
+        }
+
+        @Override
+        public String[] getEnabledCipherSuites() {
+            return delegate.getEnabledCipherSuites();
+        }
+
+        @Override
+        public void setEnabledCipherSuites(String[] suites) {
+            delegate.setEnabledCipherSuites(suites);
+        }
+
+        @Override
+        public String[] getSupportedProtocols() {
+            return delegate.getSupportedProtocols();
+        }
+
+        @Override
+        public String[] getEnabledProtocols() {
+            return delegate.getEnabledProtocols();
+        }
+
+        @Override
+        public void setEnabledProtocols(String[] protocols) {
+            delegate.setEnabledProtocols(protocols);
+        }
+
+        @Override
+        public void beginHandshake() throws SSLException {
+            delegate.beginHandshake();
+        }
+
+        @Override
+        public SSLEngineResult.HandshakeStatus getHandshakeStatus() {
+            return delegate.getHandshakeStatus();
+        }
+
+        @Override
+        public void setUseClientMode(boolean mode) {
+            delegate.setUseClientMode(mode);
+        }
+
+        @Override
+        public boolean getUseClientMode() {
+            return delegate.getUseClientMode();
+        }
+
+        @Override
+        public void setNeedClientAuth(boolean need) {
+            delegate.setNeedClientAuth(need);
+        }
+
+        @Override
+        public boolean getNeedClientAuth() {
+            return delegate.getNeedClientAuth();
+        }
+
+        @Override
+        public void setWantClientAuth(boolean want) {
+            delegate.setWantClientAuth(want);
+        }
+
+        @Override
+        public boolean getWantClientAuth() {
+            return delegate.getWantClientAuth();
+        }
+
+        @Override
+        public void setEnableSessionCreation(boolean flag) {
+            delegate.setEnableSessionCreation(flag);
+        }
+
+        @Override
+        public boolean getEnableSessionCreation() {
+            return delegate.getEnableSessionCreation();
+        }
+
+        @Override
+        public SSLParameters getSSLParameters() {
+            return delegate.getSSLParameters();
+        }
+
+        @Override
+        public void setSSLParameters(SSLParameters params) {
+            delegate.setSSLParameters(params);
+        }
+
+        @Override
+        public String getApplicationProtocol() {
+            return delegate.getApplicationProtocol();
+        }
+
+        @Override
+        public String getHandshakeApplicationProtocol() {
+            return delegate.getHandshakeApplicationProtocol();
+        }
+
+        @Override
+        public void setHandshakeApplicationProtocolSelector(BiFunction<SSLEngine, List<String>, String> selector) {
+            delegate.setHandshakeApplicationProtocolSelector(selector);
+        }
+
+        @Override
+        public BiFunction<SSLEngine, List<String>, String> getHandshakeApplicationProtocolSelector() {
+            return delegate.getHandshakeApplicationProtocolSelector();
+        }
+    }
+
+    /**
+     * The class TimedSession hands every call to the current session of an engine, and gives the handshake
+     * of the engine as the value of HANDSHAKE_KEY.
+     */
+    private static class TimedSession extends ExtendedSSLSession {
+
+        private final TimedEngine engine; // The engine of the session
+
+        private TimedSession(TimedEngine engine) {
+            this.engine = engine;
+        }
+
+        /**
+         * @return The current session of the engine, which changes when the handshake is done.
+         */
+        private SSLSession delegate() {
+            return engine.delegate.getSession();
+        }
+
+        @Override
+        public Object getValue(String name) {
+            return HANDSHAKE_KEY.equals(name)? engine.handshake : delegate().getValue(name);
+        }
+
+        @Override
+        public String[] getLocalSupportedSignatureAlgorithms() {
+            SSLSession session = delegate();
+            return (session instanceof ExtendedSSLSession)?
+                    ((ExtendedSSLSession) session).getLocalSupportedSignatureAlgorithms() : new String[0];
+        }
+
+        @Override
+        public String[] getPeerSupportedSignatureAlgorithms() {
+            SSLSession session = delegate();
+            return (session instanceof ExtendedSSLSession)?
+                    ((ExtendedSSLSession) session).getPeerSupportedSignatureAlgorithms() : new String[0];
+        }
+
+        @Override
+        public List<SNIServerName> getRequestedServerNames() {
+            SSLSession session = delegate();
+            return (session instanceof ExtendedSSLSession)?
+                    ((ExtendedSSLSession) session).getRequestedServerNames() : List.of();
+        }
+
+        @Override
+        public List<byte[]> getStatusResponses() {
+            SSLSession session = delegate();
+            return (session instanceof ExtendedSSLSession)?
+                    ((ExtendedSSLSession) session).getStatusResponses() : List.of();
+        }
+
+        @Override
+        public byte[] getId() {
+            return delegate().getId();
+        }
+
+        @Override
+        public SSLSessionContext getSessionContext() {
+            return delegate().getSessionContext();
+        }
+
+        @Override
+        public long getCreationTime() {
+            return delegate().getCreationTime();
+        }
+
+        @Override
+        public long getLastAccessedTime() {
+            return delegate().getLastAccessedTime();
+        }
+
+        @Override
+        public void invalidate() {
+            delegate().invalidate();
+        }
+
+        @Override
+        public boolean isValid() {
+            return delegate().isValid();
+        }
+
+        @Override
+        public void putValue(String name, Object value) {
+            delegate().putValue(name, value);
+        }
+
+        @Override
+        public void removeValue(String name) {
+            delegate().removeValue(name);
+        }
+
+        @Override
+        public String[] getValueNames() {
+            return delegate().getValueNames();
+        }
+
+        @Override
+        public Certificate[] getPeerCertificates() throws SSLPeerUnverifiedException {
+            return delegate().getPeerCertificates();
+        }
+
+        @Override
+        public Certificate[] getLocalCertificates() {
+            return delegate().getLocalCertificates();
+        }
+
+        @Override
+        @SuppressWarnings({"deprecation", "removal"})
+        public javax.security.cert.X509Certificate[] getPeerCertificateChain() throws SSLPeerUnverifiedException {
+            return delegate().getPeerCertificateChain();
+        }
+
+        @Override
+        public Principal getPeerPrincipal() throws SSLPeerUnverifiedException {
+            return delegate().getPeerPrincipal();
+        }
+
+        @Override
+        public Principal getLocalPrincipal() {
+            return delegate().getLocalPrincipal();
+        }
+
+        @Override
+        public String getCipherSuite() {
+            return delegate().getCipherSuite();
+        }
+
+        @Override
+        public String getProtocol() {
+            return delegate().getProtocol();
+        }
+
+        @Override
+        public String getPeerHost() {
+            return delegate().getPeerHost();
+        }
+
+        @Override
+        public int getPeerPort() {
+            return delegate().getPeerPort();
+        }
+
+        @Override
+        public int getPacketBufferSize() {
+            return delegate().getPacketBufferSize();
+        }
+
+        @Override
+        public int getApplicationBufferSize() {
+            return delegate().getApplicationBufferSize();
+        }
+    }
+}
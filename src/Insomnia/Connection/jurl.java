@@ -1,12 +1,19 @@
 package Insomnia.Connection;
 
 /**
- * The main class of the jurl program. Get input via args and run a new request through Request Manager.
+ * The main class of the jurl program. Get input via args and run a new request through Request Manager, or hand
+ * the args to the jurl daemon if one is running in this directory.
  *
  * @author Negar Movaghatian
  */
 public class jurl  {
     public static void main(String[] args) {
+        if (args.length > 0 && args[0].equals("daemon")) { // Start the daemon or ask it to stop
+            JurlDaemon.command(args);
+            return;
+        }
+        if (DaemonClient.forward(args)) // The daemon ran the request
+            return;
         RequestManager.setArgs(args);
         RequestManager.runInConsole();
     }
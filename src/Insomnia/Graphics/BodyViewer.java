@@ -0,0 +1,740 @@
+package Insomnia.Graphics;
+
+import Insomnia.Connection.SpillSink;
+
+import javax.swing.*;
+import java.awt.*;
+import java.io.IOException;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * The class BodyViewer shows the body of a response as text without ever holding all of it as text. The body
+ * stays as bytes, in memory or in a temporary file, and only the lines which are visible are decoded when they
+ * are painted. Where each line starts is found on a background thread, so a large body is shown as soon as its
+ * first lines are known and the window keeps responding while the rest is indexed. Lines longer than the width
+ * of the viewer are wrapped, and a very long line never has to be decoded at once.
+ * Lines are found code unit by code unit, so bodies in charsets whose characters take several bytes, like UTF-16
+ * and UTF-32, are indexed the same way as the usual ones.
+ * It can find text in the body and jump to a line, both without decoding the whole body either.
+ *
+ * @author Negar Movaghatian
+ */
+public class BodyViewer extends JPanel {
+
+    private final static int BLOCK_SIZE = 1024 * 1024; // The bytes read at once while indexing or searching
+    private final static int MIN_WRAP = 80; // The least characters of a line before it is wrapped
+    private final static int CACHED_LINES = 1024; // The most decoded lines kept for painting
+
+    private final Lines lines; // The component the lines are painted on
+    private final LineNumbers lineNumbers; // The component the line numbers are painted on
+    private final JScrollPane scrollPane; // The scroll pane of the lines
+    private final JTextField findField; // The field of the text to find
+    private final JTextField lineField; // The field of the line to jump to
+    private final JLabel statusLabel; // The label which shows the number of lines or the result of a search
+    private final JPanel tools; // The panel of the find and go to line fields
+
+    private SpillSink body; // The body which is shown
+    private Encoding encoding; // How the text of the body is laid out in bytes
+    private final Object indexLock; // The lock of the index of the lines
+    private long[] starts; // The position in the body where each shown line starts
+    private int lineCount; // The number of shown lines known so far
+    private int[] wrapped; // The shown lines which are the rest of a wrapped line, in order
+    private int wrappedCount; // The number of wrapped lines known so far
+    private int longestLine; // The most bytes of a shown line
+    private volatile boolean indexed; // Shows if the whole body has been indexed
+    private int generation; // Counts the bodies shown, so the work for an earlier body can be told apart
+    private final LinkedHashMap<Integer, String> cache; // Decoded lines by their number, the least recent first
+    private long matchStart, matchEnd; // The position of the last match in the body, or -1
+
+    /**
+     * Create a new viewer which shows nothing.
+     */
+    public BodyViewer() {
+        setLayout(new BorderLayout());
+        indexLock = new Object();
+        cache = new LinkedHashMap<Integer, String>(CACHED_LINES, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, String> eldest) {
+                return size() > CACHED_LINES;
+            }
+        };
+        lines = new Lines();
+        lineNumbers = new LineNumbers();
+        scrollPane = new JScrollPane(lines);
+        scrollPane.setRowHeaderView(lineNumbers);
+        scrollPane.getVerticalScrollBar().setUnitIncrement(lines.lineHeight());
+        add(scrollPane, BorderLayout.CENTER);
+
+        // The tools to find text and jump to a line
+        tools = new JPanel(new FlowLayout(FlowLayout.LEFT, 4, 2));
+        findField = new JTextField(10);
+        findField.setToolTipText("Find (Enter for the next match)");
+        findField.addActionListener(e -> find(findField.getText()));
+        lineField = new JTextField(5);
+        lineField.setToolTipText("Go to line");
+        lineField.addActionListener(e -> goToLine(lineField.getText()));
+        statusLabel = new JLabel(" ");
+        tools.add(new JLabel("Find"));
+        tools.add(findField);
+        tools.add(new JLabel("Line"));
+        tools.add(lineField);
+        tools.add(statusLabel);
+        add(tools, BorderLayout.SOUTH);
+        setText("");
+    }
+
+    @Override
+    public void setBackground(Color color) {
+        super.setBackground(color);
+        if (tools != null) { // The look of the panel is set before its components are created as well
+            tools.setBackground(color);
+            for (Component component : tools.getComponents())
+                if (component instanceof JLabel)
+                    component.setBackground(color);
+            lines.repaint();
+            lineNumbers.repaint();
+        }
+    }
+
+    @Override
+    public void setForeground(Color color) {
+        super.setForeground(color);
+        if (tools != null)
+            for (Component component : tools.getComponents())
+                if (component instanceof JLabel)
+                    component.setForeground(color);
+    }
+
+    /**
+     * Show a text, such as an error message.
+     * @param text The text to show.
+     */
+    public void setText(String text) {
+        SpillSink textBody = new SpillSink(Long.MAX_VALUE);
+        try {
+            textBody.write(java.nio.ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8)));
+        } catch (IOException ignored) {} // A body in memory can't fail
+        textBody.end();
+        setBody(textBody, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * Show the body of a response. The previous body is let go, and its temporary file removed.
+     * @param body The body to show.
+     * @param charset The charset to decode the body with.
+     */
+    public void setBody(SpillSink body, Charset charset) {
+        if (this.body != null && this.body != body)
+            this.body.release();
+        this.body = body;
+        encoding = new Encoding(body, charset);
+        int wrapColumn = Math.max(MIN_WRAP, (scrollPane.getViewport().getWidth() - 10) / lines.charWidth());
+        synchronized (indexLock) {
+            starts = new long[1024];
+            wrapped = new int[16];
+            lineCount = 0;
+            wrappedCount = 0;
+            longestLine = 0;
+            indexed = false;
+            generation++;
+        }
+        cache.clear();
+        matchStart = matchEnd = -1;
+        statusLabel.setText("Indexing...");
+        lines.revalidate();
+        lines.repaint();
+        lineNumbers.revalidate();
+        scrollPane.getViewport().setViewPosition(new Point(0, 0));
+
+        int bodyGeneration = generation;
+        Encoding bodyEncoding = encoding;
+        Thread indexer = new Thread(() -> index(body, bodyEncoding, bodyGeneration, wrapColumn), "body-indexer");
+        indexer.setDaemon(true);
+        indexer.start();
+    }
+
+    /**
+     * Find where each line of a body starts and publish the lines to the viewer as they are found. Lines are
+     * wrapped after the given number of code units, at the start of a character.
+     * @param body The body to index.
+     * @param encoding How the text of the body is laid out in bytes.
+     * @param bodyGeneration The generation of the body, to stop once another body is shown.
+     * @param wrapColumn The most code units of a shown line.
+     */
+    private void index(SpillSink body, Encoding encoding, int bodyGeneration, int wrapColumn) {
+        byte[] block = new byte[BLOCK_SIZE];
+        long[] newStarts = new long[4096];
+        int[] newWrapped = new int[64];
+        int newCount = 0, newWrappedCount = 0, longest = 0;
+        int unit = encoding.unit;
+        long wrapLength = (long) wrapColumn * unit;
+        long lineStart = encoding.start, position = encoding.start;
+        boolean lineEnded = true; // Shows if the next code unit starts a line
+        AtomicBoolean updateQueued = new AtomicBoolean();
+        try {
+            int read;
+            while ((read = body.read(position, block, 0, block.length)) > 0) {
+                int units = read - read % unit; // A code unit which was cut off is read again with the next block
+                if (units == 0) // The body ends with a part of a code unit
+                    break;
+                for (int i = 0; i < units; i += unit, position += unit) {
+                    if (lineEnded) {
+                        lineEnded = false;
+                        lineStart = position;
+                        if (newCount == newStarts.length)
+                            newStarts = Arrays.copyOf(newStarts, newCount * 2);
+                        newStarts[newCount++] = position;
+                    }
+                    else if (position - lineStart >= wrapLength && encoding.startsCharacter(block, i)
+                            && !encoding.is(block, i, encoding.newline)
+                            && !encoding.is(block, i, encoding.carriageReturn)) {
+                        lineStart = position; // Wrap the line here, where no character is split
+                        if (newCount == newStarts.length)
+                            newStarts = Arrays.copyOf(newStarts, newCount * 2);
+                        if (newWrappedCount == newWrapped.length)
+                            newWrapped = Arrays.copyOf(newWrapped, newWrappedCount * 2);
+                        newWrapped[newWrappedCount++] = publishedCount(bodyGeneration) + newCount;
+                        newStarts[newCount++] = position;
+                    }
+                    if (encoding.is(block, i, encoding.newline)) {
+                        lineEnded = true;
+                        longest = (int) Math.max(longest, (position - lineStart) / unit);
+                    }
+                }
+                longest = (int) Math.max(longest, (position - lineStart) / unit);
+                if (!publish(bodyGeneration, newStarts, newCount, newWrapped, newWrappedCount, longest, false))
+                    return;
+                newCount = 0;
+                newWrappedCount = 0;
+                if (!updateQueued.getAndSet(true)) // Let the viewer catch up, but not once for every block
+                    SwingUtilities.invokeLater(() -> {
+                        updateQueued.set(false);
+                        refresh(bodyGeneration);
+                    });
+            }
+        } catch (IOException e) { // Also when the body was let go for another one while it was being read
+            SwingUtilities.invokeLater(() -> {
+                if (bodyGeneration == generation)
+                    statusLabel.setText("Could not read the body: " + e.getMessage());
+            });
+        }
+        if (position == encoding.start) // An empty body still has an empty line
+            newStarts[newCount++] = encoding.start;
+        publish(bodyGeneration, newStarts, newCount, newWrapped, newWrappedCount, longest, true);
+        SwingUtilities.invokeLater(() -> refresh(bodyGeneration));
+    }
+
+    /**
+     * @param bodyGeneration The generation of the body which is being indexed.
+     * @return The number of lines published for the body.
+     */
+    private int publishedCount(int bodyGeneration) {
+        synchronized (indexLock) {
+            return (generation == bodyGeneration)? lineCount : 0;
+        }
+    }
+
+    /**
+     * Add the lines found by the indexer to the index.
+     * @return False if another body is shown now, so the indexer should stop.
+     */
+    private boolean publish(int bodyGeneration, long[] newStarts, int newCount, int[] newWrapped,
+                            int newWrappedCount, int longest, boolean done) {
+        synchronized (indexLock) {
+            if (generation != bodyGeneration)
+                return false;
+            if (lineCount + newCount > starts.length)
+                starts = Arrays.copyOf(starts, Math.max(lineCount + newCount, starts.length * 2));
+            System.arraycopy(newStarts, 0, starts, lineCount, newCount);
+            lineCount += newCount;
+            if (wrappedCount + newWrappedCount > wrapped.length)
+                wrapped = Arrays.copyOf(wrapped, Math.max(wrappedCount + newWrappedCount, wrapped.length * 2));
+            System.arraycopy(newWrapped, 0, wrapped, wrappedCount, newWrappedCount);
+            wrappedCount += newWrappedCount;
+            longestLine = longest;
+            if (done)
+                indexed = true;
+            indexLock.notifyAll();
+            return true;
+        }
+    }
+
+    /**
+     * Show the lines indexed so far.
+     * @param bodyGeneration The generation of the body which was indexed.
+     */
+    private void refresh(int bodyGeneration) {
+        if (bodyGeneration != generation)
+            return;
+        lines.revalidate();
+        lines.repaint();
+        lineNumbers.revalidate();
+        lineNumbers.repaint();
+        if (matchStart < 0)
+            statusLabel.setText(lineNumber(lineCount()) + " lines" + (indexed? "" : "..."));
+    }
+
+    /**
+     * @return The number of shown lines known so far.
+     */
+    private int lineCount() {
+        synchronized (indexLock) {
+            return lineCount;
+        }
+    }
+
+    /**
+     * @param line The number of a shown line, starting from zero.
+     * @return The number of the line of the body it belongs to, starting from zero.
+     */
+    private int lineNumber(int line) {
+        synchronized (indexLock) {
+            int before = Arrays.binarySearch(wrapped, 0, wrappedCount, line);
+            return line - ((before >= 0)? before + 1 : -before - 1);
+        }
+    }
+
+    /**
+     * @param line A shown line.
+     * @return True if the line is the rest of a wrapped line.
+     */
+    private boolean isWrapped(int line) {
+        synchronized (indexLock) {
+            return Arrays.binarySearch(wrapped, 0, wrappedCount, line) >= 0;
+        }
+    }
+
+    /**
+     * @param bodyLine The number of a line of the body, starting from zero.
+     * @return The number of the shown line it starts on.
+     */
+    private int shownLine(int bodyLine) {
+        synchronized (indexLock) {
+            int line = bodyLine;
+            while (true) {
+                int before = Arrays.binarySearch(wrapped, 0, wrappedCount, line);
+                int next = bodyLine + ((before >= 0)? before + 1 : -before - 1);
+                if (next == line)
+                    return line;
+                line = next;
+            }
+        }
+    }
+
+    /**
+     * @param position A position in the body.
+     * @return The shown line which holds the position.
+     */
+    private int lineAt(long position) {
+        synchronized (indexLock) {
+            int line = Arrays.binarySearch(starts, 0, lineCount, position);
+            return (line >= 0)? line : Math.max(0, -line - 2);
+        }
+    }
+
+    /**
+     * Get the bytes of a shown line without its line break.
+     * @param line The number of the line.
+     * @return The start and end of the line in the body, or null if it is not indexed yet.
+     */
+    private long[] lineBounds(int line) {
+        synchronized (indexLock) {
+            if (line < 0 || line >= lineCount)
+                return null;
+            long start = starts[line];
+            long end = (line + 1 < lineCount)? starts[line + 1] : (indexed? body.size() : -1);
+            if (end < 0)
+                return null;
+            return new long[] {start, end};
+        }
+    }
+
+    /**
+     * @param line The number of a shown line.
+     * @return The text of the line, decoded when it is first needed, with tabs replaced by spaces.
+     */
+    private String text(int line) {
+        String text = cache.get(line);
+        if (text != null)
+            return text;
+        long[] bounds = lineBounds(line);
+        if (bounds == null)
+            return "";
+        text = decode(bounds[0], bounds[1]);
+        int end = text.length();
+        while (end > 0 && (text.charAt(end - 1) == '\n' || text.charAt(end - 1) == '\r'))
+            end--;
+        text = text.substring(0, end).replace("\t", "    ");
+        cache.put(line, text);
+        return text;
+    }
+
+    /**
+     * @param start The position in the body to decode from.
+     * @param end The position in the body to decode to.
+     * @return The text of the bytes between the positions.
+     */
+    private String decode(long start, long end) {
+        byte[] bytes = new byte[(int) (end - start)];
+        try {
+            int read, length = 0;
+            while (length < bytes.length && (read = body.read(start + length, bytes, length,
+                    bytes.length - length)) > 0)
+                length += read;
+        } catch (IOException e) {
+            return "";
+        }
+        return new String(bytes, encoding.charset);
+    }
+
+    /**
+     * Find the next match of a text after the last match or the top of the view, ignoring the case of ASCII
+     * letters in charsets of one byte code units, and scroll to it. The body is searched on a background thread.
+     * @param query The text to find.
+     */
+    private void find(String query) {
+        if (query.isEmpty())
+            return;
+        Encoding searchedEncoding = encoding;
+        byte[] pattern = query.getBytes(searchedEncoding.charset);
+        long[] visible = lineBounds(firstVisibleLine());
+        long from = (matchStart >= 0)? matchStart + 1 : (visible != null)? visible[0] : 0;
+        SpillSink searched = body;
+        int searchGeneration = generation;
+        statusLabel.setText("Searching...");
+        Thread searcher = new Thread(() -> {
+            long found = search(searched, searchedEncoding, pattern, from, searched.size());
+            if (found < 0)
+                found = search(searched, searchedEncoding, pattern, 0,
+                        Math.min(searched.size(), from + pattern.length - 1));
+            long match = found;
+            if (match >= 0)
+                waitForIndex(match, searchGeneration);
+            SwingUtilities.invokeLater(() -> {
+                if (searchGeneration != generation)
+                    return;
+                if (match < 0) {
+                    matchStart = matchEnd = -1;
+                    statusLabel.setText("Not found");
+                    lines.repaint();
+                    return;
+                }
+                matchStart = match;
+                matchEnd = match + pattern.length;
+                int line = lineAt(match);
+                statusLabel.setText("Line " + (lineNumber(line) + 1));
+                scrollToLine(line);
+                lines.repaint();
+            });
+        }, "body-search");
+        searcher.setDaemon(true);
+        searcher.start();
+    }
+
+    /**
+     * @return The first shown line which is visible.
+     */
+    private int firstVisibleLine() {
+        return Math.min(lineCount() - 1, Math.max(0, scrollPane.getViewport().getViewPosition().y
+                / lines.lineHeight()));
+    }
+
+    /**
+     * Search a part of a body for some bytes which start at a code unit. The case of ASCII letters is ignored if
+     * each code unit is one byte.
+     * @param body The body to search.
+     * @param encoding How the text of the body is laid out in bytes.
+     * @param pattern The bytes to find.
+     * @param from The position to search from.
+     * @param to The position the match has to start before.
+     * @return The position of the first match, or -1 if there is none.
+     */
+    private static long search(SpillSink body, Encoding encoding, byte[] pattern, long from, long to) {
+        int unit = encoding.unit;
+        from = Math.max(encoding.start, from);
+        from += Math.floorMod(encoding.start - from, unit); // Start at a code unit
+        byte[] block = new byte[BLOCK_SIZE + pattern.length];
+        try {
+            for (long position = from; position < to; position += BLOCK_SIZE) {
+                int read, length = 0;
+                while (length < block.length && (read = body.read(position + length, block, length,
+                        block.length - length)) > 0)
+                    length += read;
+                int last = (int) Math.min(length - pattern.length, to - position - 1);
+                outer:
+                for (int i = 0; i <= last; i += unit) {
+                    for (int j = 0; j < pattern.length; j++)
+                        if (block[i + j] != pattern[j] && (unit > 1 || lower(block[i + j]) != lower(pattern[j])))
+                            continue outer;
+                    return position + i;
+                }
+            }
+        } catch (IOException ignored) {}
+        return -1;
+    }
+
+    /**
+     * @param b A byte.
+     * @return The byte in lower case if it is an ASCII letter.
+     */
+    private static byte lower(byte b) {
+        return (b >= 'A' && b <= 'Z')? (byte) (b + 32) : b;
+    }
+
+    /**
+     * Wait until the line which holds a position of the body is indexed.
+     * @param position The position.
+     * @param bodyGeneration The generation of the body.
+     */
+    private void waitForIndex(long position, int bodyGeneration) {
+        synchronized (indexLock) {
+            while (generation == bodyGeneration && !indexed && (lineCount == 0 || starts[lineCount - 1] <= position)) {
+                try {
+                    indexLock.wait();
+                } catch (InterruptedException e) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Scroll to a line of the body.
+     * @param input The number of the line, starting from one.
+     */
+    private void goToLine(String input) {
+        int bodyLine;
+        try {
+            bodyLine = Integer.parseInt(input.trim()) - 1;
+        } catch (NumberFormatException e) {
+            statusLabel.setText("Not a line number");
+            return;
+        }
+        int line = shownLine(Math.max(0, bodyLine));
+        if (line >= lineCount()) {
+            statusLabel.setText("There are " + lineNumber(lineCount()) + " lines" + (indexed? "" : " so far"));
+            return;
+        }
+        scrollToLine(line);
+    }
+
+    /**
+     * Scroll so a shown line is near the top of the view.
+     * @param line The shown line.
+     */
+    private void scrollToLine(int line) {
+        Rectangle view = scrollPane.getViewport().getViewRect();
+        int y = Math.max(0, line * lines.lineHeight() - view.height / 3);
+        int x = view.x;
+        if (matchStart >= 0 && lineAt(matchStart) == line) { // Bring the match into view too
+            long[] bounds = lineBounds(line);
+            FontMetrics metrics = lines.getFontMetrics(lines.getFont());
+            int matchX = metrics.stringWidth(decode(bounds[0], matchStart).replace("\t", "    "));
+            if (matchX < view.x || matchX > view.x + view.width - 20)
+                x = Math.max(0, matchX - view.width / 3);
+        }
+        scrollPane.getViewport().setViewPosition(new Point(x, Math.min(y, Math.max(0,
+                lines.getPreferredSize().height - view.height))));
+    }
+
+    /**
+     * The class Encoding tells how the text of a body is laid out in bytes: how many bytes each code unit takes,
+     * how a line break looks and where the text starts after a byte order mark. A charset which finds its byte
+     * order from the mark, like UTF-16, is replaced by the charset of that byte order, so any line can be decoded
+     * on its own.
+     */
+    private static class Encoding {
+
+        private final Charset charset; // The charset to decode a part of the body with
+        private final int unit; // The number of bytes of a code unit
+        private final byte[] newline; // The code unit of '\n'
+        private final byte[] carriageReturn; // The code unit of '\r'
+        private final int start; // The number of bytes of the byte order mark the body starts with
+        private final boolean littleEndian; // Shows if the low byte of a code unit comes first
+
+        private Encoding(SpillSink body, Charset charset) {
+            byte[] mark = new byte[4];
+            int length = 0;
+            try {
+                int read;
+                while (length < mark.length && (read = body.read(length, mark, length, mark.length - length)) > 0)
+                    length += read;
+            } catch (IOException ignored) {} // The indexer tells the body could not be read
+            int start = 0;
+            if (charset.name().equals("UTF-16")) {
+                boolean littleEndian = length >= 2 && (mark[0] & 0xff) == 0xff && (mark[1] & 0xff) == 0xfe;
+                if (littleEndian || (length >= 2 && (mark[0] & 0xff) == 0xfe && (mark[1] & 0xff) == 0xff))
+                    start = 2;
+                charset = littleEndian? StandardCharsets.UTF_16LE : StandardCharsets.UTF_16BE;
+            }
+            else if (charset.name().equals("UTF-32")) {
+                boolean littleEndian = length == 4 && (mark[0] & 0xff) == 0xff && (mark[1] & 0xff) == 0xfe
+                        && mark[2] == 0 && mark[3] == 0;
+                if (littleEndian || (length == 4 && mark[0] == 0 && mark[1] == 0 && (mark[2] & 0xff) == 0xfe
+                        && (mark[3] & 0xff) == 0xff))
+                    start = 4;
+                charset = Charset.forName(littleEndian? "UTF-32LE" : "UTF-32BE");
+            }
+            this.charset = charset;
+            this.start = start;
+            byte[] newlines = "\n".getBytes(charset), returns = "\r".getBytes(charset);
+            unit = "\n\n".getBytes(charset).length - newlines.length; // Leaves out a mark the encoder may add
+            newline = Arrays.copyOfRange(newlines, newlines.length - unit, newlines.length);
+            carriageReturn = Arrays.copyOfRange(returns, returns.length - unit, returns.length);
+            littleEndian = newline[0] == '\n' && unit > 1;
+        }
+
+        /**
+         * @param block Some bytes of the body.
+         * @param i The position of a code unit in the bytes.
+         * @param codeUnit A code unit.
+         * @return True if the code unit at the position is the given one.
+         */
+        private boolean is(byte[] block, int i, byte[] codeUnit) {
+            for (int j = 0; j < unit; j++)
+                if (block[i + j] != codeUnit[j])
+                    return false;
+            return true;
+        }
+
+        /**
+         * @param block Some bytes of the body.
+         * @param i The position of a code unit in the bytes.
+         * @return True if a character starts at the code unit, so a line can be wrapped there.
+         */
+        private boolean startsCharacter(byte[] block, int i) {
+            if (unit == 1) // Not a UTF-8 continuation byte
+                return (block[i] & 0xc0) != 0x80;
+            if (unit == 2) // Not the low half of a surrogate pair
+                return (block[littleEndian? i + 1 : i] & 0xfc) != 0xdc;
+            return true;
+        }
+    }
+
+    /**
+     * The class Lines paints the visible lines of the body.
+     */
+    private class Lines extends JComponent implements Scrollable {
+
+        private Lines() {
+            setFont(new Font(Font.MONOSPACED, Font.PLAIN, 12));
+            setOpaque(true);
+        }
+
+        /**
+         * @return The height of a line in pixels.
+         */
+        private int lineHeight() {
+            return getFontMetrics(getFont()).getHeight();
+        }
+
+        /**
+         * @return The width of a character in pixels.
+         */
+        private int charWidth() {
+            return getFontMetrics(getFont()).charWidth('m');
+        }
+
+        @Override
+        public Dimension getPreferredSize() {
+            int longest;
+            synchronized (indexLock) {
+                longest = longestLine;
+            }
+            return new Dimension(Math.max(100, (longest + 2) * charWidth()), Math.max(1, lineCount()) * lineHeight());
+        }
+
+        @Override
+        protected void paintComponent(Graphics g) {
+            Rectangle clip = g.getClipBounds();
+            g.setColor(BodyViewer.this.getBackground());
+            g.fillRect(clip.x, clip.y, clip.width, clip.height);
+            FontMetrics metrics = g.getFontMetrics(getFont());
+            int height = lineHeight();
+            int first = Math.max(0, clip.y / height);
+            int last = Math.min(lineCount() - 1, (clip.y + clip.height) / height);
+            for (int line = first; line <= last; line++) {
+                String text = text(line);
+                int y = line * height;
+                long[] bounds = lineBounds(line);
+                if (matchStart >= 0 && bounds != null && matchStart < bounds[1] && matchEnd > bounds[0]) {
+                    int from = metrics.stringWidth(decode(bounds[0], Math.max(bounds[0], matchStart))
+                            .replace("\t", "    "));
+                    int to = metrics.stringWidth(decode(bounds[0], Math.min(bounds[1], matchEnd))
+                            .replace("\t", "    "));
+                    g.setColor(Color.YELLOW);
+                    g.fillRect(4 + from, y, Math.max(2, to - from), height);
+                }
+                g.setColor(BodyViewer.this.getForeground());
+                g.drawString(text, 4, y + metrics.getAscent());
+            }
+        }
+
+        @Override
+        public Dimension getPreferredScrollableViewportSize() {
+            return getPreferredSize();
+        }
+
+        @Override
+        public int getScrollableUnitIncrement(Rectangle visibleRect, int orientation, int direction) {
+            return (orientation == SwingConstants.VERTICAL)? lineHeight() : charWidth() * 4;
+        }
+
+        @Override
+        public int getScrollableBlockIncrement(Rectangle visibleRect, int orientation, int direction) {
+            return (orientation == SwingConstants.VERTICAL)? Math.max(lineHeight(), visibleRect.height - lineHeight())
+                    : visibleRect.width / 2;
+        }
+
+        @Override
+        public boolean getScrollableTracksViewportWidth() {
+            return getParent() != null && getParent().getWidth() > getPreferredSize().width;
+        }
+
+        @Override
+        public boolean getScrollableTracksViewportHeight() {
+            return getParent() != null && getParent().getHeight() > getPreferredSize().height;
+        }
+    }
+
+    /**
+     * The class LineNumbers paints the numbers of the visible lines next to them.
+     */
+    private class LineNumbers extends JComponent {
+
+        private LineNumbers() {
+            setFont(new Font(Font.MONOSPACED, Font.PLAIN, 11));
+        }
+
+        @Override
+        public Dimension getPreferredSize() {
+            int digits = Math.max(3, String.valueOf(lineNumber(lineCount())).length());
+            return new Dimension(getFontMetrics(getFont()).charWidth('0') * digits + 10,
+                    lines.getPreferredSize().height);
+        }
+
+        @Override
+        protected void paintComponent(Graphics g) {
+            Rectangle clip = g.getClipBounds();
+            g.setColor(BodyViewer.this.getBackground().darker());
+            g.fillRect(clip.x, clip.y, clip.width, clip.height);
+            g.setColor(Color.GRAY);
+            FontMetrics metrics = g.getFontMetrics(getFont());
+            int height = lines.lineHeight();
+            int first = Math.max(0, clip.y / height);
+            int last = Math.min(lineCount() - 1, (clip.y + clip.height) / height);
+            for (int line = first; line <= last; line++) {
+                if (isWrapped(line))
+                    continue;
+                String number = String.valueOf(lineNumber(line) + 1);
+                g.drawString(number, getWidth() - 5 - metrics.stringWidth(number),
+                        line * height + (height + metrics.getAscent() - metrics.getDescent()) / 2);
+            }
+        }
+    }
+}
@@ -0,0 +1,192 @@
+package Insomnia.Graphics;
+
+import Insomnia.Connection.Connection;
+import Insomnia.Connection.HttpCache;
+import Insomnia.Connection.HttpClientEngine;
+import Insomnia.Connection.HttpEngine;
+import Insomnia.Connection.ProgressSink;
+import Insomnia.Connection.SpillSink;
+import Insomnia.Connection.StreamUtils;
+
+import javax.swing.*;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+/**
+ * The class ConnectionMain is a class to work parallel with the GUI part and manage
+ * the new created request. It sends the focused request with the settings of the request setting
+ * panel and shows its response on the response panel.
+ * The settings are read when it's created, on the event dispatch thread. The request is sent and its response
+ * is received and collected on a background thread, which publishes how much of the body has been received
+ * every now and then, and the response panel is only changed from process and done.
+ * A request which is being sent can be cancelled with abort.
+ *
+ * @author Negar Movaghatian
+ */
+public class ConnectionMain extends SwingWorker<Void, Long> {
+
+    private final static int MEMORY_LIMIT = 8 * 1024 * 1024; // The most bytes of a body kept in memory
+    private final static int PROGRESS_INTERVAL = 100; // The milliseconds between two updates of the progress
+
+    private MainWindow mainWindow; // The main window to get information from
+    private ResponsePanel responsePanel; // The response panel to show the response on
+    private Connection connection; // The request which is sent
+    private boolean cacheResponses; // Shows if the request is sent through the response cache
+    private SpillSink body; // The sink which keeps the body of the response
+    private ProgressSink progress; // The sink which counts the received bytes and can cancel the exchange
+    private long startTime; // The time the request was sent at
+
+    /**
+     * Create a new Connection main. The focused request is updated with the settings of the request setting
+     * panel, so this has to be created on the event dispatch thread.
+     * @param mainWindow The main window which this class gets information from.
+     */
+    public ConnectionMain(MainWindow mainWindow) {
+        this.mainWindow = mainWindow;
+        RequestSettingPanel settingPanel = mainWindow.getRequestSettingPanel();
+        responsePanel = mainWindow.getResponsePanel();
+
+        // Update the focused request according to the last changes on request setting panel
+        connection = mainWindow.getRequestPanel().getFocusedRequest();
+        connection.updateRequest(mainWindow.followRedirects(), putQueryItems(settingPanel.getURL(), settingPanel.getQueries()),
+                settingPanel.getMethod(), settingPanel.uploadBinary(), settingPanel.getBinaryFilePath(),
+                settingPanel.getFormData(), settingPanel.getHeaders(), new HashMap<>());
+        connection.setHttpVersion(mainWindow.getHttpVersion());
+        cacheResponses = mainWindow.isCacheResponses();
+        body = new SpillSink(MEMORY_LIMIT);
+        progress = new ProgressSink();
+        startTime = System.nanoTime();
+        responsePanel.showProgress(0, -1, 0);
+    }
+
+    /**
+     * Send the request and wait for its response, publishing how much of it has been received meanwhile.
+     */
+    @Override
+    protected Void doInBackground() {
+        HttpEngine engine = HttpClientEngine.getDefault();
+        if (cacheResponses) {
+            try {
+                engine = HttpCache.getDefault();
+            } catch (IOException e) {
+                System.err.println("Could not open the response cache: " + e.getMessage());
+            }
+        }
+        startTime = System.nanoTime();
+        connection.runConnection(engine, progress, body);
+        CompletableFuture<?> response = connection.getPendingResponse();
+        while (!response.isDone()) {
+            try {
+                response.get(PROGRESS_INTERVAL, TimeUnit.MILLISECONDS);
+            } catch (TimeoutException e) {
+                publish(progress.getReceived());
+            } catch (InterruptedException | ExecutionException | CancellationException e) {
+                break; // The failure is reported by printResponseInfo
+            }
+        }
+        connection.printResponseInfo();
+        if (connection.getErrors().equals(""))
+            System.out.printf("\nResponse Time: %.2f second(s)\n\n", (System.nanoTime() - startTime) / 1e9);
+        return null;
+    }
+
+    /**
+     * Show how much of the response has been received. Only the latest count matters, since the counts
+     * published since the last call are shown at once.
+     * @param chunks The counts of received bytes published since the last call.
+     */
+    @Override
+    protected void process(List<Long> chunks) {
+        if (isDone())
+            return;
+        responsePanel.showProgress(chunks.get(chunks.size() - 1), progress.getExpected(),
+                System.nanoTime() - startTime);
+    }
+
+    /**
+     * Show the response, or the errors of the request, on the response panel.
+     */
+    @Override
+    protected void done() {
+        mainWindow.getRequestSettingPanel().sendFinished();
+        String failure = null; // The error of the background work, if it failed
+        try {
+            get();
+        } catch (InterruptedException | ExecutionException e) {
+            failure = "Could not send the request: " + ((e.getCause() != null)? e.getCause() : e).getMessage();
+            System.err.println(failure);
+        }
+        long elapsedTime = System.nanoTime() - startTime;
+        String time = String.format("%.2fs", elapsedTime / 1_000_000_000.0);
+        if (progress.isCancelled()) { // The request was cancelled; show what had been received until then
+            body.release();
+            responsePanel.editStatusBar("CANCELLED", time, StreamUtils.formatSize(
+                    progress.getReceived()));
+            responsePanel.setWireSize(null, null);
+            responsePanel.setRawData("The request was cancelled.");
+            responsePanel.setHeaderValues(new HashMap<>());
+            responsePanel.resetPreview();
+        }
+        else if (failure != null || !connection.getErrors().equals("")) { // Print the error messages
+            body.release();
+            responsePanel.editStatusBar("ERROR", "0.00s", "0.0B");
+            responsePanel.setWireSize(null, null);
+            responsePanel.setRawData((failure != null)? failure : connection.getErrors());
+            responsePanel.setHeaderValues(new HashMap<>());
+            responsePanel.resetPreview();
+        }
+        else { // The connection ran successfully; print response information
+            responsePanel.setHeaderValues(connection.getHeaders());
+            responsePanel.setRawData(body, connection.getContentType());
+            if (connection.isImage())
+                responsePanel.setPreview(connection, body);
+            else
+                responsePanel.resetPreview(connection);
+            responsePanel.editStatusBar(connection.getResponseMessage(), time, connection.getResponseSize(),
+                    connection.getResponse().getTimings(), connection.getResponse().getCacheStatus());
+            responsePanel.setWireSize(connection.getWireSize(), connection.getResponse().getContentEncoding());
+        }
+    }
+
+    /**
+     * Cancel the request. The exchange is aborted and the response panel shows the request as cancelled.
+     * This has to be called on the event dispatch thread.
+     */
+    public void abort() {
+        progress.cancel();
+        connection.cancel();
+    }
+
+    /**
+     * Get query items as HashMap and add them in proper format to the end of the URL.
+     * @param url The raw url to append query items to.
+     * @param query The list of the queries to add to the url.
+     * @return The final URL with query items appended to its end.
+     */
+    private static String putQueryItems(String url, HashMap<String, String> query) {
+        if (query.size() !=0 ) {
+            url = url.concat("?");
+            int counter = 0;
+            for (String queryKey : query.keySet()) {
+                for (int i=0; i<queryKey.length(); i++) { // Add name
+                    char c = queryKey.charAt(i);
+                    url = url.concat((c == ' ')? "%20" : ("" + c));
+                }
+                url = url.concat("=");
+                for (int i=0; i<query.get(queryKey).length(); i++) { // Add value
+                    char c = query.get(queryKey).charAt(i);
+                    url = url.concat((c == ' ')? "%20" : ("" + c));
+                }
+                if (++counter != query.size())
+                    url = url.concat("&");
+            }
+        }
+        return url;
+    }
+}
@@ -0,0 +1,49 @@
+package Insomnia.Graphics;
+
+import javax.swing.*;
+import java.awt.*;
+import java.lang.management.ManagementFactory;
+
+/**
+ * The class FirstFrameProbe opens the main window just like Main does, which loads the saved requests, and
+ * prints 'first frame' as soon as the window is painted for the first time, so a benchmark can measure the time
+ * to the first frame. It is also the training run of the GUI archive of scripts/cds-archive.sh.
+ * Usage: java Insomnia.Graphics.FirstFrameProbe [--exit]
+ *
+ * @author Negar Movaghatian
+ */
+public class FirstFrameProbe {
+
+    /**
+     * Open the main window and report its first frame.
+     * @param args '--exit' to exit right after the first frame, without saving anything.
+     */
+    public static void main(String[] args) {
+        if (GraphicsEnvironment.isHeadless()) {
+            System.out.println("headless");
+            return;
+        }
+        boolean exit = args.length > 0 && args[0].equals("--exit");
+        MainWindow insomnia = new MainWindow();
+
+        // A component on top of everything which is painted along with the first frame
+        JComponent marker = new JComponent() {
+            private boolean painted; // Shows if the first frame was reported
+
+            @Override
+            protected void paintComponent(Graphics g) {
+                if (painted)
+                    return;
+                painted = true;
+                System.out.printf("first frame %d ms after the JVM started\n",
+                        ManagementFactory.getRuntimeMXBean().getUptime());
+                System.out.flush();
+                if (exit)
+                    SwingUtilities.invokeLater(() -> System.exit(0));
+            }
+        };
+        marker.setBounds(0, 0, 1, 1);
+        insomnia.getLayeredPane().add(marker, JLayeredPane.DRAG_LAYER);
+        insomnia.showWindow();
+    }
+}
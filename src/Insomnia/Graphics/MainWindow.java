@@ -1,14 +1,16 @@
 package Insomnia.Graphics;
 
-import Insomnia.Connection.StreamUtils;
+import Insomnia.Connection.HttpClientEngine;
 
 import javax.imageio.ImageIO;
 import javax.swing.*;
 import java.awt.*;
 import java.awt.event.*;
 import java.awt.image.BufferedImage;
-import java.io.IOException;
+import java.io.*;
+import java.lang.management.ManagementFactory;
 import java.util.HashMap;
+import java.util.Scanner;
 
 /**
  * This class provides a GUI for the main window of this application.
@@ -19,6 +21,9 @@ import java.util.HashMap;
  */
 public class MainWindow extends JFrame {
 
+    private final static String SETTINGS_FILE = "." + File.separator + "data" + File.separator + "Settings.bin"; // The
+    // file the settings of the window are saved in
+
     private String theme; // The theme of this program, can be either dark or light
     private Dimension lastDimension; // The last Dimension of the window before fullscreen
     private Point lastLocation; // The last Location of the window before fullscreen
@@ -28,6 +33,12 @@ public class MainWindow extends JFrame {
     private boolean hideInTray; // Determines if this window should be hidden in system tray after pressing
     // Quit or should exit completely
     private boolean followRedirects; // Shows if the user wants the program to follow redirects automatically or not
+    private int maxIdleConnections; // The most idle connections the connection pool keeps
+    private int idleTimeout; // The seconds an idle connection is kept in the connection pool
+    private String httpVersion; // The HTTP version requests are sent with, null to let the client negotiate it
+    private boolean cacheResponses; // Shows if the user wants requests sent through the response cache
+    private int lastRequest; // The index of the request which was focused when the program was closed, or -1
+    private boolean painted; // Shows if the first frame of this window was painted
 
     /**
      * Create a new application window, select the proper Look and Feel and
@@ -71,10 +82,14 @@ public class MainWindow extends JFrame {
         theme = "light";
         followRedirects = false;
         hideInTray = false;
+        maxIdleConnections = HttpClientEngine.DEFAULT_MAX_IDLE_CONNECTIONS;
+        idleTimeout = HttpClientEngine.DEFAULT_IDLE_TIMEOUT;
         requestSettingPanel = new RequestSettingPanel(this);
         responsePanel = new ResponsePanel(this);
         requestPanel = new RequestPanel(this);
-        StreamUtils.readSettings(this);
+        lastRequest = -1;
+        readSettings();
+        requestPanel.loadRequests(lastRequest);
         setTheme(theme);
         initiateMenuBar();
         add(requestPanel, BorderLayout.WEST);
@@ -89,6 +104,20 @@ public class MainWindow extends JFrame {
         setVisible(true);
     }
 
+    /**
+     * Paint this window, and print how long after the start of the program the first frame was painted, so a
+     * slow start can be noticed.
+     * @param g The graphics to paint with.
+     */
+    @Override
+    public void paint(Graphics g) {
+        super.paint(g);
+        if (!painted) {
+            painted = true;
+            System.out.printf("Time to first frame: %d ms\n", ManagementFactory.getRuntimeMXBean().getUptime());
+        }
+    }
+
     /**
      * Set the theme of this window and all its components according to user's choice.
      * It can either be 'dark' or 'light'.
@@ -184,6 +213,62 @@ public class MainWindow extends JFrame {
         this.hideInTray = hideInTray;
     }
 
+    /**
+     * Set how the connection pool keeps idle connections. The pool can't be changed once a request is sent,
+     * so the new settings may only apply after the program is started again.
+     * @param maxIdleConnections The most idle connections to keep, or zero to keep all of them.
+     * @param idleTimeout The seconds to keep an idle connection for.
+     * @return True if the settings apply now and false if they apply after a restart.
+     */
+    public boolean setConnectionPool(int maxIdleConnections, int idleTimeout) {
+        this.maxIdleConnections = maxIdleConnections;
+        this.idleTimeout = idleTimeout;
+        return HttpClientEngine.configurePool(maxIdleConnections, idleTimeout);
+    }
+
+    /**
+     * @param httpVersion The HTTP version to send requests with, Connection.HTTP_1_1 or Connection.HTTP_2, or null
+     *                    to let the client negotiate it.
+     */
+    public void setHttpVersion(String httpVersion) {
+        this.httpVersion = httpVersion;
+    }
+
+    /**
+     * @return The HTTP version requests are sent with, or null to let the client negotiate it.
+     */
+    public String getHttpVersion() {
+        return httpVersion;
+    }
+
+    /**
+     * @param cacheResponses True to send requests through the response cache.
+     */
+    public void setCacheResponses(boolean cacheResponses) {
+        this.cacheResponses = cacheResponses;
+    }
+
+    /**
+     * @return True if requests are sent through the response cache.
+     */
+    public boolean isCacheResponses() {
+        return cacheResponses;
+    }
+
+    /**
+     * @return The most idle connections the connection pool keeps.
+     */
+    public int getMaxIdleConnections() {
+        return maxIdleConnections;
+    }
+
+    /**
+     * @return The seconds an idle connection is kept in the connection pool.
+     */
+    public int getIdleTimeout() {
+        return idleTimeout;
+    }
+
     /**
      * @return the follow redirects state.
      */
@@ -269,6 +354,45 @@ public class MainWindow extends JFrame {
         }
     }
 
+    /**
+     * Save the last settings applied on this app.
+     */
+    private void saveSettings() {
+        String content = followRedirects + " " + hideInTray + " " + theme + " " + maxIdleConnections + " "
+                + idleTimeout + " " + ((httpVersion != null)? httpVersion : "auto") + " " + cacheResponses + " "
+                + requestPanel.getFocusedIndex();
+        new File(SETTINGS_FILE).getParentFile().mkdirs();
+        try (BufferedWriter output = new BufferedWriter(new FileWriter(SETTINGS_FILE))) {
+            output.write(content);
+            output.flush();
+        } catch (IOException exception) {
+            JOptionPane.showMessageDialog(null, "Could not save user settings.",
+                    "Failed to Save File", JOptionPane.ERROR_MESSAGE);
+        }
+    }
+
+    /**
+     * Read the last settings before closing the program.
+     */
+    private void readSettings() {
+        try (FileInputStream input = new FileInputStream(SETTINGS_FILE)) {
+            Scanner scanner = new Scanner(input);
+            setFollowRedirects(scanner.nextBoolean());
+            setHideInTray(scanner.nextBoolean());
+            setTheme(scanner.next());
+            if (scanner.hasNextInt()) // Settings saved before the connection pool could be set don't have it
+                setConnectionPool(scanner.nextInt(), scanner.nextInt());
+            if (scanner.hasNext()) { // Nor do settings saved before the HTTP version could be chosen
+                String httpVersion = scanner.next();
+                setHttpVersion(httpVersion.equals("auto")? null : httpVersion);
+            }
+            if (scanner.hasNextBoolean()) // Nor do settings saved before responses could be cached
+                setCacheResponses(scanner.nextBoolean());
+            if (scanner.hasNextInt()) // Nor do settings saved before the focused request was kept
+                lastRequest = scanner.nextInt();
+        } catch (IOException exception) {}
+    }
+
     /**
      * Handle the exit operation of this window. It depends on
      * whether the window should hide in system tray or the program should end when the
@@ -277,7 +401,7 @@ public class MainWindow extends JFrame {
     private void handleExit() {
         TrayIcon icon;
         SystemTray systemTray;
-        StreamUtils.saveSettings(this);
+        saveSettings();
         requestPanel.saveAllRequests();
         if (hideInTray) {
             if (SystemTray.isSupported()) {
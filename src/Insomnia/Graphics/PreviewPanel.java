@@ -0,0 +1,263 @@
+package Insomnia.Graphics;
+
+import Insomnia.Connection.SpillSink;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import javax.imageio.stream.ImageInputStreamImpl;
+import javax.swing.*;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * The class PreviewPanel shows a response which is an image, scaled down to fit the panel. The image is decoded
+ * on a background thread and only every few pixels of a large image are read, so it is never held at its full
+ * size. A large image is first shown from a coarse pass and refined once the pass which fits the panel is done.
+ * The last few previews are kept by their request, so a request which is selected again shows its preview at
+ * once.
+ *
+ * @author Negar Movaghatian
+ */
+public class PreviewPanel extends JPanel {
+
+    private final static int CACHED_PREVIEWS = 8; // The most previews kept
+    private final static long LARGE_IMAGE = 4_000_000; // The pixels of an image which is shown coarsely first
+    private final static int COARSE_FACTOR = 4; // How much coarser the first pass of a large image is
+
+    private final static ExecutorService DECODER = Executors.newSingleThreadExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "preview-decoder");
+        thread.setDaemon(true);
+        return thread;
+    }); // The thread images are decoded on
+
+    private final LinkedHashMap<Object, Preview> cache; // The previews by their request, the least recent first
+    private Preview preview; // The preview which is shown, or null
+    private String message; // A message which is shown instead of a preview, or null
+    private volatile int generation; // Counts the previews asked for, so earlier work can be told apart
+    private volatile ImageReader reader; // The reader which is decoding an image, or null
+
+    /**
+     * Create a new preview panel which shows nothing.
+     */
+    public PreviewPanel() {
+        cache = new LinkedHashMap<Object, Preview>(CACHED_PREVIEWS, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Object, Preview> eldest) {
+                return size() > CACHED_PREVIEWS;
+            }
+        };
+    }
+
+    /**
+     * Decode the body of a response on a background thread and show it once it is decoded.
+     * @param request The request the response belongs to, to keep the preview by.
+     * @param body The body of the response.
+     * @param size The size to fit the image in.
+     */
+    public void show(Object request, SpillSink body, Dimension size) {
+        int decodeGeneration = ++generation;
+        cache.remove(request);
+        preview = null;
+        message = "Loading...";
+        repaint();
+        abort();
+        int width = Math.max(1, size.width), height = Math.max(1, size.height);
+        DECODER.execute(() -> decode(request, body, width, height, decodeGeneration));
+    }
+
+    /**
+     * Show the preview kept for a request, or nothing if there is none.
+     * @param request The request.
+     */
+    public void show(Object request) {
+        generation++;
+        abort();
+        preview = cache.get(request);
+        message = null;
+        repaint();
+    }
+
+    /**
+     * Show nothing and forget the preview kept for a request.
+     * @param request The request, or null to only show nothing.
+     */
+    public void clear(Object request) {
+        generation++;
+        abort();
+        if (request != null)
+            cache.remove(request);
+        preview = null;
+        message = null;
+        repaint();
+    }
+
+    /**
+     * Stop decoding the last image, since it is not wanted anymore and its body may be let go.
+     */
+    private void abort() {
+        ImageReader current = reader;
+        if (current != null)
+            current.abort();
+    }
+
+    /**
+     * Decode an image, with a coarse pass first if it is large, and publish each pass to the panel.
+     * @param request The request the image belongs to.
+     * @param body The bytes of the image.
+     * @param width The width to fit the image in.
+     * @param height The height to fit the image in.
+     * @param decodeGeneration The generation of the preview.
+     */
+    private void decode(Object request, SpillSink body, int width, int height, int decodeGeneration) {
+        try (ImageInputStream input = new BodyInputStream(body)) {
+            Iterator<ImageReader> readers = ImageIO.getImageReaders(input);
+            if (!readers.hasNext())
+                throw new IOException("The format of the image is not supported");
+            ImageReader imageReader = readers.next();
+            reader = imageReader;
+            try {
+                if (decodeGeneration != generation) // Not wanted anymore before it could be aborted
+                    return;
+                imageReader.setInput(input, true, true);
+                int sourceWidth = imageReader.getWidth(0), sourceHeight = imageReader.getHeight(0);
+                int step = Math.max(1, (int) Math.max(Math.ceil((double) sourceWidth / width),
+                        Math.ceil((double) sourceHeight / height))); // Read one of every few pixels to fit
+                if ((long) sourceWidth * sourceHeight >= LARGE_IMAGE) {
+                    BufferedImage coarse = read(imageReader, step * COARSE_FACTOR);
+                    if (coarse == null || !publish(request, new Preview(coarse, sourceWidth, sourceHeight),
+                            decodeGeneration, false))
+                        return;
+                }
+                BufferedImage image = read(imageReader, step);
+                if (image != null)
+                    publish(request, new Preview(image, sourceWidth, sourceHeight), decodeGeneration, true);
+            } finally {
+                reader = null;
+                imageReader.dispose();
+            }
+        } catch (IOException | RuntimeException e) {
+            if (decodeGeneration != generation) // The body was let go since the image is not wanted anymore
+                return;
+            System.err.println("Could not display image: " + e.getMessage());
+            SwingUtilities.invokeLater(() -> {
+                if (decodeGeneration == generation) {
+                    message = "Could not display image";
+                    repaint();
+                }
+            });
+        }
+    }
+
+    /**
+     * @param imageReader The reader of the image.
+     * @param step The number of pixels to skip between two read pixels, in both directions.
+     * @return The image, or null if the reader was aborted.
+     * @throws IOException If the image could not be decoded.
+     */
+    private static BufferedImage read(ImageReader imageReader, int step) throws IOException {
+        ImageReadParam param = imageReader.getDefaultReadParam();
+        param.setSourceSubsampling(step, step, 0, 0);
+        return imageReader.read(0, param);
+    }
+
+    /**
+     * Show a pass of a preview if it is still wanted, and keep it once it is final.
+     * @return False if another preview was asked for since, so the decoding should stop.
+     */
+    private boolean publish(Object request, Preview decoded, int decodeGeneration, boolean last) {
+        if (decodeGeneration != generation)
+            return false;
+        SwingUtilities.invokeLater(() -> {
+            if (decodeGeneration != generation)
+                return;
+            preview = decoded;
+            message = null;
+            if (last)
+                cache.put(request, decoded);
+            repaint();
+        });
+        return true;
+    }
+
+    @Override
+    protected void paintComponent(Graphics g) {
+        super.paintComponent(g);
+        if (preview == null) {
+            if (message != null) {
+                g.setColor(getForeground());
+                g.drawString(message, 10, 20);
+            }
+            return;
+        }
+
+        // Fit the image in the panel without making it larger than it is
+        double scale = Math.min(1, Math.min((double) getWidth() / preview.width,
+                (double) getHeight() / preview.height));
+        int width = Math.max(1, (int) (preview.width * scale)), height = Math.max(1, (int) (preview.height * scale));
+        Graphics2D g2 = (Graphics2D) g;
+        g2.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
+        g2.drawImage(preview.image, 0, 0, width, height, this);
+    }
+
+    /**
+     * A decoded preview and the size of the image it was decoded from.
+     */
+    private static class Preview {
+
+        private final BufferedImage image; // The decoded pixels
+        private final int width, height; // The size of the image
+
+        private Preview(BufferedImage image, int width, int height) {
+            this.image = image;
+            this.width = width;
+            this.height = height;
+        }
+    }
+
+    /**
+     * An image input stream which reads the body of a response where it is kept, in memory or in its temporary
+     * file, without copying it.
+     */
+    private static class BodyInputStream extends ImageInputStreamImpl {
+
+        private final SpillSink body; // The body to read
+        private final byte[] one = new byte[1]; // The buffer of read()
+
+        private BodyInputStream(SpillSink body) {
+            this.body = body;
+        }
+
+        @Override
+        public int read() throws IOException {
+            bitOffset = 0;
+            if (body.read(streamPos, one, 0, 1) <= 0)
+                return -1;
+            streamPos++;
+            return one[0] & 0xff;
+        }
+
+        @Override
+        public int read(byte[] b, int off, int len) throws IOException {
+            bitOffset = 0;
+            if (len == 0)
+                return 0;
+            int read = body.read(streamPos, b, off, len);
+            if (read > 0)
+                streamPos += read;
+            return read;
+        }
+
+        @Override
+        public long length() {
+            return body.size();
+        }
+    }
+}
@@ -1,18 +1,25 @@
 package Insomnia.Graphics;
 
 import Insomnia.Connection.Connection;
+import Insomnia.Connection.RequestStore;
 import Insomnia.Connection.StreamUtils;
 
 import javax.swing.*;
+import javax.swing.event.DocumentEvent;
+import javax.swing.event.DocumentListener;
 import java.awt.*;
 import java.util.ArrayList;
-import java.util.HashMap;
-import java.util.LinkedList;
+import java.util.List;
 
 /**
  * This class represents the left panel on the main window which
  * contains a list of the current requests. It is possible to add a new
  * request via this part.
+ * The requests are listed by their summaries in the index of the request store, and a saved request is only
+ * read when it's selected, so a collection of thousands of requests is listed at once. Only the visible rows
+ * of the list are painted, and the filter box above it narrows the list down by name, method or URL.
+ * The saved requests are loaded in the background once the window is created. The request which was focused
+ * when the program was closed is read first, and the rest are added to the list in batches.
  * The class RequestPanel is a child class of JPanel.
  *
  * @author Negar Movaghatian
@@ -20,9 +27,13 @@ import java.util.LinkedList;
  */
 public class RequestPanel extends JPanel {
 
-    private HashMap<JButton, Connection> requests; // A list of requests
-    private JPanel requestsPanel; // A Panel which contains all the requests of this window
-    private JButton focusedRequestButton; // The button(request) which is selected at the moment
+    private RequestListModel requests; // The list of requests
+    private JList<RequestItem> requestList; // The list which shows the requests of this window
+    private JTextField filterField; // The field to filter the requests with
+    private JPanel filterPanel; // The panel of the filter field and its label
+    private RequestItem focusedRequest; // The request which is selected at the moment
+    private RequestLoader loader; // The loader of the saved requests, or null if they were not loaded
+    private int savedCount; // The number of saved requests added to the list, which come before the new ones
     private MainWindow mainWindow; // The main window which has interaction with this panel
 
     /**
@@ -32,32 +43,38 @@ public class RequestPanel extends JPanel {
     public RequestPanel(MainWindow mainWindow) {
         setLayout(new BorderLayout());
         setPreferredSize(new Dimension(250, 700));
-        requests = new HashMap<>();
         this.mainWindow = mainWindow;
-        requestsPanel = new JPanel();
-        requestsPanel.setLayout(new BoxLayout(requestsPanel, BoxLayout.Y_AXIS));
-        add(requestsPanel, BorderLayout.CENTER);
+        requests = new RequestListModel();
+        requestList = new JList<>(requests);
+        requestList.setSelectionMode(ListSelectionModel.SINGLE_SELECTION);
+        requestList.setFixedCellHeight(40);
+        requestList.setCellRenderer(new RequestRenderer());
+        requestList.addListSelectionListener(e -> {
+            RequestItem selected = requestList.getSelectedValue();
+            if (!e.getValueIsAdjusting() && selected != null && selected != focusedRequest)
+                focus(selected);
+        });
+        JScrollPane scrollPane = new JScrollPane(requestList);
+        scrollPane.setBorder(null);
+        add(scrollPane, BorderLayout.CENTER);
         initiateButton();
         setTheme();
-        LoadRequests();
     }
 
     /**
      * Change the theme of this panel and its components to light or dark.
      */
     public void setTheme() {
-        if (mainWindow.getTheme().equals("light")) {
-            setBackground(Color.LIGHT_GRAY);
-            requestsPanel.setBackground(Color.LIGHT_GRAY);
-        }
-        else {
-            setBackground(new Color(80, 80, 80));
-            requestsPanel.setBackground(new Color(80, 80, 80));
-        }
+        Color background = (mainWindow.getTheme().equals("light"))? Color.LIGHT_GRAY : new Color(80, 80, 80);
+        setBackground(background);
+        requestList.setBackground(background);
+        filterPanel.setBackground(background);
+        filterField.setBackground((mainWindow.getTheme().equals("light"))? Color.WHITE : Color.DARK_GRAY);
+        requestList.repaint();
     }
 
     /**
-     * Create the 'Add request' button.
+     * Create the 'Add request' button and the filter box below it.
      */
     private void initiateButton() {
         JButton addRequest = new JButton("                   Add a new request");
@@ -69,7 +86,42 @@ public class RequestPanel extends JPanel {
 
         addRequest.addActionListener(e -> new RunTimeWindows(mainWindow).newRequest());
 
-        add(addRequest, BorderLayout.NORTH);
+        filterField = new JTextField();
+        filterField.setToolTipText("Filter the requests by name, method or URL");
+        filterField.setForeground(new Color(120, 100, 225));
+        filterField.setFont(new Font("Calibri", Font.PLAIN, 13));
+        filterField.setPreferredSize(new Dimension(200, 30));
+        JLabel filterLabel = new JLabel("  Filter  ");
+        filterLabel.setForeground(new Color(120, 100, 225));
+        filterLabel.setFont(new Font("Calibri", Font.PLAIN, 13));
+        filterField.getDocument().addDocumentListener(new DocumentListener() {
+            public void insertUpdate(DocumentEvent e) { filter(); }
+            public void removeUpdate(DocumentEvent e) { filter(); }
+            public void changedUpdate(DocumentEvent e) { filter(); }
+        });
+
+        filterPanel = new JPanel(new BorderLayout());
+        filterPanel.add(filterLabel, BorderLayout.WEST);
+        filterPanel.add(filterField, BorderLayout.CENTER);
+        JPanel top = new JPanel(new BorderLayout());
+        top.add(addRequest, BorderLayout.NORTH);
+        top.add(filterPanel, BorderLayout.SOUTH);
+        add(top, BorderLayout.NORTH);
+    }
+
+    /**
+     * Show the requests which match the text of the filter box, and keep the focused request selected if it's
+     * one of them.
+     */
+    private void filter() {
+        requests.setFilter(filterField.getText());
+        int index = requests.indexOf(focusedRequest);
+        if (index >= 0) {
+            requestList.setSelectedIndex(index);
+            requestList.ensureIndexIsVisible(index);
+        }
+        else
+            requestList.clearSelection();
     }
 
     /**
@@ -77,72 +129,114 @@ public class RequestPanel extends JPanel {
      * @param request The request to add.
      */
     public void addRequest(Connection request, String mode) {
-        if (!mode.equals("load") && !requests.isEmpty())
+        if (!mode.equals("load") && focusedRequest != null)
             saveLastRequest();
-        JButton requestButton = new JButton();
-        requestButton.setLayout(new BorderLayout());
-        JLabel name = new JLabel(request.getName());
-        JLabel method = new JLabel(request.getMethod());
-        name.setForeground(new Color(120, 100, 225));
-        method.setForeground(new Color(120, 100, 225));
-        requestButton.add(name, BorderLayout.WEST);
-        requestButton.add(method, BorderLayout.EAST);
-        requestButton.setMaximumSize(new Dimension(250, 40));
-        focusedRequestButton = requestButton;
-        requestButton.addActionListener(e -> {
+        RequestItem item = new RequestItem(null, request);
+        requests.add(item);
+        focusedRequest = item;
+        int index = requests.indexOf(item);
+        if (index >= 0) {
+            requestList.setSelectedIndex(index);
+            requestList.ensureIndexIsVisible(index);
+        }
+    }
+
+    /**
+     * Focus on a request: read it if it was never read, and show its settings and preview.
+     * @param item The request to focus on.
+     */
+    private void focus(RequestItem item) {
+        Connection request = item.load();
+        if (request == null) { // It could not be read; keep the last request focused
+            requestList.setSelectedIndex(requests.indexOf(focusedRequest));
+            return;
+        }
+        if (focusedRequest != null)
             saveLastRequest();
-            focusedRequestButton = requestButton;
-            mainWindow.getRequestSettingPanel().setProperties(request.getMethod(), request.getUrlString(),
-                    request.getFormData(), request.getRequestHeaders(), request.getQuery(),
-                    request.getBinaryFileName());
-        });
-        requestsPanel.add(requestButton);
-        requests.put(requestButton, request);
-        requestsPanel.revalidate();
+        focusedRequest = item;
+        mainWindow.getRequestSettingPanel().setProperties(request.getMethod(), request.getUrlString(),
+                request.getFormData(), request.getRequestHeaders(), request.getQuery(),
+                request.getBinaryFileName());
+        mainWindow.getResponsePanel().showPreview(request);
     }
 
     /**
      * Save the last selected request information.
      */
     public void saveLastRequest() {
+        Connection request = getFocusedRequest();
+        if (request == null)
+            return;
         RequestSettingPanel settingPanel = mainWindow.getRequestSettingPanel();
-        requests.get(focusedRequestButton).updateRequest(mainWindow.followRedirects(), settingPanel.getURL(),
+        request.updateRequest(mainWindow.followRedirects(), settingPanel.getURL(),
                 settingPanel.getMethod(), settingPanel.uploadBinary(), settingPanel.getBinaryFilePath(),
                 settingPanel.getFormData(), settingPanel.getHeaders(), settingPanel.getQueries());
     }
 
     /**
-     * Save all the requests before closing the program.
+     * Save all the requests before closing the program. The requests which were never selected are copied as
+     * they were saved. If the saved requests are still being loaded, this waits for them first.
      */
     public void saveAllRequests() {
-        if (!requests.isEmpty())
-            saveLastRequest();
-        StreamUtils.clearDirectory();
-        for (Connection request : requests.values()) {
-            StreamUtils.saveRequest(request);
-            try {
-                Thread.sleep(5);
-            } catch (InterruptedException e) {
-                e.printStackTrace();
-            }
-        }
+        if (!finishLoading()) // Saving now would lose the requests which could not be loaded
+            return;
+        saveLastRequest();
+        ArrayList<Object> saved = new ArrayList<>();
+        for (RequestItem item : requests.getAll())
+            saved.add((item.connection != null)? item.connection : item.entry);
+        StreamUtils.saveRequestItems(saved);
+    }
+
+    /**
+     * Start loading the requests which existed the last time the program was closed, in the background. Only
+     * their summaries are read, except for the one which was focused, which is read first and shown at once.
+     * @param focusedIndex The index of the request which was focused when the program was closed, or -1 to
+     *                     focus the last one.
+     */
+    public void loadRequests(int focusedIndex) {
+        loader = new RequestLoader(focusedIndex);
+        loader.execute();
     }
 
     /**
-     * Add all the requests which existed the last time the program was closed.
+     * Wait until the saved requests are loaded and add the ones which are not in the list yet.
+     * @return False if the saved requests could not be loaded.
      */
-    private void LoadRequests() {
-        setVisible(false);
-        LinkedList<Connection> savedRequests = StreamUtils.readRequests();
-        for (Connection request : savedRequests)
-            addRequest(request, "load");
-        if (!savedRequests.isEmpty()) {
-            Connection lastRequest = savedRequests.get(savedRequests.size() - 1);
-            mainWindow.getRequestSettingPanel().setProperties(lastRequest.getMethod(),
-                    lastRequest.getUrlString(), lastRequest.getFormData(), lastRequest.getRequestHeaders(),
-                    lastRequest.getQuery(), lastRequest.getBinaryFileName());
+    private boolean finishLoading() {
+        if (loader == null)
+            return true;
+        try {
+            loader.get();
+        } catch (Exception e) {
+            System.err.println("An unexpected error occurred while reading saved requests: " + e.getMessage());
+            return false;
         }
-        setVisible(true);
+        loader.addLoaded(loader.items);
+        return true;
+    }
+
+    /**
+     * @return The index of the focused request among all the requests, or -1 if no request is focused.
+     */
+    public int getFocusedIndex() {
+        if (!finishLoading())
+            return -1;
+        return requests.getAll().indexOf(focusedRequest);
+    }
+
+    /**
+     * Show the settings of a saved request which was read before it was added to the list, unless another
+     * request was focused meanwhile.
+     * @param item The request to show.
+     */
+    private void showLoaded(RequestItem item) {
+        if (focusedRequest != null || item.connection == null)
+            return;
+        focusedRequest = item;
+        Connection request = item.connection;
+        mainWindow.getRequestSettingPanel().setProperties(request.getMethod(), request.getUrlString(),
+                request.getFormData(), request.getRequestHeaders(), request.getQuery(),
+                request.getBinaryFileName());
     }
 
     /**
@@ -150,15 +244,268 @@ public class RequestPanel extends JPanel {
      * @param method The new method to be shown on the request button.
      */
     public void setFocusedRequestMethod(String method) {
-        if (focusedRequestButton != null)
-            ((JLabel) focusedRequestButton.getComponent(1)).setText(method);
+        if (focusedRequest != null) {
+            focusedRequest.method = method;
+            requestList.repaint();
+        }
     }
 
     /**
      * @return The connection which has the focus on.
      */
     public Connection getFocusedRequest() {
-        return requests.get(focusedRequestButton);
+        return (focusedRequest != null)? focusedRequest.load() : null;
+    }
+
+    /**
+     * A request of the list. A saved request is known by its summary until it's selected, and then it's read.
+     */
+    private static class RequestItem {
+
+        private final RequestStore.Entry entry; // The summary of the saved request, or null if it's new
+        private Connection connection; // The request, or null if it was never read
+        private final String name; // The name of the request
+        private String method; // The method shown for the request
+        private final String filterText; // The name, method and URL of the request in lower case
+
+        private RequestItem(RequestStore.Entry entry, Connection connection) {
+            this.entry = entry;
+            this.connection = connection;
+            name = (connection != null)? connection.getName() : entry.getName();
+            method = (connection != null)? connection.getMethod() : entry.getMethod();
+            filterText = (name + " " + method + " " + ((connection != null)? connection.getUrlString()
+                    : entry.getUrl())).toLowerCase();
+        }
+
+        /**
+         * @return The request, which is read the first time it's needed, or null if it could not be read.
+         */
+        private Connection load() {
+            if (connection == null)
+                connection = StreamUtils.readRequest(entry);
+            return connection;
+        }
+    }
+
+    /**
+     * The model of the list of requests. It keeps all the requests and the ones which match the filter.
+     * Typing more of the filter only searches the requests which matched the shorter filter.
+     */
+    private static class RequestListModel extends AbstractListModel<RequestItem> {
+
+        private final ArrayList<RequestItem> all = new ArrayList<>(); // All the requests in order
+        private ArrayList<RequestItem> shown = all; // The requests which match the filter in order
+        private String filter = ""; // The filter in lower case
+
+        @Override
+        public int getSize() {
+            return shown.size();
+        }
+
+        @Override
+        public RequestItem getElementAt(int index) {
+            return shown.get(index);
+        }
+
+        /**
+         * @param item A request.
+         * @return The index of the request in the list, or -1 if it's not shown.
+         */
+        private int indexOf(RequestItem item) {
+            return (item == null)? -1 : shown.indexOf(item);
+        }
+
+        /**
+         * @return All the requests in order, including the ones which are not shown.
+         */
+        private List<RequestItem> getAll() {
+            return all;
+        }
+
+        /**
+         * Add a request at the end of the list.
+         * @param item The request to add.
+         */
+        private void add(RequestItem item) {
+            all.add(item);
+            if (shown != all && matches(item))
+                shown.add(item);
+            if (shown == all || matches(item))
+                fireIntervalAdded(this, shown.size() - 1, shown.size() - 1);
+        }
+
+        /**
+         * Insert some requests into the list.
+         * @param position The position among all the requests to insert them at.
+         * @param items The requests to insert.
+         */
+        private void insertAll(int position, List<RequestItem> items) {
+            all.addAll(position, items);
+            if (shown == all) {
+                fireIntervalAdded(this, position, position + items.size() - 1);
+                return;
+            }
+            int oldSize = shown.size();
+            ArrayList<RequestItem> matched = new ArrayList<>();
+            for (RequestItem item : all)
+                if (matches(item))
+                    matched.add(item);
+            shown = matched;
+            if (oldSize > 0)
+                fireIntervalRemoved(this, 0, oldSize - 1);
+            if (!shown.isEmpty())
+                fireIntervalAdded(this, 0, shown.size() - 1);
+        }
+
+        /**
+         * Show only the requests whose name, method or URL contains a text, ignoring case.
+         * @param text The text of the filter, or an empty string to show all the requests.
+         */
+        private void setFilter(String text) {
+            text = text.trim().toLowerCase();
+            if (text.equals(filter))
+                return;
+            List<RequestItem> candidates = (!filter.isEmpty() && text.contains(filter))? shown : all;
+            filter = text;
+            int oldSize = shown.size();
+            if (text.isEmpty())
+                shown = all;
+            else {
+                ArrayList<RequestItem> matched = new ArrayList<>();
+                for (RequestItem item : candidates)
+                    if (matches(item))
+                        matched.add(item);
+                shown = matched;
+            }
+            if (oldSize > 0)
+                fireIntervalRemoved(this, 0, oldSize - 1);
+            if (!shown.isEmpty())
+                fireIntervalAdded(this, 0, shown.size() - 1);
+        }
+
+        /**
+         * @param item A request.
+         * @return True if the request matches the filter.
+         */
+        private boolean matches(RequestItem item) {
+            return filter.isEmpty() || item.filterText.contains(filter);
+        }
     }
 
+    /**
+     * Loads the saved requests in the background. The summaries of all of them are read from the index of the
+     * store, the focused request is read and published first, and then the requests are published to the list
+     * in batches, so the window is shown and usable while a large collection is being loaded.
+     */
+    private class RequestLoader extends SwingWorker<Void, RequestItem> {
+
+        private final static int BATCH_SIZE = 256; // The number of requests published at once
+
+        private final int focusedIndex; // The index of the request to focus, or -1 for the last one
+        private List<RequestItem> items; // All the saved requests, once their summaries are read
+        private RequestItem focused; // The saved request which is focused, or null
+        private int added; // The number of saved requests added to the list
+        private final long startTime; // The time the loading started at
+
+        private RequestLoader(int focusedIndex) {
+            this.focusedIndex = focusedIndex;
+            startTime = System.nanoTime();
+        }
+
+        @Override
+        protected Void doInBackground() {
+            List<RequestStore.Entry> entries = StreamUtils.listRequests();
+            ArrayList<RequestItem> loaded = new ArrayList<>(entries.size());
+            for (RequestStore.Entry entry : entries)
+                loaded.add(new RequestItem(entry, null));
+            items = loaded;
+
+            // Read the request which was focused first, or the last one which can be read
+            int index = (focusedIndex >= 0 && focusedIndex < loaded.size())? focusedIndex : loaded.size() - 1;
+            for (int i = index; i >= 0 && focused == null; i--)
+                if (loaded.get(i).load() != null)
+                    focused = loaded.get(i);
+            if (focused != null)
+                publish(focused);
+
+            for (int i = 0; i < loaded.size(); i += BATCH_SIZE)
+                publish(loaded.subList(i, Math.min(loaded.size(), i + BATCH_SIZE)).toArray(new RequestItem[0]));
+            return null;
+        }
+
+        @Override
+        protected void process(List<RequestItem> chunks) {
+            if (!chunks.isEmpty() && chunks.get(0) == focused && added == 0)
+                showLoaded(focused);
+            addLoaded(chunks);
+        }
+
+        /**
+         * Add the saved requests which are not in the list yet, in order. Requests which were already added are
+         * skipped, since they are added both here and once finishLoading gets all of them.
+         * @param chunks Saved requests in order, some of which may have been added already.
+         */
+        private void addLoaded(List<RequestItem> chunks) {
+            ArrayList<RequestItem> batch = new ArrayList<>();
+            for (RequestItem item : chunks)
+                if (added < items.size() && items.get(added) == item) {
+                    batch.add(item);
+                    added++;
+                }
+            if (batch.isEmpty())
+                return;
+            requests.insertAll(savedCount, batch);
+            savedCount += batch.size();
+            int index = requests.indexOf(focusedRequest);
+            if (index >= 0 && requestList.getSelectedIndex() != index) {
+                requestList.setSelectedIndex(index);
+                requestList.ensureIndexIsVisible(index);
+            }
+            if (added == items.size())
+                logLoaded();
+        }
+
+        @Override
+        protected void done() {
+            if (items != null && items.isEmpty())
+                logLoaded();
+        }
+
+        /**
+         * Print how long loading the saved requests took, so a slow start can be noticed.
+         */
+        private void logLoaded() {
+            System.out.printf("Loaded %d saved request(s) in %d ms\n", added,
+                    (System.nanoTime() - startTime) / 1_000_000);
+        }
+    }
+
+    /**
+     * Paints a request of the list as its name on the left and its method on the right. The same component
+     * paints every row.
+     */
+    private class RequestRenderer extends JPanel implements ListCellRenderer<RequestItem> {
+
+        private final JLabel name = new JLabel(); // The label of the name of the request
+        private final JLabel method = new JLabel(); // The label of the method of the request
+
+        private RequestRenderer() {
+            setLayout(new BorderLayout());
+            setBorder(BorderFactory.createEmptyBorder(0, 10, 0, 10));
+            name.setForeground(new Color(120, 100, 225));
+            method.setForeground(new Color(120, 100, 225));
+            add(name, BorderLayout.WEST);
+            add(method, BorderLayout.EAST);
+        }
+
+        @Override
+        public Component getListCellRendererComponent(JList<? extends RequestItem> list, RequestItem value,
+                                                      int index, boolean isSelected, boolean cellHasFocus) {
+            name.setText(value.name);
+            method.setText(value.method);
+            Color background = (mainWindow.getTheme().equals("light"))? Color.WHITE : Color.DARK_GRAY;
+            setBackground(isSelected? background.darker() : background);
+            return this;
+        }
+    }
 }
@@ -1,7 +1,5 @@
 package Insomnia.Graphics;
 
-import Insomnia.Connection.ConnectionMain;
-
 import javax.swing.*;
 import javax.swing.filechooser.FileSystemView;
 import java.awt.*;
@@ -32,6 +30,8 @@ public class RequestSettingPanel extends JPanel {
     private JPanel bodyPanel; // The panel of the body tab
     private JPanel binaryUploadPanel; // The panel of the binary upload
     private NameValueForm formDataPanel; // The panel of the form-data
+    private JButton send; // The button which sends the request, or cancels it while it's being sent
+    private ConnectionMain sending; // The request which is being sent, or null
 
     /**
      * Create a new Request Setting panel.
@@ -103,15 +103,37 @@ public class RequestSettingPanel extends JPanel {
         URL.setPreferredSize(new Dimension(200, 40));
         sendPanel.add(URL, BorderLayout.CENTER);
 
-        JButton send = new JButton("Send");
+        send = new JButton("Send");
         send.setPreferredSize(new Dimension(75, 40));
-        send.addActionListener(e -> new ConnectionMain(mainWindow).execute());
+        send.addActionListener(e -> {
+            if (sending != null) // The button cancels the request while it's being sent
+                sending.abort();
+            else if (mainWindow.getRequestPanel().getFocusedRequest() == null) // Nothing to send the URL with
+                JOptionPane.showMessageDialog(null, "Add a new request or select one first.",
+                        "No Request Selected", JOptionPane.ERROR_MESSAGE);
+            else if (getURL().equals("")) // Print error in case no URL was detected
+                JOptionPane.showMessageDialog(null, "Can't leave the URL field empty.",
+                        "No URL Found", JOptionPane.ERROR_MESSAGE);
+            else {
+                sending = new ConnectionMain(mainWindow);
+                send.setText("Cancel");
+                sending.execute();
+            }
+        });
 
         sendPanel.add(send, BorderLayout.EAST);
 
         setFontAndColor(sendPanel, methodsList, URL, send);
     }
 
+    /**
+     * Let the send button send a new request again, once the last one is done or cancelled.
+     */
+    public void sendFinished() {
+        sending = null;
+        send.setText("Send");
+    }
+
     /**
      * Initiate the tabs of this panel. A 'Body' tab which includes body types: 'Form Data',
      * 'JSON' and 'Binary Data' and a 'Header' tab which includes an editable list of headers.
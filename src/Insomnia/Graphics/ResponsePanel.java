@@ -1,6 +1,9 @@
 package Insomnia.Graphics;
 
-import javax.imageio.ImageIO;
+import Insomnia.Connection.ExchangeTimings;
+import Insomnia.Connection.HttpCache;
+import Insomnia.Connection.SpillSink;
+import Insomnia.Connection.StreamUtils;
 import javax.swing.*;
 import javax.swing.border.Border;
 import javax.swing.border.CompoundBorder;
@@ -9,9 +12,6 @@ import javax.swing.table.DefaultTableModel;
 import java.awt.*;
 import java.awt.datatransfer.Clipboard;
 import java.awt.datatransfer.StringSelection;
-import java.awt.image.BufferedImage;
-import java.io.ByteArrayInputStream;
-import java.io.IOException;
 import java.net.URL;
 import java.util.HashMap;
 
@@ -32,8 +32,8 @@ public class ResponsePanel extends JPanel {
     private JPanel statusBar; // The status bar at the top of the response panel
     private JTable headerTable; // The table which contains the information about the headers
     private JScrollPane tableScrollPane; // The Scroll Pane which is the container of headers' table
-    private JTextArea rawDataField; // The text area which is going to show the response as raw data
-    private JPanel previewPanel; // The panel which is going to show the response in case it's a picture
+    private BodyViewer rawDataField; // The viewer which is going to show the response as raw data
+    private PreviewPanel previewPanel; // The panel which is going to show the response in case it's a picture
 
 
     /**
@@ -97,7 +97,7 @@ public class ResponsePanel extends JPanel {
         body.setMaximumRowCount(3);
         headerPanel();
         tab = new JTabbedPane();
-        previewPanel = new JPanel();
+        previewPanel = new PreviewPanel();
         initiateRawData();
         bodyPanel();
         tab.addTab("Body", bodyPanel);
@@ -107,12 +107,12 @@ public class ResponsePanel extends JPanel {
         body.addActionListener(e -> {
             if (body.getSelectedIndex() == 0) {
                 bodyPanel.removeAll();
-                bodyPanel.add(new JScrollPane(rawDataField), BorderLayout.CENTER);
+                bodyPanel.add(rawDataField, BorderLayout.CENTER);
                 bodyPanel.repaint();
             }
             else {
                 bodyPanel.removeAll();
-                bodyPanel.add(new JScrollPane(previewPanel), BorderLayout.CENTER);
+                bodyPanel.add(previewPanel, BorderLayout.CENTER);
                 bodyPanel.repaint();
             }
         });
@@ -125,11 +125,7 @@ public class ResponsePanel extends JPanel {
      * Initiate the raw data panel.
      */
     private void initiateRawData() {
-        rawDataField = new JTextArea();
-        rawDataField.setLineWrap(true);
-        rawDataField.setWrapStyleWord(true);
-        rawDataField.setEditable(false);
-        rawDataField.setMargin(new Insets(10, 10, 10, 10));
+        rawDataField = new BodyViewer();
         setFontAndColor(rawDataField);
     }
 
@@ -168,7 +164,17 @@ public class ResponsePanel extends JPanel {
         dataReceived.setPreferredSize(new Dimension(50, 30));
         statusBar.add(dataReceived);
 
-        setFontAndColor(responseTime, dataReceived);
+        WaterfallPanel waterfall = new WaterfallPanel();
+        waterfall.setPreferredSize(new Dimension(80, 30));
+        statusBar.add(waterfall);
+
+        JLabel connection = new JLabel("");
+        connection.setOpaque(true);
+        connection.setHorizontalAlignment(0);
+        connection.setPreferredSize(new Dimension(65, 30));
+        statusBar.add(connection);
+
+        setFontAndColor(responseTime, dataReceived, connection);
     }
 
     /**
@@ -195,7 +201,7 @@ public class ResponsePanel extends JPanel {
     private void bodyPanel() {
         bodyPanel = new JPanel();
         bodyPanel.setLayout(new BorderLayout());
-        bodyPanel.add(new JScrollPane(rawDataField));
+        bodyPanel.add(rawDataField);
     }
 
     /**
@@ -233,6 +239,16 @@ public class ResponsePanel extends JPanel {
         headerTable.getTableHeader().setBorder(BorderFactory.createLineBorder(Color.GRAY, 1));
     }
 
+    /**
+     * Show how large a compressed response was on the wire as the tool tip of its size.
+     * @param wireSize The size of the response as it was sent, or null if it was not compressed.
+     * @param contentEncoding The encoding of the response, such as 'gzip', or null.
+     */
+    public void setWireSize(String wireSize, String contentEncoding) {
+        ((JLabel) statusBar.getComponent(2)).setToolTipText((wireSize != null && contentEncoding != null)?
+                wireSize + " on the wire (" + contentEncoding + ")" : null);
+    }
+
     /**
      * Edit the status bar at the top of this panel according to the given information.
      * @param statusMessage The status message of the response.
@@ -240,9 +256,42 @@ public class ResponsePanel extends JPanel {
      * @param dataReceived The volume of the response.
      */
     public void editStatusBar(String statusMessage, String time, String dataReceived) {
+        editStatusBar(statusMessage, time, dataReceived, null, null);
+    }
+
+    /**
+     * Edit the status bar at the top of this panel according to the given information, and show how long each
+     * phase of the exchange took as a waterfall and if the response came from the cache or else if the connection
+     * was reused from the pool.
+     * @param statusMessage The status message of the response.
+     * @param time The time used for the connection to be created and get the response.
+     * @param dataReceived The volume of the response.
+     * @param timings How long each phase of the exchange took, or null to clear the waterfall.
+     * @param cacheStatus HttpCache.HIT, MISS or REVALIDATED, or null if the request was not sent through the cache.
+     */
+    public void editStatusBar(String statusMessage, String time, String dataReceived, ExchangeTimings timings,
+                              String cacheStatus) {
+        ((WaterfallPanel) statusBar.getComponent(3)).setTimings(timings);
         JLabel status = (JLabel) statusBar.getComponent(0);
         JLabel responseTime = (JLabel) statusBar.getComponent(1);
         JLabel volume = (JLabel) statusBar.getComponent(2);
+        JLabel connection = (JLabel) statusBar.getComponent(4);
+        if (cacheStatus != null) {
+            connection.setText(cacheStatus.equals(HttpCache.HIT)? "Hit"
+                    : cacheStatus.equals(HttpCache.REVALIDATED)? "Revalidated" : "Miss");
+            connection.setToolTipText(cacheStatus.equals(HttpCache.HIT)? "Served from the cache"
+                    : cacheStatus.equals(HttpCache.REVALIDATED)? "The server answered that the cached response is valid"
+                    : "Received from the server and not from the cache");
+        }
+        else if (timings != null && timings.isReuseKnown()) {
+            connection.setText(timings.isReused()? "Reused" : "New");
+            connection.setToolTipText(timings.isReused()? "The connection was reused from the pool"
+                    : "A new connection was made");
+        }
+        else {
+            connection.setText("");
+            connection.setToolTipText(null);
+        }
         status.setText(statusMessage);
         char c = statusMessage.charAt(0);
         switch (c) {
@@ -270,6 +319,28 @@ public class ResponsePanel extends JPanel {
         statusBar.repaint();
     }
 
+    /**
+     * Show how much of a response has been received while it is being received, and how long it has taken so far.
+     * @param received The number of bytes received so far.
+     * @param expected The number of bytes of the whole body, or -1 if it's not known.
+     * @param elapsedTime The nanoseconds since the request was sent.
+     */
+    public void showProgress(long received, long expected, long elapsedTime) {
+        ((WaterfallPanel) statusBar.getComponent(3)).setTimings(null);
+        JLabel status = (JLabel) statusBar.getComponent(0);
+        status.setText((expected > 0)? (received * 100 / expected) + "%" : (received > 0)? "RECEIVING" : "WAITING");
+        status.setBackground(Color.LIGHT_GRAY);
+        ((JLabel) statusBar.getComponent(1)).setText(String.format("%.2fs", elapsedTime / 1_000_000_000.0));
+        JLabel volume = (JLabel) statusBar.getComponent(2);
+        volume.setText(StreamUtils.formatSize(received));
+        volume.setToolTipText((expected > 0)? "of " + StreamUtils.formatSize(expected) : null);
+        JLabel connection = (JLabel) statusBar.getComponent(4);
+        connection.setText("");
+        connection.setToolTipText(null);
+        statusBar.revalidate();
+        statusBar.repaint();
+    }
+
     /**
      * Set the response text shown as raw data.
      * @param rawData The text of the response.
@@ -279,26 +350,51 @@ public class ResponsePanel extends JPanel {
     }
 
     /**
-     * Set the preview of the response in case it's an image.
-     * @param response The bytes of the picture to show in preview section.
+     * Show the body of a response as raw data. Only the part of the body which is visible is decoded, so a body
+     * of any size can be shown.
+     * @param body The body of the response.
+     * @param contentType The value of the Content-Type header of the response, or null.
      */
-    public void setPreview(byte[] response) {
-        ByteArrayInputStream stream = new ByteArrayInputStream(response);
-        try {
-            previewPanel = new ImagePanel(ImageIO.read(stream));
-        } catch (IOException e) {
-            System.err.println("Could not display image: " + e.getMessage());
+    public void setRawData(SpillSink body, String contentType) {
+        if (body.size() == 0) {
+            body.release();
+            rawDataField.setText("Empty");
         }
-        previewPanel.revalidate(); previewPanel.repaint();
+        else
+            rawDataField.setBody(body, StreamUtils.getCharset(contentType));
+    }
+
+    /**
+     * Set the preview of the response in case it's an image. The image is decoded in the background to fit the
+     * body panel, and kept for the request.
+     * @param request The request of the response.
+     * @param body The body of the response.
+     */
+    public void setPreview(Object request, SpillSink body) {
+        previewPanel.show(request, body, bodyPanel.getSize());
+    }
+
+    /**
+     * Show the preview kept for a request which was selected, or nothing if it has none.
+     * @param request The selected request.
+     */
+    public void showPreview(Object request) {
+        previewPanel.show(request);
     }
 
     /**
      * Reset the preview panel in case the response has no preview.
      */
     public void resetPreview() {
-        previewPanel = new JPanel();
-        previewPanel.revalidate(); previewPanel.repaint();
-        bodyPanel.revalidate(); bodyPanel.repaint();
+        previewPanel.clear(null);
+    }
+
+    /**
+     * Reset the preview panel and forget the preview kept for a request, in case its new response has none.
+     * @param request The request of the response.
+     */
+    public void resetPreview(Object request) {
+        previewPanel.clear(request);
     }
 
     /**
@@ -315,20 +411,50 @@ public class ResponsePanel extends JPanel {
     }
 
     /**
-     * A panel which is capable of showing pictures in it.
+     * A panel which shows the phases of an exchange as a waterfall. Each phase is a bar on its own row which
+     * starts where the phase before it ended, and the tooltip shows how long each one took.
      */
-    private class ImagePanel extends JPanel{
+    private class WaterfallPanel extends JPanel {
 
-        private BufferedImage image;
+        private final Color[] colors = {new Color(0, 150, 136), new Color(255, 152, 0), new Color(156, 39, 176),
+                new Color(76, 175, 80), new Color(33, 150, 243)}; // The colors of the phases
+        private ExchangeTimings timings; // The timings shown, or null
 
-        public ImagePanel(BufferedImage image) {
-            this.image = image;
+        /**
+         * @param timings The timings to show, or null to show nothing.
+         */
+        public void setTimings(ExchangeTimings timings) {
+            this.timings = timings;
+            if (timings == null)
+                setToolTipText(null);
+            else {
+                String text = "<html>";
+                long[] phases = timings.getPhases();
+                for (int i = 0; i < phases.length; i++)
+                    text = text.concat(ExchangeTimings.PHASES[i] + ": " + ExchangeTimings.format(phases[i]) + "<br>");
+                setToolTipText(text + "Total: " + ExchangeTimings.format(timings.getTotal()) + "</html>");
+            }
+            repaint();
         }
 
         @Override
         protected void paintComponent(Graphics g) {
             super.paintComponent(g);
-            g.drawImage(image, 0, 0, this);
+            if (timings == null)
+                return;
+            long[] phases = timings.getPhases();
+            double total = Math.max(1, timings.getTotal());
+            int rowHeight = getHeight() / phases.length;
+            long start = 0;
+            for (int i = 0; i < phases.length; i++) {
+                if (phases[i] < 0)
+                    continue;
+                int x = (int) (start / total * getWidth());
+                int width = Math.max(1, (int) ((start + phases[i]) / total * getWidth()) - x);
+                g.setColor(colors[i]);
+                g.fillRect(x, i * rowHeight, width, Math.max(1, rowHeight - 1));
+                start += phases[i];
+            }
         }
     }
 }
@@ -65,6 +65,7 @@ public class RunTimeWindows extends JFrame {
      * A window for when the option menu is selected. It's possible to change the
      * application's theme or manage what should happen when the program is closed
      * or you can choose the follow redirects automatically or not via this window.
+     * The connection pool, the HTTP version of the requests and the response cache can be set here as well.
      */
     public void options() {
 
@@ -73,7 +74,7 @@ public class RunTimeWindows extends JFrame {
         setLayout(null);
         setTitle("Options");
         setIconImage(new ImageIcon(getClass().getResource("icon/Options.png")).getImage());
-        setSize(300, 170);
+        setSize(300, 320);
 
         // Create components of the window
         JCheckBox redirect = new JCheckBox("  Follow redirects automatically");
@@ -98,6 +99,24 @@ public class RunTimeWindows extends JFrame {
             darkTheme.setSelected(true);
             lightTheme.setSelected(false);
         }
+        JLabel maxIdleLabel = new JLabel("  Max idle connections");
+        maxIdleLabel.setLocation(10, 140); maxIdleLabel.setSize(160, 20);
+        JSpinner maxIdle = new JSpinner(new SpinnerNumberModel(mainWindow.getMaxIdleConnections(), 0, 1000, 1));
+        maxIdle.setLocation(180, 140); maxIdle.setSize(80, 20);
+        JLabel idleTimeoutLabel = new JLabel("  Idle timeout (seconds)");
+        idleTimeoutLabel.setLocation(10, 170); idleTimeoutLabel.setSize(160, 20);
+        JSpinner idleTimeout = new JSpinner(new SpinnerNumberModel(mainWindow.getIdleTimeout(), 1, 86400, 10));
+        idleTimeout.setLocation(180, 170); idleTimeout.setSize(80, 20);
+        JLabel httpVersionLabel = new JLabel("  HTTP version");
+        httpVersionLabel.setLocation(10, 200); httpVersionLabel.setSize(160, 20);
+        String[] httpVersions = {"Automatic", Connection.HTTP_1_1, Connection.HTTP_2};
+        JComboBox<String> httpVersion = new JComboBox<>(httpVersions);
+        httpVersion.setLocation(180, 200); httpVersion.setSize(80, 20);
+        httpVersion.setSelectedItem((mainWindow.getHttpVersion() != null)? mainWindow.getHttpVersion() : "Automatic");
+        JCheckBox cache = new JCheckBox("  Cache responses");
+        cache.setLocation(10, 230); cache.setSize(250, 20);
+        cache.setSelected(mainWindow.isCacheResponses());
+        cache.addActionListener(e -> mainWindow.setCacheResponses(cache.isSelected()));
         addComponents(redirect, exit, lightTheme, darkTheme);
         theme.add(lightTheme);
         theme.add(darkTheme);
@@ -106,17 +125,29 @@ public class RunTimeWindows extends JFrame {
         lightTheme.addItemListener(e -> {
             mainWindow.setTheme("light");
             getContentPane().setBackground(Color.WHITE);
-            setFontAndColor(redirect, exit, lightTheme, darkTheme);
+            setFontAndColor(redirect, exit, lightTheme, darkTheme, maxIdleLabel, idleTimeoutLabel, httpVersionLabel,
+                    cache);
         });
         darkTheme.addItemListener(e -> {
             mainWindow.setTheme("dark");
             getContentPane().setBackground(Color.DARK_GRAY);
-            setFontAndColor(redirect, exit, lightTheme, darkTheme);
+            setFontAndColor(redirect, exit, lightTheme, darkTheme, maxIdleLabel, idleTimeoutLabel, httpVersionLabel,
+                    cache);
         });
+        javax.swing.event.ChangeListener poolListener = e -> {
+            if (!mainWindow.setConnectionPool((int) maxIdle.getValue(), (int) idleTimeout.getValue()))
+                maxIdleLabel.setToolTipText("The connection pool changes after the program is started again.");
+        };
+        maxIdle.addChangeListener(poolListener);
+        idleTimeout.addChangeListener(poolListener);
+        httpVersion.addActionListener(e -> mainWindow.setHttpVersion((httpVersion.getSelectedIndex() == 0)?
+                null : (String) httpVersion.getSelectedItem()));
 
         // Set the components color and font and add them to this window
-        setFontAndColor(redirect, exit, lightTheme, darkTheme);
-        addComponents(redirect, exit, lightTheme, darkTheme);
+        setFontAndColor(redirect, exit, lightTheme, darkTheme, maxIdleLabel, idleTimeoutLabel, httpVersionLabel,
+                cache);
+        addComponents(redirect, exit, lightTheme, darkTheme, maxIdleLabel, maxIdle, idleTimeoutLabel, idleTimeout,
+                httpVersionLabel, httpVersion, cache);
 
         repaint(); setVisible(true);
     }